@@ -18,16 +18,18 @@ SERVER_NAME = "STOMP_PYTHON_SQL_SERVER"  # DO NOT CHANGE!
 DB_FILE = "stomp_server.db"              # DO NOT CHANGE!
 
 
-def recv_null_terminated(sock: socket.socket) -> str:
-    data = b""
+def recv_null_terminated(sock: socket.socket, pending: bytearray) -> str:
+    # bytes after the first NUL belong to the next (pipelined) statement and stay in `pending`
     while True:
+        end = pending.find(b"\0")
+        if end != -1:
+            msg = bytes(pending[:end])
+            del pending[:end + 1]
+            return msg.decode("utf-8", errors="replace")
         chunk = sock.recv(1024)
         if not chunk:
             return ""
-        data += chunk
-        if b"\0" in data:
-            msg, _ = data.split(b"\0", 1)
-            return msg.decode("utf-8", errors="replace")
+        pending += chunk
 
 
 def init_database():
@@ -48,6 +50,24 @@ def init_database():
                        username TEXT, 
                        filename TEXT, 
                        timestamp TEXT)''')
+
+    # tables written by the Java server's Database audit log
+    columns = [row[1] for row in cursor.execute("PRAGMA table_info(users)")]
+    if "registration_date" not in columns:
+        cursor.execute("ALTER TABLE users ADD COLUMN registration_date TEXT")
+
+    cursor.execute('''CREATE TABLE IF NOT EXISTS login_history 
+                      (id INTEGER PRIMARY KEY AUTOINCREMENT, 
+                       username TEXT, 
+                       login_time TEXT, 
+                       logout_time TEXT)''')
+
+    cursor.execute('''CREATE TABLE IF NOT EXISTS file_tracking 
+                      (id INTEGER PRIMARY KEY AUTOINCREMENT, 
+                       username TEXT, 
+                       filename TEXT, 
+                       upload_time TEXT, 
+                       game_channel TEXT)''')
     
     conn.commit()
     conn.close()
@@ -80,9 +100,10 @@ def execute_sql_query(sql_query: str) -> str:
 
 def handle_client(client_socket: socket.socket, addr):
     print(f"[{SERVER_NAME}] Client connected from {addr}")
+    pending = bytearray()
     try:
         while True:
-            message = recv_null_terminated(client_socket)
+            message = recv_null_terminated(client_socket, pending)
             if not message:
                 break
 
@@ -113,6 +134,8 @@ def start_server(host="127.0.0.1", port=7778):
 
         while True:
             client_socket, addr = server_socket.accept()
+            # responses to pipelined statements are small back-to-back writes, don't let Nagle hold them
+            client_socket.setsockopt(socket.IPPROTO_TCP, socket.TCP_NODELAY, 1)
             t = threading.Thread(
                 target=handle_client,
                 args=(client_socket, addr),
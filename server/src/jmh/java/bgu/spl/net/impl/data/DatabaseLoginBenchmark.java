@@ -0,0 +1,73 @@
+package bgu.spl.net.impl.data;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Database.login against a stub SQL endpoint. The audit records are written behind,
+ * so this is the cost a protocol thread pays per CONNECT.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Threads(4)
+public class DatabaseLoginBenchmark {
+	private static final AtomicInteger NEXT_ID = new AtomicInteger();
+
+	@State(Scope.Benchmark)
+	public static class Endpoint {
+		Database db;
+
+		@Setup(Level.Trial)
+		public void start() throws IOException {
+			StubSqlEndpoint.installForDatabase();
+			db = Database.getInstance();
+		}
+
+		@TearDown(Level.Trial)
+		public void drain() {
+			db.flushAudit();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Client {
+		int connectionId;
+		String returningUser;
+		int newUsers;
+
+		@Setup(Level.Trial)
+		public void register(Endpoint endpoint) {
+			connectionId = NEXT_ID.getAndIncrement();
+			returningUser = "bench-returning-" + connectionId + "-" + System.nanoTime();
+			endpoint.db.login(connectionId, returningUser, "pw");
+			endpoint.db.logout(connectionId);
+		}
+	}
+
+	@Benchmark
+	public LoginStatus loginReturningUser(Endpoint endpoint, Client client) {
+		LoginStatus status = endpoint.db.login(client.connectionId, client.returningUser, "pw");
+		endpoint.db.logout(client.connectionId);
+		return status;
+	}
+
+	@Benchmark
+	public LoginStatus loginNewUser(Endpoint endpoint, Client client) {
+		String user = client.returningUser + "-new-" + client.newUsers++;
+		LoginStatus status = endpoint.db.login(client.connectionId, user, "pw");
+		endpoint.db.logout(client.connectionId);
+		return status;
+	}
+}
@@ -0,0 +1,69 @@
+package bgu.spl.net.impl.data;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * The startup load of the registered users from a stub SQL endpoint: the streamed CredentialTable
+ * against reading the same rows as one String into a map of Users. Run with -prof gc to also compare
+ * the bytes each load allocates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RegistryLoadBenchmark {
+
+	@Param({"10000", "100000"})
+	public int users;
+
+	private ServerSocket endpoint;
+	private SqlConnectionPool pool;
+
+	@Setup(Level.Trial)
+	public void start() throws IOException {
+		endpoint = StubSqlEndpoint.startWithUsers(users);
+		pool = new SqlConnectionPool("127.0.0.1", endpoint.getLocalPort(), 1);
+		if (streamedTable().size() != users || stringAndMap().size() != users) {
+			throw new IllegalStateException("the users do not load");
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void stop() throws IOException {
+		pool.close();
+		endpoint.close();
+	}
+
+	@Benchmark
+	public CredentialTable streamedTable() throws IOException {
+		return pool.query(CredentialTable.SELECT_ALL, CredentialTable::read);
+	}
+
+	/**
+	 * what a load through execute() would keep: every row as a String, then a User per row
+	 */
+	@Benchmark
+	public ConcurrentHashMap<String, User> stringAndMap() throws IOException {
+		String rows = pool.execute("SELECT username, password FROM users");
+		ConcurrentHashMap<String, User> map = new ConcurrentHashMap<>();
+		for (String row : rows.split("\\|")) {
+			int comma = row.indexOf(',');
+			String name = row.substring(0, comma);
+			map.putIfAbsent(name, new User(-1, name, row.substring(comma + 1)));
+		}
+		return map;
+	}
+}
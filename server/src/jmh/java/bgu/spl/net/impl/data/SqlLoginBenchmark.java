@@ -0,0 +1,91 @@
+package bgu.spl.net.impl.data;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * The SQL traffic of a first-time login (users INSERT + login_history INSERT) against a stub SQL endpoint,
+ * once with a new socket per statement (the old Database.executeSQL) and once through SqlConnectionPool.
+ * One operation is one login.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Threads(4)
+public class SqlLoginBenchmark {
+	private static final AtomicInteger NEXT_USER = new AtomicInteger();
+
+	@Param({"4"})
+	public int poolSize;
+
+	private ServerSocket endpoint;
+	private SqlConnectionPool pool;
+
+	@Setup(Level.Trial)
+	public void start() throws IOException {
+		endpoint = StubSqlEndpoint.startWithUsers(0);
+		pool = new SqlConnectionPool("127.0.0.1", endpoint.getLocalPort(), poolSize);
+	}
+
+	@TearDown(Level.Trial)
+	public void stop() throws IOException {
+		pool.close();
+		endpoint.close();
+	}
+
+	@Benchmark
+	public String socketPerStatement() throws IOException {
+		String response = null;
+		for (String sql : statements()) {
+			response = executePerStatementSocket(sql);
+		}
+		return response;
+	}
+
+	@Benchmark
+	public List<String> pooledAndPipelined() throws IOException {
+		return pool.executeAll(statements());
+	}
+
+	private static List<String> statements() {
+		String user = "bench-" + NEXT_USER.getAndIncrement();
+		return Arrays.asList(
+				"INSERT INTO users (username, password, registration_date) VALUES ('" + user + "', 'pw', datetime('now'))",
+				"INSERT INTO login_history (username, login_time) VALUES ('" + user + "', datetime('now'))");
+	}
+
+	private String executePerStatementSocket(String sql) throws IOException {
+		try (Socket socket = new Socket("127.0.0.1", endpoint.getLocalPort());
+			 OutputStream out = socket.getOutputStream();
+			 InputStream in = socket.getInputStream()) {
+			out.write((sql + "\0").getBytes(StandardCharsets.UTF_8));
+			out.flush();
+			StringBuilder response = new StringBuilder();
+			int b;
+			while ((b = in.read()) != -1 && b != 0) {
+				response.append((char) b);
+			}
+			return response.toString();
+		}
+	}
+}
@@ -0,0 +1,146 @@
+package bgu.spl.net.impl.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Stands in for data/sql_server.py: answers every NUL terminated statement with "SUCCESS",
+ * and every SELECT with "empty" (or the users of {@link #startWithUsers}), without touching a database,
+ * so benchmarks measure only the Java side.
+ */
+public final class StubSqlEndpoint {
+	private static final byte[] RESPONSE = "SUCCESS\0".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] NO_ROWS = "empty\0".getBytes(StandardCharsets.US_ASCII);
+	private static ServerSocket endpoint;
+
+	private StubSqlEndpoint() {
+	}
+
+	/**
+	 * Start the stub once per JVM and point Database at it; must run before Database.getInstance
+	 */
+	public static synchronized void installForDatabase() throws IOException {
+		if (endpoint != null) {
+			return;
+		}
+		endpoint = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		System.setProperty("stomp.sql.host", "127.0.0.1");
+		System.setProperty("stomp.sql.port", Integer.toString(endpoint.getLocalPort()));
+
+		Thread acceptor = new Thread(() -> {
+			while (!endpoint.isClosed()) {
+				try {
+					Socket client = endpoint.accept();
+					client.setTcpNoDelay(true);
+					Thread worker = new Thread(() -> serve(client), "stub-sql-client");
+					worker.setDaemon(true);
+					worker.start();
+				} catch (IOException e) {
+					return;
+				}
+			}
+		}, "stub-sql-acceptor");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	/**
+	 * Start a stub of its own whose users are test-0 .. test-(users-1) with passwords pw-0 ..;
+	 * a SELECT of hex() columns gets them hex encoded, any other SELECT as plain text
+	 * @return the listening socket, close it to stop accepting
+	 */
+	public static ServerSocket startWithUsers(int users) throws IOException {
+		StringBuilder plain = new StringBuilder();
+		StringBuilder hex = new StringBuilder();
+		for (int i = 0; i < users; i++) {
+			String name = "test-" + i;
+			String password = "pw-" + i;
+			plain.append(i == 0 ? "" : "|").append(name).append(',').append(password);
+			hex.append(i == 0 ? "" : "|").append(hex(name)).append(',').append(hex(password));
+		}
+		byte[] plainRows = (users == 0 ? "empty\0" : plain + "\0").getBytes(StandardCharsets.US_ASCII);
+		byte[] hexRows = (users == 0 ? "empty\0" : hex + "\0").getBytes(StandardCharsets.US_ASCII);
+
+		ServerSocket listener = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		Thread acceptor = new Thread(() -> {
+			while (!listener.isClosed()) {
+				try {
+					Socket client = listener.accept();
+					Thread worker = new Thread(() -> serveUsers(client, plainRows, hexRows), "stub-sql-client");
+					worker.setDaemon(true);
+					worker.start();
+				} catch (IOException e) {
+					return;
+				}
+			}
+		}, "stub-sql-acceptor");
+		acceptor.setDaemon(true);
+		acceptor.start();
+		return listener;
+	}
+
+	private static String hex(String value) {
+		StringBuilder hex = new StringBuilder();
+		for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+			hex.append(Character.toUpperCase(Character.forDigit(b >> 4 & 0xF, 16)))
+					.append(Character.toUpperCase(Character.forDigit(b & 0xF, 16)));
+		}
+		return hex.toString();
+	}
+
+	private static void serveUsers(Socket client, byte[] plainRows, byte[] hexRows) {
+		try (Socket s = client) {
+			InputStream in = new BufferedInputStream(s.getInputStream());
+			OutputStream out = new BufferedOutputStream(s.getOutputStream());
+			ByteArrayOutputStream statement = new ByteArrayOutputStream();
+			int b;
+			while ((b = in.read()) != -1) {
+				if (b != 0) {
+					statement.write(b);
+					continue;
+				}
+				String sql = new String(statement.toByteArray(), StandardCharsets.UTF_8);
+				statement.reset();
+				if (sql.regionMatches(true, 0, "SELECT", 0, 6)) {
+					out.write(sql.contains("hex(") ? hexRows : plainRows);
+				} else {
+					out.write(RESPONSE);
+				}
+				out.flush();
+			}
+		} catch (IOException ignored) {
+		}
+	}
+
+	private static void serve(Socket client) {
+		try (Socket s = client) {
+			InputStream in = new BufferedInputStream(s.getInputStream());
+			OutputStream out = new BufferedOutputStream(s.getOutputStream());
+			boolean statementStart = true;
+			boolean select = false;
+			int b;
+			while ((b = in.read()) != -1) {
+				if (statementStart) {
+					select = b == 'S' || b == 's';
+				}
+				statementStart = b == 0;
+				if (b == 0) {
+					out.write(select ? NO_ROWS : RESPONSE);
+					// answer a pipelined batch in one write, once its last statement has arrived
+					if (in.available() == 0) {
+						out.flush();
+					}
+				}
+			}
+		} catch (IOException ignored) {
+		}
+	}
+}
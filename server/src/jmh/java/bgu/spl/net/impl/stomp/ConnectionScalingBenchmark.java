@@ -0,0 +1,198 @@
+package bgu.spl.net.impl.stomp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import bgu.spl.net.srv.Server;
+
+/**
+ * A server in the given mode holding idleConnections logged-in connections, while each benchmark thread is
+ * an active client timing the MESSAGE round trip of a SEND to its own channel.
+ * vtpc needs Java 21 (-p mode=vtpc); N connections need about 2N file descriptors, and above ~25k
+ * connections the idle clients spread over 127.0.0.x source addresses.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(4)
+public class ConnectionScalingBenchmark {
+    private static final int CONNECTIONS_PER_SOURCE_ADDRESS = 25_000;
+    private static final AtomicInteger NEXT_CLIENT = new AtomicInteger();
+
+    @Param({"tpc", "reactor"})
+    public String mode;
+
+    @Param({"1000", "10000"})
+    public int idleConnections;
+
+    int port;
+    private Server<String> server;
+    private List<SocketChannel> idle;
+    private final String run = Long.toString(System.nanoTime(), 36);
+
+    @Setup(Level.Trial)
+    public void start() throws IOException, InterruptedException {
+        try (ServerSocket free = new ServerSocket(0)) {
+            port = free.getLocalPort();
+        }
+        server = startServer(mode, port);
+        idle = openIdle(idleConnections, port, run);
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() throws IOException {
+        for (SocketChannel chan : idle) {
+            chan.close();
+        }
+        server.close();
+    }
+
+    @State(Scope.Thread)
+    public static class ActiveClient {
+        private Socket sock;
+        private InputStream in;
+        private OutputStream out;
+        private byte[] send;
+
+        @Setup(Level.Trial)
+        public void connect(ConnectionScalingBenchmark benchmark) throws IOException {
+            String login = benchmark.run + "-a" + NEXT_CLIENT.getAndIncrement();
+            sock = new Socket("127.0.0.1", benchmark.port);
+            sock.setTcpNoDelay(true);
+            in = sock.getInputStream();
+            out = sock.getOutputStream();
+            String channel = "/scaling-" + login;
+            out.write(connectFrame(login));
+            readFrame(in);
+            out.write(("SUBSCRIBE\ndestination:" + channel + "\nid:1\nreceipt:1\n\n\u0000").getBytes(StandardCharsets.UTF_8));
+            readFrame(in);
+            send = ("SEND\ndestination:" + channel + "\n\nteam a: germany\nteam b: japan\nevent name: goal\n\u0000")
+                    .getBytes(StandardCharsets.UTF_8);
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            sock.close();
+        }
+    }
+
+    @Benchmark
+    public void roundTrip(ActiveClient client) throws IOException {
+        client.out.write(client.send);
+        readFrame(client.in);
+    }
+
+    private static Server<String> startServer(String mode, int port) throws InterruptedException {
+        Server<String> server;
+        switch (mode) {
+            case "tpc":
+                server = Server.threadPerClient(port, StompMessagingProtocolImpl::new, StompMessageEncoderDecoder::new);
+                break;
+            case "vtpc":
+                server = Server.virtualThreadPerClient(port, StompMessagingProtocolImpl::new, StompMessageEncoderDecoder::new);
+                break;
+            case "reactor":
+                server = Server.reactor(Runtime.getRuntime().availableProcessors(), port,
+                        StompMessagingProtocolImpl::new, StompMessageEncoderDecoder::new);
+                break;
+            default:
+                throw new IllegalArgumentException("unknown mode " + mode);
+        }
+        Thread serving = new Thread(server::serve, "server");
+        serving.setDaemon(true);
+        serving.start();
+        Thread.sleep(500);
+        return server;
+    }
+
+    private static byte[] connectFrame(String login) {
+        return ("CONNECT\naccept-version:1.2\nhost:stomp.cs.bgu.ac.il\nlogin:" + login + "\npasscode:pw\n\n\u0000")
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    // non-blocking connect + CONNECT of every idle client from this one thread, waits for every CONNECTED
+    private static List<SocketChannel> openIdle(int count, int port, String run) throws IOException {
+        List<SocketChannel> channels = new ArrayList<>(count);
+        int pending = 0;
+        try (Selector selector = Selector.open()) {
+            for (int i = 0; i < count; i++) {
+                SocketChannel chan = SocketChannel.open();
+                chan.configureBlocking(false);
+                chan.bind(new InetSocketAddress("127.0.0." + (1 + i / CONNECTIONS_PER_SOURCE_ADDRESS), 0));
+                chan.connect(new InetSocketAddress("127.0.0.1", port));
+                chan.register(selector, SelectionKey.OP_CONNECT, ByteBuffer.wrap(connectFrame(run + "-i" + i)));
+                channels.add(chan);
+                pending++;
+                // keep the accept backlog from overflowing
+                while (pending > 512) {
+                    pending -= pump(selector);
+                }
+            }
+            while (pending > 0) {
+                pending -= pump(selector);
+            }
+        }
+        return channels;
+    }
+
+    private static int pump(Selector selector) throws IOException {
+        int connected = 0;
+        selector.select();
+        for (SelectionKey key : selector.selectedKeys()) {
+            SocketChannel chan = (SocketChannel) key.channel();
+            if (key.isConnectable() && chan.finishConnect()) {
+                chan.write((ByteBuffer) key.attachment());
+                key.attach(ByteBuffer.allocate(64));
+                key.interestOps(SelectionKey.OP_READ);
+            } else if (key.isReadable()) {
+                ByteBuffer in = (ByteBuffer) key.attachment();
+                if (chan.read(in) < 0 || in.position() > 0 && in.get(in.position() - 1) == 0) {
+                    key.cancel();
+                    connected++;
+                } else if (!in.hasRemaining()) {
+                    in.clear();
+                }
+            }
+        }
+        selector.selectedKeys().clear();
+        return connected;
+    }
+
+    // reads up to the NUL ending a frame, and the empty frame the server's double NUL leaves behind
+    private static void readFrame(InputStream in) throws IOException {
+        int b;
+        while ((b = in.read()) > 0) {
+        }
+        if (b < 0) {
+            throw new IOException("server closed the connection");
+        }
+        if (in.read() != 0) {
+            throw new IOException("expected the server's trailing NUL");
+        }
+    }
+}
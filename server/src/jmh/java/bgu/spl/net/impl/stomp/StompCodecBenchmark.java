@@ -0,0 +1,67 @@
+package bgu.spl.net.impl.stomp;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * StompMessageEncoderDecoder on a typical game event: encode, bulk decode of a read holding
+ * one or several frames, and the per-byte decode it replaced.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class StompCodecBenchmark {
+    static final String SEND = "SEND\ndestination:/germany_japan\nreceipt:42\n\n"
+            + "user: meni\nteam a: germany\nteam b: japan\nevent name: goal!!!!\ntime: 1980\n"
+            + "general game updates:\n    active: true\nteam a updates:\n    goals: 1\n"
+            + "team b updates:\n    goals: 0\ndescription:\nGOOOAAALLL!!! Germany lead!\n";
+
+    @Param({"1", "16"})
+    public int framesPerRead;
+
+    private final StompMessageEncoderDecoder encdec = new StompMessageEncoderDecoder();
+    private ByteBuffer read;
+
+    @Setup
+    public void setUp() {
+        byte[] frame = encdec.encode(SEND);
+        read = ByteBuffer.allocateDirect(frame.length * framesPerRead);
+        for (int i = 0; i < framesPerRead; i++) {
+            read.put(frame);
+        }
+        read.flip();
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return encdec.encode(SEND);
+    }
+
+    @Benchmark
+    public List<String> decode() {
+        read.rewind();
+        return encdec.decode(read);
+    }
+
+    @Benchmark
+    public void decodeNextByte(Blackhole bh) {
+        read.rewind();
+        while (read.hasRemaining()) {
+            String frame = encdec.decodeNextByte(read.get());
+            if (frame != null) {
+                bh.consume(frame);
+            }
+        }
+    }
+}
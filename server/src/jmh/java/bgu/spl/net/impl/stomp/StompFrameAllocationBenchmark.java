@@ -0,0 +1,70 @@
+package bgu.spl.net.impl.stomp;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The protocol's parsing path for one SEND frame: the old regex/split/HashMap parsing against StompFrame.
+ * Both build the outgoing MESSAGE frame text. Run with -prof gc for the bytes allocated per frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class StompFrameAllocationBenchmark {
+    private static final String SEND = StompCodecBenchmark.SEND + "\u0000";
+
+    private final StompFrame frame = new StompFrame();
+
+    @Benchmark
+    public String stompFrame() {
+        return flyweight(frame, SEND);
+    }
+
+    @Benchmark
+    public String regexSplitHashMap() {
+        return legacy(SEND);
+    }
+
+    private static String flyweight(StompFrame frame, String message) {
+        frame.parse(message);
+        String destination = frame.header("destination");
+        String receipt = frame.header("receipt");
+        StringBuilder out = new StringBuilder(64 + destination.length() + frame.bodyLength())
+                .append("MESSAGE\nmessage-id:").append(1).append('\n')
+                .append("destination:").append(destination).append("\n\n");
+        return frame.appendBody(out).append("\n\u0000").append(receipt).toString();
+    }
+
+    // the parsing path of StompMessagingProtocolImpl before StompFrame
+    private static String legacy(String message) {
+        String cleanedMessage = message.replaceAll("^\\s+", "");
+        String command = cleanedMessage.split("\\n")[0].trim();
+        Map<String, String> headers = new HashMap<>();
+        String[] lines = message.split("\n");
+        for (int i = 1; i < lines.length; i++) {
+            String line = lines[i].trim();
+            if (line.isEmpty()) break;
+            int splitIndex = line.indexOf(':');
+            if (splitIndex != -1) {
+                headers.put(line.substring(0, splitIndex).trim(), line.substring(splitIndex + 1).trim());
+            }
+        }
+        String destination = headers.get("destination");
+        int bodyStartIndex = message.indexOf("\n\n");
+        int nullCharIndex = message.indexOf('\u0000');
+        if (nullCharIndex == -1) {
+            nullCharIndex = message.length();
+        }
+        String body = bodyStartIndex != -1 ? message.substring(bodyStartIndex + 2, nullCharIndex) : "";
+        return command.length() + "MESSAGE\n" + "message-id:" + 1 + "\n" + "destination:" + destination + "\n" + "\n"
+                + body + "\n" + "\u0000" + headers.get("receipt");
+    }
+}
@@ -0,0 +1,68 @@
+package bgu.spl.net.impl.stomp;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Frames decoded per second by StompMessageEncoderDecoder, for game reports with a short, a 4k and a 64k
+ * description, framed by the NUL alone or with a content-length header. The frames arrive in 8k reads,
+ * as the servers read them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class StompFramingBenchmark {
+    private static final int READ_SIZE = 1 << 13;
+    private static final int FRAMES = 16;
+
+    @Param({"100", "4096", "65536"})
+    public int bodySize;
+
+    @Param({"nul", "content-length"})
+    public String framing;
+
+    private final StompMessageEncoderDecoder encdec = new StompMessageEncoderDecoder();
+    private ByteBuffer stream;
+
+    @Setup
+    public void setUp() {
+        StringBuilder body = new StringBuilder("user: meni\nevent name: goal!!!!\ndescription:\n");
+        while (body.length() < bodySize) {
+            body.append("GOOOAAALLL!!! Germany lead! ");
+        }
+        body.setLength(bodySize);
+        String headers = "SEND\ndestination:/germany_japan\n"
+                + ("content-length".equals(framing) ? "content-length:" + bodySize + "\n" : "");
+        byte[] frame = encdec.encode(headers + "\n" + body);
+        stream = ByteBuffer.allocateDirect(frame.length * FRAMES);
+        for (int i = 0; i < FRAMES; i++) {
+            stream.put(frame);
+        }
+        stream.flip();
+        if (encdec.decode(stream.duplicate()).size() != FRAMES) {
+            throw new IllegalStateException("the frames do not decode");
+        }
+    }
+
+    /**
+     * one operation decodes all the frames
+     */
+    @Benchmark
+    public void decode(Blackhole bh) {
+        for (int position = 0; position < stream.capacity(); position += READ_SIZE) {
+            stream.limit(Math.min(position + READ_SIZE, stream.capacity()));
+            stream.position(position);
+            bh.consume(encdec.decode(stream));
+        }
+    }
+}
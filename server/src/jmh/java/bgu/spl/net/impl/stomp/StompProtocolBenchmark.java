@@ -0,0 +1,119 @@
+package bgu.spl.net.impl.stomp;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import bgu.spl.net.impl.data.StubSqlEndpoint;
+import bgu.spl.net.srv.ConnectionHandler;
+import bgu.spl.net.srv.ConnectionsImpl;
+import bgu.spl.net.srv.SharedFrame;
+
+/**
+ * StompMessagingProtocolImpl.process per command, on a logged-in connection whose
+ * outgoing frames are discarded. SQL traffic goes to a stub endpoint.
+ * subscriptions is how many channels the connection has joined, as a dashboard following many games would.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class StompProtocolBenchmark {
+    private static final AtomicInteger NEXT_ID = new AtomicInteger(1_000_000);
+
+    @Param({"1", "1000"})
+    public int subscriptions;
+
+    private final ConnectionsImpl<String> connections = new ConnectionsImpl<>();
+    private final DiscardingHandler handler = new DiscardingHandler();
+    private StompMessagingProtocolImpl protocol;
+    private int connectionId;
+    private int sessionId;
+    private String sessionConnect;
+    private String send;
+    private String subscribe;
+    private String unsubscribe;
+
+    private static class DiscardingHandler implements ConnectionHandler<String> {
+        int frames;
+
+        @Override
+        public void send(String msg) {
+            frames++;
+        }
+
+        @Override
+        public void send(SharedFrame frame, int subscriptionId) {
+            frames++;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        StubSqlEndpoint.installForDatabase();
+        connectionId = NEXT_ID.getAndIncrement();
+        sessionId = NEXT_ID.getAndIncrement();
+        // the other channels differ only in their last characters, as a scan over them would compare them all
+        String channel = "/bench-" + connectionId + "-g0999";
+        sessionConnect = connectFrame(sessionId);
+        send = "SEND\ndestination:" + channel + "\nreceipt:42\n\n"
+                + "user: meni\nteam a: germany\nteam b: japan\nevent name: goal!!!!\ntime: 1980\n"
+                + "description:\nGOOOAAALLL!!! Germany lead!\n";
+        subscribe = "SUBSCRIBE\ndestination:/bench-other-" + connectionId + "\nid:2\nreceipt:43\n\n";
+        unsubscribe = "UNSUBSCRIBE\nid:2\nreceipt:44\n\n";
+
+        protocol = login(connectionId, connectFrame(connectionId));
+        for (int id = 1000; id < 1000 + subscriptions - 1; id++) {
+            protocol.process("SUBSCRIBE\ndestination:/bench-" + connectionId + "-g" + id + "\nid:" + id + "\n\n");
+        }
+        protocol.process("SUBSCRIBE\ndestination:" + channel + "\nid:1\n\n");
+    }
+
+    private static String connectFrame(int id) {
+        return "CONNECT\naccept-version:1.2\nhost:stomp.cs.bgu.ac.il\nlogin:bench-" + id + "-" + System.nanoTime()
+                + "\npasscode:pw\n\n";
+    }
+
+    private StompMessagingProtocolImpl login(int id, String connectFrame) {
+        connections.addConnection(id, handler);
+        StompMessagingProtocolImpl session = new StompMessagingProtocolImpl();
+        session.start(id, connections);
+        session.process(connectFrame);
+        return session;
+    }
+
+    @Benchmark
+    public int send() {
+        protocol.process(send);
+        return handler.frames;
+    }
+
+    @Benchmark
+    public int subscribeUnsubscribe() {
+        protocol.process(subscribe);
+        protocol.process(unsubscribe);
+        return handler.frames;
+    }
+
+    /**
+     * a whole session: a fresh protocol, CONNECT with a returning user and DISCONNECT
+     */
+    @Benchmark
+    public int connectDisconnect() {
+        login(sessionId, sessionConnect).process("DISCONNECT\nreceipt:45\n\n");
+        return handler.frames;
+    }
+}
@@ -0,0 +1,11 @@
+package bgu.spl.net.impl.stomp;
+
+import org.openjdk.jmh.annotations.Fork;
+
+/**
+ * StompProtocolBenchmark with metrics recording switched off; the difference between the two
+ * is what the per-command histograms and counters cost.
+ */
+@Fork(jvmArgsAppend = "-Dstomp.metrics=false")
+public class StompProtocolWithoutMetricsBenchmark extends StompProtocolBenchmark {
+}
@@ -0,0 +1,88 @@
+package bgu.spl.net.srv;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * ActorExecutor.submit from 4 submitting threads (the selector threads of a multi-reactor)
+ * onto a shared pool, spreading tasks over a number of actors (connections).
+ * Each submitter keeps at most WINDOW tasks in flight, so the score is the rate the pool sustains.
+ * Compares the monitor based ActorThreadPool with the MailboxActorExecutor; for more submitters
+ * than 4 pass -jvmArgs/-t through -Djmh.args, e.g. -Djmh.args="-t 32".
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Threads(4)
+public class ActorThreadPoolBenchmark {
+    private static final int WINDOW = 1024;
+
+    @State(Scope.Benchmark)
+    public static class Pool {
+        @Param({"1", "64", "4096"})
+        public int actors;
+
+        @Param({"4", "32"})
+        public int poolThreads;
+
+        @Param({"monitor", "mailbox"})
+        public String executor;
+
+        ActorExecutor<? super Actor> pool;
+        Actor[] acts;
+        final AtomicInteger nextSubmitter = new AtomicInteger();
+
+        @Setup(Level.Trial)
+        public void start() {
+            pool = "monitor".equals(executor) ? new ActorThreadPool(poolThreads) : new MailboxActorExecutor(poolThreads);
+            acts = new Actor[actors];
+            for (int i = 0; i < actors; i++) {
+                ActorMailbox mailbox = new ActorMailbox();
+                acts[i] = () -> mailbox;
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() {
+            pool.shutdown();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Submitter {
+        final AtomicLong completed = new AtomicLong();
+        long submitted;
+        int nextActor;
+        Runnable task;
+
+        @Setup(Level.Trial)
+        public void start(Pool pool) {
+            // submitters start on different actors so a single actor is the only forced collision
+            nextActor = pool.nextSubmitter.getAndIncrement() % pool.actors;
+            task = completed::incrementAndGet;
+        }
+    }
+
+    @Benchmark
+    public void submit(Pool pool, Submitter submitter) {
+        while (submitter.submitted - submitter.completed.get() >= WINDOW) {
+            Thread.yield();
+        }
+        Actor act = pool.acts[submitter.nextActor];
+        submitter.nextActor = (submitter.nextActor + 1) % pool.acts.length;
+        submitter.submitted++;
+        pool.pool.submit(act, submitter.task);
+    }
+}
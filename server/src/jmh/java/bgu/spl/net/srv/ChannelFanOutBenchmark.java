@@ -0,0 +1,63 @@
+package bgu.spl.net.srv;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * ConnectionsImpl.send(channel, msg) to every subscriber of one channel; the handlers only
+ * count frames, so this is the cost of the fan-out itself.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ChannelFanOutBenchmark {
+    private static final String CHANNEL = "/germany_japan";
+    private static final String MESSAGE = "MESSAGE\ndestination:" + CHANNEL + "\n\n"
+            + "user: meni\nteam a: germany\nteam b: japan\nevent name: goal!!!!\ntime: 1980\n\u0000";
+
+    @Param({"1", "100", "10000", "100000"})
+    public int subscribers;
+
+    private final ConnectionsImpl<String> connections = new ConnectionsImpl<>();
+    private final CountingHandler handler = new CountingHandler();
+
+    private static class CountingHandler implements ConnectionHandler<String> {
+        long frames;
+
+        @Override
+        public void send(String msg) {
+            frames++;
+        }
+
+        @Override
+        public void send(SharedFrame frame, int subscriptionId) {
+            frames++;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        for (int id = 0; id < subscribers; id++) {
+            connections.addConnection(id, handler);
+            connections.subscribe(CHANNEL, id, id);
+        }
+    }
+
+    @Benchmark
+    public long send() {
+        connections.send(CHANNEL, MESSAGE);
+        return handler.frames;
+    }
+}
@@ -0,0 +1,97 @@
+package bgu.spl.net.srv;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Routing one message among 100k subscriptions: mostly exact games, some whole groups (/worldcup/groupE/*),
+ * some one game in every group (/worldcup/*&#47;game7) and a few of everything (/worldcup/**).
+ * trie is {@link DestinationTrie}; scan matches every pattern in turn, which is what wildcards would cost
+ * on top of the exact channel map. The score is the time to find every matching subscription.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DestinationRoutingBenchmark {
+    private static final int GROUPS = 32;
+    private static final int GAMES = 64;
+
+    @Param({"100000"})
+    public int subscriptions;
+
+    @Param({"trie", "scan"})
+    public String routing;
+
+    private final DestinationTrie<Integer> trie = new DestinationTrie<>();
+    private final List<String> patterns = new ArrayList<>();
+    private String[] destinations;
+    private int next;
+    private int matched;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        for (int i = 0; i < subscriptions; i++) {
+            int group = random.nextInt(GROUPS);
+            int game = random.nextInt(GAMES);
+            int kind = random.nextInt(100);
+            String pattern;
+            if (kind < 80) {
+                pattern = "/worldcup/group" + group + "/game" + game;
+            } else if (kind < 95) {
+                pattern = "/worldcup/group" + group + "/*";
+            } else if (kind < 99) {
+                pattern = "/worldcup/*/game" + game;
+            } else {
+                pattern = "/worldcup/**";
+            }
+            trie.add(pattern, i, i);
+            patterns.add(pattern);
+        }
+        destinations = new String[1024];
+        for (int i = 0; i < destinations.length; i++) {
+            destinations[i] = "/worldcup/group" + random.nextInt(GROUPS) + "/game" + random.nextInt(GAMES);
+        }
+    }
+
+    @Benchmark
+    public int route() {
+        String destination = destinations[next++ & (destinations.length - 1)];
+        matched = 0;
+        if (routing.equals("trie")) {
+            trie.forEachMatch(destination, subscription -> matched++);
+        } else {
+            for (String pattern : patterns) {
+                if (matches(pattern, destination)) {
+                    matched++;
+                }
+            }
+        }
+        return matched;
+    }
+
+    private static boolean matches(String pattern, String destination) {
+        String[] expected = pattern.split("/", -1);
+        String[] levels = destination.split("/", -1);
+        for (int i = 0; i < expected.length; i++) {
+            if (expected[i].equals(DestinationTrie.ANY_LEVELS)) {
+                return true;
+            }
+            if (i == levels.length || !expected[i].equals(DestinationTrie.ANY_LEVEL) && !expected[i].equals(levels[i])) {
+                return false;
+            }
+        }
+        return expected.length == levels.length;
+    }
+}
@@ -0,0 +1,131 @@
+package bgu.spl.net.srv;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import bgu.spl.net.impl.data.StubSqlEndpoint;
+import bgu.spl.net.impl.stomp.StompMessageEncoderDecoder;
+import bgu.spl.net.impl.stomp.StompMessagingProtocolImpl;
+
+/**
+ * Clients that pipeline SEND frames: one selector thread submits 8k read chunks full of SENDs,
+ * each decoded and processed by the connection's actor, keeping up to WINDOW chunks in flight.
+ * The score is chunks per millisecond; batch=1 pays an executor hand-off per chunk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Threads(1)
+public class PipelinedSendBenchmark {
+    private static final int WINDOW = 256;
+    private static final int CHUNK_SIZE = 1 << 13; //8k, a read of the reactor
+
+    @Param({"1", "16", "64"})
+    public int batch;
+
+    @Param({"1", "8"})
+    public int clients;
+
+    @Param({"4"})
+    public int poolThreads;
+
+    private MailboxActorExecutor executor;
+    private Client[] connections;
+    private final AtomicLong completed = new AtomicLong();
+    private long submitted;
+    private int next;
+
+    private static class DiscardingClient implements ConnectionHandler<String> {
+        @Override
+        public void send(String msg) {
+        }
+
+        @Override
+        public void send(SharedFrame frame, int subscriptionId) {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private final class Client implements Actor {
+        private final ActorMailbox mailbox = new ActorMailbox();
+        private final StompMessageEncoderDecoder encdec = new StompMessageEncoderDecoder();
+        private final StompMessagingProtocolImpl protocol = new StompMessagingProtocolImpl();
+        private final Runnable readChunk;
+
+        Client(int id, ConnectionsImpl<String> connections, ByteBuffer chunk) {
+            connections.addConnection(id, new DiscardingClient());
+            protocol.start(id, connections);
+            protocol.process("CONNECT\naccept-version:1.2\nhost:stomp.cs.bgu.ac.il\nlogin:pipeline-" + id + "-"
+                    + System.nanoTime() + "\npasscode:pw\n\n");
+            protocol.process("SUBSCRIBE\ndestination:/pipeline-" + id + "\nid:1\n\n");
+            readChunk = () -> {
+                for (String frame : encdec.decode(chunk.duplicate())) {
+                    protocol.process(frame);
+                }
+                completed.incrementAndGet();
+            };
+        }
+
+        @Override
+        public ActorMailbox mailbox() {
+            return mailbox;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        StubSqlEndpoint.installForDatabase();
+        executor = new MailboxActorExecutor(poolThreads, batch, 0);
+        ConnectionsImpl<String> registry = new ConnectionsImpl<>();
+        connections = new Client[clients];
+        for (int i = 0; i < clients; i++) {
+            connections[i] = new Client(2_000_000 + i, registry, chunkOfSends("/pipeline-" + (2_000_000 + i)));
+        }
+    }
+
+    private static ByteBuffer chunkOfSends(String channel) {
+        byte[] send = ("SEND\ndestination:" + channel + "\n\n"
+                + "user: meni\nteam a: germany\nteam b: japan\nevent name: goal!!!!\ntime: 1980\n"
+                + "description:\nGOOOAAALLL!!! Germany lead!\n\u0000").getBytes(StandardCharsets.UTF_8);
+        ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+        while (chunk.remaining() >= send.length) {
+            chunk.put(send);
+        }
+        chunk.flip();
+        return chunk;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Benchmark
+    public void readChunk() {
+        while (submitted - completed.get() >= WINDOW) {
+            Thread.yield();
+        }
+        Client client = connections[next];
+        next = (next + 1) % connections.length;
+        submitted++;
+        executor.submit(client, client.readChunk);
+    }
+}
@@ -0,0 +1,66 @@
+package bgu.spl.net.srv;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Numbering messages from 32 threads: the one static counter every SEND used to increment, against
+ * the channel's own sequence taken under its lock, with the senders spread over the given number of channels.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Threads(32)
+public class SequencerBenchmark {
+    private static final AtomicInteger globalCounter = new AtomicInteger();
+    private static final AtomicInteger threads = new AtomicInteger();
+
+    @Param({"1", "64"})
+    public int channels;
+
+    private ChannelHistory[] histories;
+
+    @State(Scope.Thread)
+    public static class Sender {
+        int channel;
+
+        @Setup
+        public void setUp(SequencerBenchmark benchmark) {
+            channel = threads.getAndIncrement() % benchmark.channels;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        histories = new ChannelHistory[channels];
+        for (int i = 0; i < channels; i++) {
+            histories[i] = new ChannelHistory(0, 0, 0);
+        }
+    }
+
+    @Benchmark
+    public int globalCounter() {
+        return globalCounter.getAndIncrement();
+    }
+
+    @Benchmark
+    public long channelSequence(Sender sender) {
+        ChannelHistory history = histories[sender.channel];
+        history.lock.lock();
+        try {
+            return history.nextSequence();
+        } finally {
+            history.lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package bgu.spl.net.srv.journal;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import bgu.spl.net.srv.SharedFrame;
+
+/**
+ * Appends of a game event MESSAGE frame (about 300 bytes) to one destination's journal, per fsync policy.
+ * The journal lives under target/ and small segments keep rolling, so retention runs as well.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Threads(1)
+public class JournalBenchmark {
+
+    @Param({"PER_MESSAGE", "BATCHED", "OS"})
+    public FsyncPolicy policy;
+
+    private MessageJournal journal;
+    private DestinationJournal destination;
+    private byte[] frame;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Path root = Files.createTempDirectory(Files.createDirectories(Paths.get("target", "jmh-journal")), "journal");
+        journal = new MessageJournal(root, policy, 50, 16 << 20, 256L << 20, Long.MAX_VALUE);
+        destination = journal.journal("/usa_mexico");
+        frame = new SharedFrame("MESSAGE\nmessage-id:node.0.1234567\nsequence:1234567\ndestination:/usa_mexico\n\n"
+                + "user: meni\nteam a: USA\nteam b: Mexico\nevent name: goal!!!!\ntime: 1980\n"
+                + "general game updates:\n    active: true\n    before halftime: false\n"
+                + "team a updates:\n    goals: 2\n    possession: 51%\nteam b updates:\n    goals: 1\n"
+                + "description:\nChristian Pulisic scores from the edge of the box.\n").encoded();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        journal.close();
+    }
+
+    @Benchmark
+    public long append() throws IOException {
+        return destination.append(frame);
+    }
+}
@@ -0,0 +1,33 @@
+package bgu.spl.net.srv.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * The hot-path recording calls, from 4 threads hitting the same histogram and counters.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Threads(4)
+public class MetricsRecordingBenchmark {
+    private final Histogram histogram = new Histogram();
+    private final ServerMetrics metrics = ServerMetrics.getInstance();
+
+    @Benchmark
+    public void recordLatency() {
+        histogram.record(System.nanoTime() & 0xFFFFF);
+    }
+
+    @Benchmark
+    public void countWrite() {
+        metrics.written(1, 4, 512);
+    }
+}
@@ -1,5 +1,10 @@
 package bgu.spl.net.api;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 public interface MessageEncoderDecoder<T> {
 
     /**
@@ -11,6 +16,27 @@ public interface MessageEncoderDecoder<T> {
      */
     T decodeNextByte(byte nextByte);
 
+    /**
+     * decode every remaining byte of the given buffer; bytes of an unfinished message
+     * are kept and completed by the next call
+     *
+     * @param buffer the bytes to decode, consumed up to its limit
+     * @return the messages completed by these bytes, in order (possibly empty)
+     */
+    default List<T> decode(ByteBuffer buffer) {
+        List<T> messages = Collections.emptyList();
+        while (buffer.hasRemaining()) {
+            T nextMessage = decodeNextByte(buffer.get());
+            if (nextMessage != null) {
+                if (messages.isEmpty()) {
+                    messages = new ArrayList<>();
+                }
+                messages.add(nextMessage);
+            }
+        }
+        return messages;
+    }
+
     /**
      * encodes the given message to bytes array
      *
@@ -0,0 +1,302 @@
+package bgu.spl.net.impl.data;
+
+import java.io.Closeable;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Write-behind pipeline for audit statements (logins, logouts, file uploads).
+ * Callers only enqueue; a background writer group-commits the queue to the SQL service,
+ * merging consecutive inserts into the same table into one multi-row INSERT and
+ * pipelining the resulting statements on one pooled connection.
+ */
+public class AuditLog implements Closeable {
+
+	public enum OverflowPolicy {
+		/** the caller waits for room in the queue */
+		BLOCK,
+		/** the record is dropped and counted */
+		DROP
+	}
+
+	// same shape as sqlite's datetime('now'), but taken when the event happened rather than when it is written
+	private static final DateTimeFormatter SQL_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+	private final SqlConnectionPool pool;
+	private final BlockingQueue<AuditRecord> queue;
+	private final int batchSize;
+	private final long flushIntervalMillis;
+	private final OverflowPolicy overflowPolicy;
+	private final Thread writer;
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	// held shared while a record or flush marker is queued and exclusively while close queues the stop marker,
+	// so nothing is ever queued behind it
+	private final ReentrantReadWriteLock closing = new ReentrantReadWriteLock();
+	private volatile boolean closed = false;
+
+	public AuditLog(SqlConnectionPool pool, int capacity, int batchSize, long flushIntervalMillis, OverflowPolicy overflowPolicy) {
+		if (batchSize < 1 || capacity < 1) {
+			throw new IllegalArgumentException("capacity and batchSize must be positive");
+		}
+		this.pool = pool;
+		this.queue = new ArrayBlockingQueue<>(capacity);
+		this.batchSize = batchSize;
+		this.flushIntervalMillis = flushIntervalMillis;
+		this.overflowPolicy = overflowPolicy;
+		this.writer = new Thread(this::writeLoop, "audit-writer");
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+
+	public static String now() {
+		return LocalDateTime.now(ZoneOffset.UTC).format(SQL_TIME);
+	}
+
+	/**
+	 * Queue a row for "INSERT INTO ... VALUES"; consecutive rows with the same prefix are written as one statement
+	 * @param insertPrefix the statement up to and including "VALUES "
+	 * @param values one parenthesized row
+	 */
+	public void insert(String insertPrefix, String values) {
+		append(new AuditRecord(insertPrefix, values));
+	}
+
+	/**
+	 * Queue a statement that is written on its own, in order with the inserts around it
+	 */
+	public void statement(String sql) {
+		append(new AuditRecord(null, sql));
+	}
+
+	private void append(AuditRecord record) {
+		closing.readLock().lock();
+		try {
+			if (closed) {
+				dropped.incrementAndGet();
+				return;
+			}
+			if (overflowPolicy == OverflowPolicy.DROP) {
+				if (!queue.offer(record)) {
+					dropped.incrementAndGet();
+				}
+				return;
+			}
+			queue.put(record);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			dropped.incrementAndGet();
+		} finally {
+			closing.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Block until every record queued before this call has been written
+	 */
+	public void flush() {
+		AuditRecord marker = AuditRecord.marker(false);
+		closing.readLock().lock();
+		try {
+			if (closed || !writer.isAlive()) {
+				return;
+			}
+			queue.put(marker);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return;
+		} finally {
+			closing.readLock().unlock();
+		}
+		try {
+			marker.written.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Stop accepting records, write everything already queued and stop the writer
+	 */
+	@Override
+	public void close() {
+		closing.writeLock().lock();
+		try {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			queue.put(AuditRecord.marker(true));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return;
+		} finally {
+			closing.writeLock().unlock();
+		}
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public long droppedCount() {
+		return dropped.get();
+	}
+
+	public long failedCount() {
+		return failed.get();
+	}
+
+	private void writeLoop() {
+		List<AuditRecord> batch = new ArrayList<>(batchSize);
+		List<AuditRecord> markers = new ArrayList<>();
+		boolean stop = false;
+		while (!stop) {
+			try {
+				AuditRecord next = queue.take();
+				long deadline = System.currentTimeMillis() + flushIntervalMillis;
+				while (true) {
+					if (next.isMarker()) {
+						markers.add(next);
+						stop = next.stop;
+						break;
+					}
+					batch.add(next);
+					long wait = deadline - System.currentTimeMillis();
+					if (batch.size() >= batchSize || wait <= 0 || (next = queue.poll(wait, TimeUnit.MILLISECONDS)) == null) {
+						break;
+					}
+				}
+			} catch (InterruptedException e) {
+				stop = true;
+			}
+			write(batch);
+			batch.clear();
+			for (AuditRecord marker : markers) {
+				marker.written.countDown();
+			}
+			markers.clear();
+		}
+	}
+
+	private void write(List<AuditRecord> batch) {
+		if (batch.isEmpty()) {
+			return;
+		}
+		List<List<AuditRecord>> groups = toGroups(batch);
+		List<String> responses;
+		try {
+			responses = pool.executeAll(statementsOf(groups));
+		} catch (Exception e) {
+			failed.addAndGet(batch.size());
+			System.err.println("SQL Error: audit batch of " + batch.size() + " records lost: " + e.getMessage());
+			return;
+		}
+		// one bad row fails its whole multi-row insert; the other rows get a statement each and go again
+		List<List<AuditRecord>> rows = new ArrayList<>();
+		for (int i = 0; i < responses.size(); i++) {
+			if (!responses.get(i).startsWith("error")) {
+				continue;
+			}
+			System.err.println("SQL Error: " + responses.get(i));
+			List<AuditRecord> group = groups.get(i);
+			if (group.size() == 1) {
+				failed.incrementAndGet();
+				continue;
+			}
+			for (AuditRecord record : group) {
+				rows.add(Collections.singletonList(record));
+			}
+		}
+		if (rows.isEmpty()) {
+			return;
+		}
+		try {
+			for (String response : pool.executeAll(statementsOf(rows))) {
+				if (response.startsWith("error")) {
+					failed.incrementAndGet();
+					System.err.println("SQL Error: " + response);
+				}
+			}
+		} catch (Exception e) {
+			failed.addAndGet(rows.size());
+			System.err.println("SQL Error: " + rows.size() + " retried audit records lost: " + e.getMessage());
+		}
+	}
+
+	static List<String> toStatements(List<AuditRecord> batch) {
+		return statementsOf(toGroups(batch));
+	}
+
+	private static List<String> statementsOf(List<List<AuditRecord>> groups) {
+		List<String> statements = new ArrayList<>(groups.size());
+		for (List<AuditRecord> group : groups) {
+			if (group.get(0).insertPrefix == null) {
+				statements.add(group.get(0).sql);
+				continue;
+			}
+			StringBuilder insert = new StringBuilder(group.get(0).insertPrefix);
+			for (int i = 0; i < group.size(); i++) {
+				insert.append(i == 0 ? "" : ", ").append(group.get(i).sql);
+			}
+			statements.add(insert.toString());
+		}
+		return statements;
+	}
+
+	/**
+	 * consecutive inserts into the same table share a statement, anything else is a statement of its own
+	 */
+	private static List<List<AuditRecord>> toGroups(List<AuditRecord> batch) {
+		List<List<AuditRecord>> groups = new ArrayList<>();
+		List<AuditRecord> insert = null;
+		for (AuditRecord record : batch) {
+			if (insert != null && record.insertPrefix != null && record.insertPrefix.equals(insert.get(0).insertPrefix)) {
+				insert.add(record);
+				continue;
+			}
+			List<AuditRecord> group = new ArrayList<>();
+			group.add(record);
+			groups.add(group);
+			insert = record.insertPrefix != null ? group : null;
+		}
+		return groups;
+	}
+
+	static final class AuditRecord {
+		private final String insertPrefix;
+		private final String sql;
+		private final CountDownLatch written;
+		private final boolean stop;
+
+		AuditRecord(String insertPrefix, String sql) {
+			this(insertPrefix, sql, null, false);
+		}
+
+		private AuditRecord(String insertPrefix, String sql, CountDownLatch written, boolean stop) {
+			this.insertPrefix = insertPrefix;
+			this.sql = sql;
+			this.written = written;
+			this.stop = stop;
+		}
+
+		static AuditRecord marker(boolean stop) {
+			return new AuditRecord(null, null, new CountDownLatch(1), stop);
+		}
+
+		boolean isMarker() {
+			return written != null;
+		}
+	}
+}
@@ -0,0 +1,231 @@
+package bgu.spl.net.impl.data;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The registered users' names and passwords, packed into one byte arena with an open addressing index,
+ * about the size of the UTF-8 text instead of a User, two Strings and a map entry per user.
+ * Filled once by a single thread and only read afterwards; publish it through a final field.
+ */
+class CredentialTable {
+	/** the statement whose response {@link #read} expects: hex keeps ',' and '|' in a value from splitting it */
+	static final String SELECT_ALL = "SELECT hex(username), hex(password) FROM users";
+
+	private static final int EMPTY = -1;
+
+	private byte[] arena = new byte[1 << 12];
+	private int arenaSize = 0;
+	// per slot: the entry's offset in the arena and its name's hash
+	private int[] offsets;
+	private int[] hashes;
+	private int size = 0;
+
+	CredentialTable() {
+		this(16);
+	}
+
+	CredentialTable(int expectedUsers) {
+		int capacity = Integer.highestOneBit(Math.max(16, expectedUsers * 2 - 1)) << 1;
+		offsets = new int[capacity];
+		hashes = new int[capacity];
+		Arrays.fill(offsets, EMPTY);
+	}
+
+	/**
+	 * Build a table from the response to {@link #SELECT_ALL} (or a query for the same two columns),
+	 * as the SQL service sends it: "empty", or rows separated by '|' of two hex fields separated by ','.
+	 */
+	static CredentialTable read(InputStream response) throws IOException {
+		CredentialTable table = new CredentialTable();
+		byte[][] fields = { new byte[64], new byte[64] };
+		int[] lengths = new int[2];
+		int field = 0;
+		int high = -1;
+		int c = response.read();
+		if (c == -1) {
+			throw new IOException("Empty response to the users query");
+		}
+		if (c == 'e') {
+			String rest = readText(response);
+			if (rest.equals("mpty")) {
+				return table;
+			}
+			throw new IOException("e" + rest);
+		}
+		for (; ; c = response.read()) {
+			if (c == -1 || c == '|') {
+				if (field != 1 || high != -1) {
+					throw new IOException("Malformed users row");
+				}
+				table.putIfAbsent(fields[0], lengths[0], fields[1], lengths[1]);
+				if (c == -1) {
+					return table;
+				}
+				field = 0;
+				lengths[0] = 0;
+				lengths[1] = 0;
+			} else if (c == ',' && field == 0 && high == -1) {
+				field = 1;
+			} else {
+				int digit = Character.digit(c, 16);
+				if (digit == -1) {
+					throw new IOException("Unexpected response to the users query: " + (char) c + readText(response));
+				}
+				if (high == -1) {
+					high = digit;
+					continue;
+				}
+				if (lengths[field] == fields[field].length) {
+					fields[field] = Arrays.copyOf(fields[field], lengths[field] * 2);
+				}
+				fields[field][lengths[field]++] = (byte) (high << 4 | digit);
+				high = -1;
+			}
+		}
+	}
+
+	private static String readText(InputStream response) throws IOException {
+		StringBuilder text = new StringBuilder();
+		int c;
+		while ((c = response.read()) != -1 && text.length() < 200) {
+			text.append((char) c);
+		}
+		return text.toString();
+	}
+
+	/**
+	 * add a user unless one by that name is already in the table
+	 */
+	void putIfAbsent(byte[] name, int nameLength, byte[] password, int passwordLength) {
+		int hash = hash(name, nameLength);
+		int slot = find(name, nameLength, hash);
+		if (offsets[slot] != EMPTY) {
+			return;
+		}
+		int needed = 10 + nameLength + passwordLength;
+		if (arenaSize + needed > arena.length) {
+			arena = Arrays.copyOf(arena, Math.max(arena.length * 2, arenaSize + needed));
+		}
+		offsets[slot] = arenaSize;
+		hashes[slot] = hash;
+		arenaSize = writeVarInt(nameLength, arenaSize);
+		System.arraycopy(name, 0, arena, arenaSize, nameLength);
+		arenaSize += nameLength;
+		arenaSize = writeVarInt(passwordLength, arenaSize);
+		System.arraycopy(password, 0, arena, arenaSize, passwordLength);
+		arenaSize += passwordLength;
+		if (++size * 2 > offsets.length) {
+			grow();
+		}
+	}
+
+	/**
+	 * @return the password of the user, null if the table does not have it
+	 */
+	String password(String username) {
+		byte[] name = username.getBytes(StandardCharsets.UTF_8);
+		int slot = find(name, name.length, hash(name, name.length));
+		int offset = offsets[slot];
+		if (offset == EMPTY) {
+			return null;
+		}
+		int nameLength = readVarInt(offset);
+		offset += varIntSize(nameLength) + nameLength;
+		int passwordLength = readVarInt(offset);
+		return new String(arena, offset + varIntSize(passwordLength), passwordLength, StandardCharsets.UTF_8);
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * @return the bytes held by the arena and the index
+	 */
+	long footprint() {
+		return arena.length + 8L * offsets.length;
+	}
+
+	private int find(byte[] name, int nameLength, int hash) {
+		int mask = offsets.length - 1;
+		for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+			if (offsets[slot] == EMPTY || hashes[slot] == hash && nameEquals(offsets[slot], name, nameLength)) {
+				return slot;
+			}
+		}
+	}
+
+	private boolean nameEquals(int offset, byte[] name, int nameLength) {
+		if (readVarInt(offset) != nameLength) {
+			return false;
+		}
+		int start = offset + varIntSize(nameLength);
+		for (int i = 0; i < nameLength; i++) {
+			if (arena[start + i] != name[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void grow() {
+		int[] oldOffsets = offsets;
+		int[] oldHashes = hashes;
+		offsets = new int[oldOffsets.length * 2];
+		hashes = new int[oldOffsets.length * 2];
+		Arrays.fill(offsets, EMPTY);
+		int mask = offsets.length - 1;
+		for (int i = 0; i < oldOffsets.length; i++) {
+			if (oldOffsets[i] == EMPTY) {
+				continue;
+			}
+			int slot = oldHashes[i] & mask;
+			while (offsets[slot] != EMPTY) {
+				slot = (slot + 1) & mask;
+			}
+			offsets[slot] = oldOffsets[i];
+			hashes[slot] = oldHashes[i];
+		}
+	}
+
+	private static int hash(byte[] bytes, int length) {
+		int hash = 0x811c9dc5; // FNV-1a
+		for (int i = 0; i < length; i++) {
+			hash = (hash ^ (bytes[i] & 0xff)) * 0x01000193;
+		}
+		// spread the high bits into the low ones the mask keeps
+		return hash ^ (hash >>> 16);
+	}
+
+	private int writeVarInt(int value, int at) {
+		while ((value & ~0x7f) != 0) {
+			arena[at++] = (byte) (value & 0x7f | 0x80);
+			value >>>= 7;
+		}
+		arena[at++] = (byte) value;
+		return at;
+	}
+
+	private int readVarInt(int at) {
+		int value = 0;
+		for (int shift = 0; ; shift += 7) {
+			byte b = arena[at++];
+			value |= (b & 0x7f) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+	}
+
+	private static int varIntSize(int value) {
+		int size = 1;
+		while ((value & ~0x7f) != 0) {
+			value >>>= 7;
+			size++;
+		}
+		return size;
+	}
+}
@@ -1,52 +1,82 @@
 package bgu.spl.net.impl.data;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.net.Socket;
+import java.io.IOException;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class Database {
 	private final ConcurrentHashMap<String, User> userMap;
 	private final ConcurrentHashMap<Integer, User> connectionsIdMap;
+	private static final int SQL_POOL_SIZE = 4;
+	private static final String USERS_INSERT = "INSERT INTO users (username, password, registration_date) VALUES ";
+	private static final String LOGIN_INSERT = "INSERT INTO login_history (username, login_time) VALUES ";
+	private static final String FILE_INSERT = "INSERT INTO file_tracking (username, filename, upload_time, game_channel) VALUES ";
 	private final String sqlHost;
 	private final int sqlPort;
+	private final SqlConnectionPool sqlPool;
+	private final AuditLog auditLog;
+	// everyone registered before this run, loaded at startup; userMap takes them on at their first login
+	private final CredentialTable registered;
+	// whether a name missing from both is looked up in SQL before it counts as a new user
+	private final boolean lookupMisses;
+	// LOCAL unless the server runs in a cluster
+	private volatile LoginClaims loginClaims = LoginClaims.LOCAL;
 
 	private Database() {
 		userMap = new ConcurrentHashMap<>();
 		connectionsIdMap = new ConcurrentHashMap<>();
 		// SQL server connection details
-		this.sqlHost = "127.0.0.1";
-		this.sqlPort = 7778;
+		this.sqlHost = System.getProperty("stomp.sql.host", "127.0.0.1");
+		this.sqlPort = Integer.getInteger("stomp.sql.port", 7778);
+		this.sqlPool = new SqlConnectionPool(sqlHost, sqlPort, SQL_POOL_SIZE);
+		// login/logout/upload tracking is written behind, off the protocol threads
+		this.auditLog = new AuditLog(
+			sqlPool,
+			Integer.getInteger("stomp.audit.capacity", 10_000),
+			Integer.getInteger("stomp.audit.batchSize", 64),
+			Long.getLong("stomp.audit.flushMillis", 50L),
+			AuditLog.OverflowPolicy.valueOf(System.getProperty("stomp.audit.overflow", "BLOCK")));
+		Runtime.getRuntime().addShutdownHook(new Thread(auditLog::close, "audit-shutdown-flush"));
+		CredentialTable loaded = loadRegisteredUsers();
+		this.registered = loaded != null ? loaded : new CredentialTable();
+		// without the full list every miss has to ask, or a returning user would be registered again
+		this.lookupMisses = loaded == null || Boolean.getBoolean("stomp.users.lookupMisses");
+	}
+
+	/**
+	 * Read every registered user in one streamed query
+	 * @return null if the SQL service could not be read
+	 */
+	private CredentialTable loadRegisteredUsers() {
+		long start = System.nanoTime();
+		try {
+			CredentialTable users = sqlPool.query(CredentialTable.SELECT_ALL, CredentialTable::read);
+			System.out.printf("Loaded %d registered users in %d ms%n", users.size(), (System.nanoTime() - start) / 1_000_000);
+			return users;
+		} catch (IOException e) {
+			System.err.println("Could not load registered users, looking each one up on first login: " + e.getMessage());
+			return null;
+		}
 	}
 
 	public static Database getInstance() {
 		return Instance.instance;
 	}
 
+	/**
+	 * share the logins with other servers from now on
+	 */
+	public void useLoginClaims(LoginClaims loginClaims) {
+		this.loginClaims = loginClaims;
+	}
+
 	/**
 	 * Execute SQL query and return result
 	 * @param sql SQL query string
 	 * @return Result string from SQL server
 	 */
 	private String executeSQL(String sql) {
-		try (Socket socket = new Socket(sqlHost, sqlPort);
-			 PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-			 BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
-			
-			// Send SQL with null terminator
-			out.print(sql + '\0');
-			out.flush();
-			
-			// Read response until null terminator
-			StringBuilder response = new StringBuilder();
-			int ch;
-			while ((ch = in.read()) != -1 && ch != '\0') {
-				response.append((char) ch);
-			}
-			
-			return response.toString();
-			
+		try {
+			return sqlPool.execute(sql);
 		} catch (Exception e) {
 			System.err.println("SQL Error: " + e.getMessage());
 			return "ERROR:" + e.getMessage();
@@ -70,33 +100,31 @@ public class Database {
 		if (connectionsIdMap.containsKey(connectionId)) {
 			return LoginStatus.CLIENT_ALREADY_CONNECTED;
 		}
+		// held by another server, or one that cannot be asked right now
+		if (!loginClaims.claim(username)) {
+			return LoginStatus.ALREADY_LOGGED_IN;
+		}
 		if (addNewUserCase(connectionId, username, password)) {
-			// Log new user registration in SQL
-			String sql = String.format(
-				"INSERT INTO users (username, password, registration_date) VALUES ('%s', '%s', datetime('now'))",
-				escapeSql(username), escapeSql(password)
-			);
-			executeSQL(sql);
-			
-			// Log login
-			logLogin(username);
+			// Log new user registration and login in SQL
+			String now = AuditLog.now();
+			auditLog.insert(USERS_INSERT, String.format("('%s', '%s', '%s')", escapeSql(username), escapeSql(password), now));
+			logLogin(username, now);
+			loginClaims.registered(username, password);
 			return LoginStatus.ADDED_NEW_USER;
 		} else {
 			LoginStatus status = userExistsCase(connectionId, username, password);
 			if (status == LoginStatus.LOGGED_IN_SUCCESSFULLY) {
 				// Log successful login in SQL
-				logLogin(username);
+				logLogin(username, AuditLog.now());
+			} else if (status == LoginStatus.WRONG_PASSWORD) {
+				loginClaims.release(username);
 			}
 			return status;
 		}
 	}
 
-	private void logLogin(String username) {
-		String sql = String.format(
-			"INSERT INTO login_history (username, login_time) VALUES ('%s', datetime('now'))",
-			escapeSql(username)
-		);
-		executeSQL(sql);
+	private void logLogin(String username, String loginTime) {
+		auditLog.insert(LOGIN_INSERT, String.format("('%s', '%s')", escapeSql(username), loginTime));
 	}
 
 	private LoginStatus userExistsCase(int connectionId, String username, String password) {
@@ -117,7 +145,13 @@ public class Database {
 
 	private boolean addNewUserCase(int connectionId, String username, String password) {
 		if (!userMap.containsKey(username)) {
+			String registeredPassword = registeredPassword(username);
 			synchronized (userMap) {
+				if (registeredPassword != null) {
+					// registered before this run: from now on an in-memory user like the others
+					userMap.putIfAbsent(username, new User(connectionId, username, registeredPassword));
+					return false;
+				}
 				if (!userMap.containsKey(username)) {
 					User user = new User(connectionId, username, password);
 					user.login();
@@ -129,23 +163,48 @@ public class Database {
 		return false;
 	}
 
+	/**
+	 * @return the password of a user registered before this run, null for a new user
+	 */
+	private String registeredPassword(String username) {
+		String password = registered.password(username);
+		if (password != null || !lookupMisses) {
+			return password;
+		}
+		String sql = "SELECT hex(username), hex(password) FROM users WHERE username='" + escapeSql(username) + "'";
+		try {
+			return sqlPool.query(sql, CredentialTable::read).password(username);
+		} catch (IOException e) {
+			System.err.println("SQL Error: " + e.getMessage());
+			return null;
+		}
+	}
+
 	public void logout(int connectionsId) {
 		User user = connectionsIdMap.get(connectionsId);
 		if (user != null) {
 			// Log logout in SQL
 			String sql = String.format(
-				"UPDATE login_history SET logout_time=datetime('now') " +
-				"WHERE username='%s' AND logout_time IS NULL " +
-				"ORDER BY login_time DESC LIMIT 1",
-				escapeSql(user.name)
+				"UPDATE login_history SET logout_time='%s' WHERE id = (" +
+				"SELECT id FROM login_history WHERE username='%s' AND logout_time IS NULL " +
+				"ORDER BY login_time DESC LIMIT 1)",
+				AuditLog.now(), escapeSql(user.name)
 			);
-			executeSQL(sql);
+			auditLog.statement(sql);
 			
 			user.logout();
 			connectionsIdMap.remove(connectionsId);
+			loginClaims.release(user.name);
 		}
 	}
 
+	/**
+	 * a user another server of the cluster registered; known here from now on, not logged in
+	 */
+	public void addRegisteredUser(String username, String password) {
+		userMap.putIfAbsent(username, new User(-1, username, password));
+	}
+
 	public User getUserByConnectionId(int connectionId) {
 		return connectionsIdMap.get(connectionId);
 	}
@@ -161,18 +220,22 @@ public class Database {
 	 * @param gameChannel Game channel the file was reported to
 	 */
 	public void trackFileUpload(String username, String filename, String gameChannel) {
-		String sql = String.format(
-			"INSERT INTO file_tracking (username, filename, upload_time, game_channel) " +
-			"VALUES ('%s', '%s', datetime('now'), '%s')",
-			escapeSql(username), escapeSql(filename), escapeSql(gameChannel)
-		);
-		executeSQL(sql);
+		auditLog.insert(FILE_INSERT, String.format("('%s', '%s', '%s', '%s')",
+			escapeSql(username), escapeSql(filename), AuditLog.now(), escapeSql(gameChannel)));
+	}
+
+	/**
+	 * Block until every login, logout and upload recorded so far has been written to SQL
+	 */
+	public void flushAudit() {
+		auditLog.flush();
 	}
 
 	/**
 	 * Generate and print server report using SQL queries
 	 */
 	public void printReport() {
+		flushAudit();
 		System.out.println(repeat("=", 80));
 		System.out.println("SERVER REPORT - Generated at: " + java.time.LocalDateTime.now());
 		System.out.println(repeat("=", 80));
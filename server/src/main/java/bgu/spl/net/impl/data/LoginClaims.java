@@ -0,0 +1,36 @@
+package bgu.spl.net.impl.data;
+
+/**
+ * Who may hold a user's session when several servers share the users. {@link Database#login} claims the
+ * name before it logs the user in and releases it on logout, so a user is logged in on one server at a time.
+ */
+public interface LoginClaims {
+	/** a single server: the Database's own check is all there is */
+	LoginClaims LOCAL = new LoginClaims() {
+		@Override
+		public boolean claim(String username) {
+			return true;
+		}
+
+		@Override
+		public void release(String username) {
+		}
+
+		@Override
+		public void registered(String username, String password) {
+		}
+	};
+
+	/**
+	 * may block while another server is asked
+	 * @return whether this server now holds the user's session; false if another one does or cannot be asked
+	 */
+	boolean claim(String username);
+
+	void release(String username);
+
+	/**
+	 * a user was registered here, tell the other servers before the write behind reaches SQL
+	 */
+	void registered(String username, String password);
+}
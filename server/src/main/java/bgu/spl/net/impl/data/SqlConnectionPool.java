@@ -0,0 +1,330 @@
+package bgu.spl.net.impl.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import bgu.spl.net.srv.metrics.Histogram;
+import bgu.spl.net.srv.metrics.ServerMetrics;
+
+/**
+ * A bounded pool of long-lived connections to the SQL service.
+ * Statements and responses are NUL terminated; several statements may be pipelined on one connection.
+ * A statement is never sent twice: a failed call is only retried on a fresh connection if none of its bytes
+ * went out, since the service may have run whatever reached it.
+ */
+public class SqlConnectionPool implements Closeable {
+	private static final int CONNECT_TIMEOUT_MILLIS = 2000;
+	static final int READ_TIMEOUT_MILLIS = Integer.getInteger("stomp.sql.readTimeoutMillis", 10_000);
+	private static final long HEALTH_CHECK_IDLE_MILLIS = 30_000;
+	private static final String HEALTH_CHECK_SQL = "SELECT 1";
+	private static final Histogram ROUND_TRIP = ServerMetrics.getInstance().sqlRoundTrip();
+
+	private final String host;
+	private final int port;
+	private final int readTimeoutMillis;
+	private final BlockingQueue<SqlConnection> idle;
+	private volatile boolean closed = false;
+
+	public SqlConnectionPool(String host, int port, int maxConnections) {
+		this(host, port, maxConnections, READ_TIMEOUT_MILLIS);
+	}
+
+	/**
+	 * @param readTimeoutMillis how long to wait for the service to answer before giving up on the connection
+	 */
+	public SqlConnectionPool(String host, int port, int maxConnections, int readTimeoutMillis) {
+		if (maxConnections < 1) {
+			throw new IllegalArgumentException("maxConnections must be positive");
+		}
+		this.host = host;
+		this.port = port;
+		this.readTimeoutMillis = readTimeoutMillis;
+		this.idle = new ArrayBlockingQueue<>(maxConnections);
+		// connections are opened lazily, the queue only bounds how many may exist
+		for (int i = 0; i < maxConnections; i++) {
+			idle.add(new SqlConnection());
+		}
+	}
+
+	/**
+	 * Execute a single statement
+	 * @return the response of the SQL service
+	 * @throws IOException if the service could not be reached, even after reconnecting
+	 */
+	public String execute(String sql) throws IOException {
+		return executeAll(Collections.singletonList(sql)).get(0);
+	}
+
+	/**
+	 * Pipeline the statements on one connection: all are written before the first response is read.
+	 * @return the responses, in statement order
+	 */
+	public List<String> executeAll(List<String> statements) throws IOException {
+		if (closed) {
+			throw new IOException("SQL connection pool is closed");
+		}
+		SqlConnection connection = borrow();
+		try {
+			boolean reused = connection.isOpen();
+			try {
+				connection.ensureHealthy();
+				return connection.roundTrip(statements);
+			} catch (IOException e) {
+				connection.close();
+				if (!reused || connection.sent) {
+					throw e;
+				}
+				// the peer dropped the idle connection before any statement went out, try once more on a fresh one
+				return connection.roundTrip(statements);
+			}
+		} catch (IOException e) {
+			connection.close();
+			throw e;
+		} finally {
+			idle.add(connection);
+		}
+	}
+
+	/**
+	 * Reads one response as it arrives; the stream ends at the response's NUL terminator
+	 */
+	@FunctionalInterface
+	public interface ResponseReader<R> {
+		R read(InputStream response) throws IOException;
+	}
+
+	/**
+	 * Execute a single statement and stream its response to the reader instead of collecting it into a String,
+	 * for results too big to hold twice. Whatever the reader leaves unread is skipped.
+	 */
+	public <R> R query(String sql, ResponseReader<R> reader) throws IOException {
+		if (closed) {
+			throw new IOException("SQL connection pool is closed");
+		}
+		SqlConnection connection = borrow();
+		try {
+			boolean reused = connection.isOpen();
+			Response response = null;
+			try {
+				connection.ensureHealthy();
+				response = connection.send(sql);
+				return connection.receive(response, reader);
+			} catch (IOException e) {
+				connection.close();
+				if (!reused || connection.sent || response != null && response.started) {
+					throw e;
+				}
+				// the peer dropped the idle connection before the statement went out
+				return connection.receive(connection.send(sql), reader);
+			}
+		} catch (IOException e) {
+			connection.close();
+			throw e;
+		} finally {
+			idle.add(connection);
+		}
+	}
+
+	private SqlConnection borrow() throws IOException {
+		try {
+			return idle.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for a SQL connection", e);
+		}
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		for (SqlConnection connection : idle) {
+			connection.close();
+		}
+	}
+
+	/**
+	 * One response, read from the connection in chunks up to its NUL terminator.
+	 * Only one statement is outstanding, so nothing follows the terminator.
+	 */
+	private static class Response extends InputStream {
+		private final InputStream in;
+		private final byte[] buffer = new byte[8192];
+		private int position = 0;
+		private int limit = 0;
+		private boolean ended = false;
+		private boolean started = false;
+
+		Response(InputStream in) {
+			this.in = in;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (position == limit && !fill()) {
+				return -1;
+			}
+			return buffer[position++] & 0xff;
+		}
+
+		private boolean fill() throws IOException {
+			if (ended) {
+				return false;
+			}
+			int n = in.read(buffer);
+			if (n == -1) {
+				throw new EOFException("SQL service closed the connection");
+			}
+			started = true;
+			position = 0;
+			limit = n;
+			for (int i = 0; i < n; i++) {
+				if (buffer[i] == 0) {
+					limit = i;
+					ended = true;
+					break;
+				}
+			}
+			return limit > 0 || fill();
+		}
+
+		void skipRest() throws IOException {
+			position = limit;
+			while (fill()) {
+				position = limit;
+			}
+		}
+	}
+
+	private class SqlConnection {
+		private Socket socket;
+		private InputStream in;
+		private OutputStream out;
+		private long lastUsed;
+		// whether any byte of the current call reached the socket
+		private boolean sent;
+
+		boolean isOpen() {
+			return socket != null && !socket.isClosed();
+		}
+
+		void ensureHealthy() throws IOException {
+			if (isOpen() && System.currentTimeMillis() - lastUsed > HEALTH_CHECK_IDLE_MILLIS) {
+				try {
+					roundTrip(Collections.singletonList(HEALTH_CHECK_SQL));
+				} catch (IOException e) {
+					close();
+				}
+			}
+		}
+
+		List<String> roundTrip(List<String> statements) throws IOException {
+			if (!isOpen()) {
+				open();
+			}
+			sent = false;
+			long start = ServerMetrics.ENABLED ? System.nanoTime() : 0;
+			for (String sql : statements) {
+				out.write(sql.getBytes(StandardCharsets.UTF_8));
+				out.write(0);
+			}
+			out.flush();
+
+			List<String> responses = new ArrayList<>(statements.size());
+			for (int i = 0; i < statements.size(); i++) {
+				responses.add(readResponse());
+			}
+			if (ServerMetrics.ENABLED) {
+				ROUND_TRIP.record(System.nanoTime() - start);
+			}
+			lastUsed = System.currentTimeMillis();
+			return responses;
+		}
+
+		Response send(String sql) throws IOException {
+			if (!isOpen()) {
+				open();
+			}
+			sent = false;
+			out.write(sql.getBytes(StandardCharsets.UTF_8));
+			out.write(0);
+			out.flush();
+			return new Response(in);
+		}
+
+		<R> R receive(Response response, ResponseReader<R> reader) throws IOException {
+			long start = ServerMetrics.ENABLED ? System.nanoTime() : 0;
+			R result = reader.read(response);
+			response.skipRest();
+			if (ServerMetrics.ENABLED) {
+				ROUND_TRIP.record(System.nanoTime() - start);
+			}
+			lastUsed = System.currentTimeMillis();
+			return result;
+		}
+
+		private String readResponse() throws IOException {
+			ByteArrayOutputStream response = new ByteArrayOutputStream();
+			int b;
+			while ((b = in.read()) != 0) {
+				if (b == -1) {
+					throw new EOFException("SQL service closed the connection");
+				}
+				response.write(b);
+			}
+			return new String(response.toByteArray(), StandardCharsets.UTF_8);
+		}
+
+		private void open() throws IOException {
+			Socket s = new Socket();
+			try {
+				s.setTcpNoDelay(true);
+				s.setKeepAlive(true);
+				s.setSoTimeout(readTimeoutMillis);
+				s.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+				in = new BufferedInputStream(s.getInputStream());
+				out = new BufferedOutputStream(new FilterOutputStream(s.getOutputStream()) {
+					@Override
+					public void write(byte[] b, int off, int len) throws IOException {
+						out.write(b, off, len);
+						sent = true;
+					}
+
+					@Override
+					public void write(int b) throws IOException {
+						out.write(b);
+						sent = true;
+					}
+				});
+			} catch (IOException e) {
+				s.close();
+				throw e;
+			}
+			socket = s;
+		}
+
+		void close() {
+			if (socket != null) {
+				try {
+					socket.close();
+				} catch (IOException ignored) {
+				}
+				socket = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package bgu.spl.net.impl.loadgen;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The same match-day load against the thread-per-core server on 1, 2, 4, ... up to N cores, one row per
+ * core count (labelled percore-&lt;cores&gt;) in the LoadGenerator CSV. Each server is a fresh JVM started
+ * from this one's classpath on the given port, so no run inherits the previous one's warm state.
+ *
+ * Run:
+ *   java -cp target/classes bgu.spl.net.impl.loadgen.CoreScaling
+ *        <port> [maxCores=available processors] [connections=100] [channels=4] [rate=1000] [seconds=30] [csv=loadgen-results.csv]
+ * -Dloadgen.serverOptions=<JVM options for the servers, space separated>
+ */
+public class CoreScaling {
+    private static final long STARTUP_MILLIS = 30_000;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("Usage: <port> [maxCores] [connections] [channels] [rate] [seconds] [csv]");
+            return;
+        }
+        int port = Integer.parseInt(args[0]);
+        int maxCores = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        String connections = args.length > 2 ? args[2] : "100";
+        String channels = args.length > 3 ? args[3] : "4";
+        String rate = args.length > 4 ? args[4] : "1000";
+        String seconds = args.length > 5 ? args[5] : "30";
+        String csv = args.length > 6 ? args[6] : "loadgen-results.csv";
+
+        for (int cores = 1; ; cores = Math.min(cores * 2, maxCores)) {
+            Process server = startServer(port, cores);
+            try {
+                awaitPort(port, server);
+                LoadGenerator.main(new String[] {
+                        "127.0.0.1", Integer.toString(port), "percore-" + cores,
+                        connections, channels, rate, seconds, csv });
+            } finally {
+                server.destroy();
+                if (!server.waitFor(10, TimeUnit.SECONDS)) {
+                    server.destroyForcibly().waitFor();
+                }
+            }
+            if (cores == maxCores) {
+                break;
+            }
+        }
+    }
+
+    private static Process startServer(int port, int cores) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        String options = System.getProperty("loadgen.serverOptions", "").trim();
+        if (!options.isEmpty()) {
+            for (String option : options.split("\\s+")) {
+                command.add(option);
+            }
+        }
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("bgu.spl.net.impl.stomp.StompServer");
+        command.add(Integer.toString(port));
+        command.add("percore");
+        command.add(Integer.toString(cores));
+        return new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.appendTo(new File("percore-server.log")))
+                .start();
+    }
+
+    private static void awaitPort(int port, Process server) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + STARTUP_MILLIS;
+        while (true) {
+            try (Socket probe = new Socket()) {
+                probe.connect(new InetSocketAddress("127.0.0.1", port), 1000);
+                return;
+            } catch (IOException ex) {
+                if (!server.isAlive() || System.currentTimeMillis() > deadline) {
+                    throw new IOException("the server did not start on port " + port + ", see percore-server.log", ex);
+                }
+                Thread.sleep(100);
+            }
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package bgu.spl.net.impl.loadgen;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The games of client/data/*.json, with each event pre-rendered as the body of a report SEND
+ * in the format the C++ client uses (minus its user line).
+ */
+public class GameEvents {
+    private final String teamA;
+    private final String teamB;
+    private final List<String> eventBodies;
+
+    GameEvents(String teamA, String teamB, List<String> eventBodies) {
+        this.teamA = teamA;
+        this.teamB = teamB;
+        this.eventBodies = eventBodies;
+    }
+
+    public String channelName() {
+        return teamA + "_" + teamB;
+    }
+
+    public List<String> eventBodies() {
+        return eventBodies;
+    }
+
+    /**
+     * @return every game with at least one event, in file name order
+     */
+    public static List<GameEvents> loadAll(Path directory) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> json = Files.newDirectoryStream(directory, "*.json")) {
+            for (Path file : json) {
+                files.add(file);
+            }
+        }
+        Collections.sort(files);
+
+        List<GameEvents> games = new ArrayList<>();
+        for (Path file : files) {
+            GameEvents game = parse(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+            if (!game.eventBodies.isEmpty()) {
+                games.add(game);
+            }
+        }
+        if (games.isEmpty()) {
+            throw new IOException("no game events found in " + directory);
+        }
+        return games;
+    }
+
+    @SuppressWarnings("unchecked")
+    static GameEvents parse(String json) {
+        Map<String, Object> root = (Map<String, Object>) new JsonReader(json).readValue();
+        String teamA = String.valueOf(root.get("team a"));
+        String teamB = String.valueOf(root.get("team b"));
+        List<String> bodies = new ArrayList<>();
+        Object events = root.get("events");
+        if (events instanceof List) {
+            for (Object event : (List<Object>) events) {
+                bodies.add(render(teamA, teamB, (Map<String, Object>) event));
+            }
+        }
+        return new GameEvents(teamA, teamB, bodies);
+    }
+
+    private static String render(String teamA, String teamB, Map<String, Object> event) {
+        StringBuilder body = new StringBuilder(256)
+                .append("team a:").append(teamA).append('\n')
+                .append("team b:").append(teamB).append('\n')
+                .append("event name:").append(event.get("event name")).append('\n')
+                .append("time:").append(event.get("time")).append('\n');
+        appendUpdates(body, "general game updates", event);
+        appendUpdates(body, "team a updates", event);
+        appendUpdates(body, "team b updates", event);
+        return body.append("description:\n").append(event.get("description")).append('\n').toString();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void appendUpdates(StringBuilder body, String name, Map<String, Object> event) {
+        body.append(name).append(":\n");
+        Object updates = event.get(name);
+        if (updates instanceof Map) {
+            for (Map.Entry<String, Object> update : ((Map<String, Object>) updates).entrySet()) {
+                body.append("    ").append(update.getKey()).append(':').append(update.getValue()).append('\n');
+            }
+        }
+    }
+
+    /**
+     * Just enough JSON for the event files: objects keep their key order, numbers stay as written.
+     */
+    private static class JsonReader {
+        private final String text;
+        private int pos = 0;
+
+        JsonReader(String text) {
+            this.text = text;
+        }
+
+        Object readValue() {
+            skipWhitespace();
+            char c = peek();
+            switch (c) {
+                case '{':
+                    return readObject();
+                case '[':
+                    return readArray();
+                case '"':
+                    return readString();
+                default:
+                    return readLiteral();
+            }
+        }
+
+        private Map<String, Object> readObject() {
+            Map<String, Object> object = new LinkedHashMap<>();
+            pos++;
+            skipWhitespace();
+            if (peek() == '}') {
+                pos++;
+                return object;
+            }
+            while (true) {
+                skipWhitespace();
+                String key = readString();
+                skipWhitespace();
+                expect(':');
+                object.put(key, readValue());
+                skipWhitespace();
+                if (peek() == ',') {
+                    pos++;
+                } else {
+                    expect('}');
+                    return object;
+                }
+            }
+        }
+
+        private List<Object> readArray() {
+            List<Object> array = new ArrayList<>();
+            pos++;
+            skipWhitespace();
+            if (peek() == ']') {
+                pos++;
+                return array;
+            }
+            while (true) {
+                array.add(readValue());
+                skipWhitespace();
+                if (peek() == ',') {
+                    pos++;
+                } else {
+                    expect(']');
+                    return array;
+                }
+            }
+        }
+
+        private String readString() {
+            expect('"');
+            StringBuilder s = new StringBuilder();
+            while (true) {
+                char c = text.charAt(pos++);
+                if (c == '"') {
+                    return s.toString();
+                }
+                if (c != '\\') {
+                    s.append(c);
+                    continue;
+                }
+                char escaped = text.charAt(pos++);
+                switch (escaped) {
+                    case 'n':
+                        s.append('\n');
+                        break;
+                    case 't':
+                        s.append('\t');
+                        break;
+                    case 'r':
+                        s.append('\r');
+                        break;
+                    case 'b':
+                        s.append('\b');
+                        break;
+                    case 'f':
+                        s.append('\f');
+                        break;
+                    case 'u':
+                        s.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                        pos += 4;
+                        break;
+                    default:
+                        s.append(escaped);
+                }
+            }
+        }
+
+        private String readLiteral() {
+            int start = pos;
+            while (pos < text.length() && ",}] \t\r\n".indexOf(text.charAt(pos)) == -1) {
+                pos++;
+            }
+            if (start == pos) {
+                throw new IllegalArgumentException("unexpected character at " + pos);
+            }
+            String literal = text.substring(start, pos);
+            return "null".equals(literal) ? "" : literal;
+        }
+
+        private void expect(char c) {
+            if (peek() != c) {
+                throw new IllegalArgumentException("expected '" + c + "' at " + pos);
+            }
+            pos++;
+        }
+
+        private char peek() {
+            if (pos >= text.length()) {
+                throw new IllegalArgumentException("unexpected end of input");
+            }
+            return text.charAt(pos);
+        }
+
+        private void skipWhitespace() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package bgu.spl.net.impl.loadgen;
+
+import bgu.spl.net.srv.metrics.LogLinearBuckets;
+
+/**
+ * A log-linear histogram of non-negative longs: exact below 128, above that each power of two
+ * is split into 64 buckets, so a reported value is at most ~1.6% above the recorded one.
+ * Not thread safe; each recording thread keeps its own and they are merged at the end.
+ */
+public class LatencyHistogram {
+    static final LogLinearBuckets BUCKETS = new LogLinearBuckets(7);
+
+    private final long[] counts = new long[BUCKETS.count()];
+    private long total = 0;
+    private long max = 0;
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts[BUCKETS.indexOf(value)]++;
+        total++;
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        total += other.total;
+        max = Math.max(max, other.max);
+    }
+
+    public long count() {
+        return total;
+    }
+
+    public long max() {
+        return max;
+    }
+
+    /**
+     * @param quantile between 0 and 1, e.g. 0.999
+     * @return the highest value that falls in the same bucket as the value at that quantile, 0 when empty
+     */
+    public long valueAt(double quantile) {
+        return BUCKETS.valueAt(counts, total, quantile, max);
+    }
+}
@@ -0,0 +1,166 @@
+package bgu.spl.net.impl.loadgen;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import bgu.spl.net.impl.stomp.StompMessageEncoderDecoder;
+
+/**
+ * One simulated fan: a STOMP connection with its own reader thread. Every MESSAGE carrying a
+ * sent-nanos line is timed from that send to its arrival here.
+ */
+class LoadClient implements Closeable {
+    static final String SENT_NANOS = "sent-nanos:";
+    private static final int BUFFER_SIZE = 1 << 13; //8k
+    private static final long REPLY_TIMEOUT_SECONDS = 10;
+
+    private final String login;
+    private final Socket sock;
+    private final OutputStream out;
+    private final Semaphore replies = new Semaphore(0);
+    private final Thread reader;
+    // owned by the reader thread until it has been joined
+    private final LatencyHistogram latencyMicros = new LatencyHistogram();
+    private volatile long recordSentAfter = Long.MAX_VALUE;
+    private volatile long delivered = 0;
+    private volatile long errors = 0;
+    private volatile String lastError;
+    private int nextReceipt = 0;
+
+    LoadClient(InetSocketAddress server, String login) throws IOException {
+        this.login = login;
+        this.sock = new Socket();
+        sock.setTcpNoDelay(true);
+        sock.connect(server);
+        this.out = new BufferedOutputStream(sock.getOutputStream());
+        this.reader = new Thread(this::readLoop, "loadgen-" + login);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    String login() {
+        return login;
+    }
+
+    void connect(String passcode) throws IOException {
+        send("CONNECT\naccept-version:1.2\nhost:stomp.cs.bgu.ac.il\nlogin:" + login + "\npasscode:" + passcode + "\n\n");
+        awaitReply("CONNECTED");
+    }
+
+    void subscribe(String channel, int id) throws IOException {
+        send("SUBSCRIBE\ndestination:/" + channel + "\nid:" + id + "\nreceipt:" + nextReceipt++ + "\n\n");
+        awaitReply("RECEIPT for " + channel);
+    }
+
+    /**
+     * report an event, stamped with the time it was meant to go out
+     */
+    void report(String channel, String eventBody, long intendedSendNanos) throws IOException {
+        send("SEND\ndestination:/" + channel + "\n\nuser:" + login + "\n" + SENT_NANOS + intendedSendNanos + "\n" + eventBody);
+    }
+
+    /**
+     * time only messages sent at or after the given System.nanoTime
+     */
+    void recordFrom(long sentNanos) {
+        recordSentAfter = sentNanos;
+    }
+
+    private void send(String frame) throws IOException {
+        out.write(frame.getBytes(StandardCharsets.UTF_8));
+        out.write(0);
+        out.flush();
+    }
+
+    private void awaitReply(String what) throws IOException {
+        try {
+            if (!replies.tryAcquire(REPLY_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                throw new IOException(login + ": no " + what + (lastError == null ? "" : ", last error: " + lastError));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted", e);
+        }
+        if (lastError != null) {
+            throw new IOException(login + ": " + lastError);
+        }
+    }
+
+    private void readLoop() {
+        StompMessageEncoderDecoder encdec = new StompMessageEncoderDecoder();
+        byte[] buf = new byte[BUFFER_SIZE];
+        ByteBuffer view = ByteBuffer.wrap(buf);
+        try {
+            InputStream in = sock.getInputStream();
+            int read;
+            while ((read = in.read(buf)) >= 0) {
+                long now = System.nanoTime();
+                view.limit(read).position(0);
+                for (String frame : encdec.decode(view)) {
+                    onFrame(frame, now);
+                }
+            }
+        } catch (IOException e) {
+            if (!sock.isClosed()) {
+                lastError = e.toString();
+            }
+        } finally {
+            replies.release();
+        }
+    }
+
+    private void onFrame(String frame, long receivedNanos) {
+        if (frame.startsWith("MESSAGE")) {
+            int stamp = frame.indexOf(SENT_NANOS);
+            if (stamp >= 0) {
+                int from = stamp + SENT_NANOS.length();
+                long sent = Long.parseLong(frame.substring(from, frame.indexOf('\n', from)));
+                if (sent >= recordSentAfter) {
+                    latencyMicros.record((receivedNanos - sent) / 1000);
+                    delivered++;
+                }
+            }
+        } else if (frame.startsWith("CONNECTED") || frame.startsWith("RECEIPT")) {
+            replies.release();
+        } else if (frame.startsWith("ERROR")) {
+            errors++;
+            lastError = frame.replace('\n', ' ').trim();
+            replies.release();
+        }
+    }
+
+    long delivered() {
+        return delivered;
+    }
+
+    long errors() {
+        return errors;
+    }
+
+    String lastError() {
+        return lastError;
+    }
+
+    /**
+     * close the connection and wait for the reader, after which its histogram may be read
+     */
+    LatencyHistogram closeAndCollect() throws IOException, InterruptedException {
+        close();
+        reader.join();
+        return latencyMicros;
+    }
+
+    @Override
+    public void close() throws IOException {
+        sock.close();
+    }
+}
@@ -0,0 +1,180 @@
+package bgu.spl.net.impl.loadgen;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Match-day traffic against a running server: N fans log in and subscribe to M game channels,
+ * then the games of client/data/*.json are reported round-robin over the fans at a fixed rate.
+ * Every report reaches all N fans; each MESSAGE is timed from the moment its SEND was scheduled,
+ * so a stalled server or a lagging sender shows up in the latency instead of hiding it.
+ *
+ * Run (server already started in tpc, reactor, ... mode):
+ *   java -cp target/classes bgu.spl.net.impl.loadgen.LoadGenerator
+ *        <host> <port> <label> [connections=100] [channels=4] [rate=1000 sends/s] [seconds=30] [csv=loadgen-results.csv]
+ * -Dloadgen.events=<dir with the game json files> (default client/data, or ../client/data)
+ * -Dloadgen.warmupSeconds=<seconds not measured at the start> (default 3)
+ * One summary row per run is appended to the CSV file.
+ */
+public class LoadGenerator {
+    private static final String CSV_HEADER = "timestamp,label,connections,channels,target_rate,seconds,"
+            + "sent,expected_deliveries,delivered,errors,send_rate,delivery_rate,p50_us,p99_us,p999_us,max_us";
+    private static final long DRAIN_MILLIS = 2000;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.out.println("Usage: <host> <port> <label> [connections] [channels] [rate] [seconds] [csv]");
+            return;
+        }
+        InetSocketAddress server = new InetSocketAddress(args[0], Integer.parseInt(args[1]));
+        String label = args[2];
+        int connections = args.length > 3 ? Integer.parseInt(args[3]) : 100;
+        int channels = args.length > 4 ? Integer.parseInt(args[4]) : 4;
+        int rate = args.length > 5 ? Integer.parseInt(args[5]) : 1000;
+        int seconds = args.length > 6 ? Integer.parseInt(args[6]) : 30;
+        Path csv = Paths.get(args.length > 7 ? args[7] : "loadgen-results.csv");
+        int warmupSeconds = Integer.getInteger("loadgen.warmupSeconds", 3);
+
+        List<GameEvents> games = GameEvents.loadAll(eventsDirectory());
+        String[] channelNames = new String[channels];
+        for (int c = 0; c < channels; c++) {
+            channelNames[c] = games.get(c % games.size()).channelName() + (c < games.size() ? "" : "-" + c / games.size());
+        }
+
+        String run = Long.toString(System.currentTimeMillis(), 36);
+        List<LoadClient> clients = new ArrayList<>(connections);
+        try {
+            for (int i = 0; i < connections; i++) {
+                LoadClient client = new LoadClient(server, "loadgen-" + run + "-" + i);
+                clients.add(client);
+                client.connect("pw");
+                for (int c = 0; c < channels; c++) {
+                    client.subscribe(channelNames[c], c);
+                }
+            }
+            System.out.printf("%d connections logged in, each subscribed to %d channels%n", connections, channels);
+
+            long intervalNanos = 1_000_000_000L / rate;
+            long start = System.nanoTime();
+            long measureFrom = start + warmupSeconds * 1_000_000_000L;
+            long end = measureFrom + seconds * 1_000_000_000L;
+            for (LoadClient client : clients) {
+                client.recordFrom(measureFrom);
+            }
+
+            long sent = 0;
+            long measuredSends = 0;
+            for (long i = 0; ; i++) {
+                long intended = start + i * intervalNanos;
+                if (intended >= end) {
+                    break;
+                }
+                waitUntil(intended);
+                int c = (int) (i % channels);
+                List<String> events = games.get(c % games.size()).eventBodies();
+                LoadClient sender = clients.get((int) (i % connections));
+                sender.report(channelNames[c], events.get((int) ((i / channels) % events.size())), intended);
+                sent++;
+                if (intended >= measureFrom) {
+                    measuredSends++;
+                }
+            }
+
+            long expected = measuredSends * connections;
+            awaitDeliveries(clients, expected);
+
+            LatencyHistogram latency = new LatencyHistogram();
+            long delivered = 0;
+            long errors = 0;
+            String lastError = null;
+            for (LoadClient client : clients) {
+                delivered += client.delivered();
+                errors += client.errors();
+                if (client.lastError() != null) {
+                    lastError = client.login() + ": " + client.lastError();
+                }
+                latency.add(client.closeAndCollect());
+            }
+
+            String row = String.format(Locale.ROOT, "%s,%s,%d,%d,%d,%d,%d,%d,%d,%d,%.1f,%.1f,%d,%d,%d,%d",
+                    Instant.now(), label, connections, channels, rate, seconds,
+                    sent, expected, delivered, errors, measuredSends / (double) seconds, delivered / (double) seconds,
+                    latency.valueAt(0.50), latency.valueAt(0.99), latency.valueAt(0.999), latency.max());
+            System.out.println(CSV_HEADER);
+            System.out.println(row);
+            if (lastError != null) {
+                System.out.println("last error: " + lastError);
+            }
+            appendCsv(csv, row);
+        } finally {
+            for (LoadClient client : clients) {
+                client.close();
+            }
+        }
+    }
+
+    private static Path eventsDirectory() {
+        String configured = System.getProperty("loadgen.events");
+        if (configured != null) {
+            return Paths.get(configured);
+        }
+        Path fromRepository = Paths.get("client", "data");
+        return Files.isDirectory(fromRepository) ? fromRepository : Paths.get("..", "client", "data");
+    }
+
+    private static void waitUntil(long nanoTime) {
+        long remaining;
+        while ((remaining = nanoTime - System.nanoTime()) > 0) {
+            // park for the bulk of the wait, spin the last stretch so the schedule stays tight
+            if (remaining > 100_000) {
+                LockSupport.parkNanos(remaining - 50_000);
+            }
+        }
+    }
+
+    // wait for the last MESSAGEs in flight, giving up once nothing has arrived for a while
+    private static void awaitDeliveries(List<LoadClient> clients, long expected) throws InterruptedException {
+        long last = -1;
+        long idleSince = System.currentTimeMillis();
+        while (true) {
+            long delivered = 0;
+            for (LoadClient client : clients) {
+                delivered += client.delivered();
+            }
+            if (delivered >= expected) {
+                return;
+            }
+            if (delivered != last) {
+                last = delivered;
+                idleSince = System.currentTimeMillis();
+            } else if (System.currentTimeMillis() - idleSince > DRAIN_MILLIS) {
+                return;
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private static void appendCsv(Path csv, String row) throws IOException {
+        boolean header = !Files.exists(csv) || Files.size(csv) == 0;
+        try (Writer writer = Files.newBufferedWriter(csv, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+             PrintWriter out = new PrintWriter(writer)) {
+            if (header) {
+                out.println(CSV_HEADER);
+            }
+            out.println(row);
+        }
+    }
+}
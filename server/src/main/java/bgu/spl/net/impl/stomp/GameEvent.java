@@ -0,0 +1,120 @@
+package bgu.spl.net.impl.stomp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The structured part of a game event report, as the client lays it out in a SEND body:
+ * <pre>
+ * user:meni
+ * team a:germany
+ * team b:japan
+ * event name:goal!!!!
+ * time:1980
+ * general game updates:
+ *     active:true
+ * team a updates:
+ *     goals:1
+ * team b updates:
+ * description:
+ * free text...
+ * </pre>
+ * Updates are kept as flat key, value lists; the description is skipped.
+ */
+public final class GameEvent {
+
+    public String user;
+    public String teamA;
+    public String teamB;
+    public String name;
+    public int time;
+    public final List<String> generalUpdates = new ArrayList<>();
+    public final List<String> teamAUpdates = new ArrayList<>();
+    public final List<String> teamBUpdates = new ArrayList<>();
+
+    /**
+     * parse a SEND body in place
+     * @return the event, or null if the body is not a game event report (it names no teams)
+     */
+    public static GameEvent parse(CharSequence text, int start, int end) {
+        GameEvent event = new GameEvent();
+        List<String> section = null;
+        int pos = start;
+        while (pos < end) {
+            int lineEnd = pos;
+            while (lineEnd < end && text.charAt(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            boolean indented = lineEnd - pos > 0 && (text.charAt(pos) == ' ' || text.charAt(pos) == '\t');
+            int colon = indexOf(text, ':', pos, lineEnd);
+            if (colon != -1) {
+                String key = trimmed(text, pos, colon);
+                String value = trimmed(text, colon + 1, lineEnd);
+                if (indented && section != null) {
+                    section.add(key);
+                    section.add(value);
+                } else if (key.equals("description")) {
+                    break;
+                } else {
+                    section = event.field(key, value);
+                }
+            }
+            pos = lineEnd + 1;
+        }
+        return event.teamA == null && event.teamB == null ? null : event;
+    }
+
+    /**
+     * @return the update list the key opens, or null for a plain field
+     */
+    private List<String> field(String key, String value) {
+        switch (key) {
+            case "user":
+                user = value;
+                return null;
+            case "team a":
+                teamA = value;
+                return null;
+            case "team b":
+                teamB = value;
+                return null;
+            case "event name":
+                name = value;
+                return null;
+            case "time":
+                try {
+                    time = Integer.parseInt(value);
+                } catch (NumberFormatException e) {
+                    time = 0;
+                }
+                return null;
+            case "general game updates":
+                return generalUpdates;
+            case "team a updates":
+                return teamAUpdates;
+            case "team b updates":
+                return teamBUpdates;
+            default:
+                return null;
+        }
+    }
+
+    private static int indexOf(CharSequence text, char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (text.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String trimmed(CharSequence text, int start, int end) {
+        while (start < end && text.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && text.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return text.subSequence(start, end).toString();
+    }
+}
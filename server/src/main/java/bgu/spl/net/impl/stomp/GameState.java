@@ -0,0 +1,119 @@
+package bgu.spl.net.impl.stomp;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The game state of one channel, folded from its event reports as they are sent: the latest value
+ * of every general and per-team stat, for all reporters together and for each reporter alone
+ * (client summaries are per reporter). A summary costs the size of the state, not the number of events.
+ * Like the client, a stat takes the value of the event with the latest game time; among events at
+ * the same time the later report wins.
+ */
+public final class GameState {
+
+    private static final class Stat {
+        private String value;
+        private int time;
+
+        Stat(String value, int time) {
+            this.value = value;
+            this.time = time;
+        }
+    }
+
+    private static final class Aggregate {
+        private String teamA;
+        private String teamB;
+        private int firstTime;
+        private long events;
+        private final Map<String, Stat> general = new TreeMap<>();
+        private final Map<String, Stat> teamAStats = new TreeMap<>();
+        private final Map<String, Stat> teamBStats = new TreeMap<>();
+
+        void apply(GameEvent event) {
+            // the team names of the earliest event, as the client's time sorted summary shows them
+            if (events == 0 || event.time < firstTime) {
+                firstTime = event.time;
+                teamA = event.teamA != null ? event.teamA : teamA;
+                teamB = event.teamB != null ? event.teamB : teamB;
+            }
+            events++;
+            apply(general, event.generalUpdates, event.time);
+            apply(teamAStats, event.teamAUpdates, event.time);
+            apply(teamBStats, event.teamBUpdates, event.time);
+        }
+
+        private static void apply(Map<String, Stat> stats, List<String> updates, int time) {
+            for (int i = 0; i + 1 < updates.size(); i += 2) {
+                Stat stat = stats.get(updates.get(i));
+                if (stat == null) {
+                    stats.put(updates.get(i), new Stat(updates.get(i + 1), time));
+                } else if (time >= stat.time) {
+                    stat.value = updates.get(i + 1);
+                    stat.time = time;
+                }
+            }
+        }
+
+        void appendTo(StringBuilder out) {
+            if (teamA != null) {
+                out.append("team a:").append(teamA).append('\n');
+            }
+            if (teamB != null) {
+                out.append("team b:").append(teamB).append('\n');
+            }
+            appendSection(out, "general game updates:\n", general);
+            appendSection(out, "team a updates:\n", teamAStats);
+            appendSection(out, "team b updates:\n", teamBStats);
+        }
+
+        private static void appendSection(StringBuilder out, String title, Map<String, Stat> stats) {
+            out.append(title);
+            for (Map.Entry<String, Stat> stat : stats.entrySet()) {
+                out.append("    ").append(stat.getKey()).append(':').append(stat.getValue().value).append('\n');
+            }
+        }
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Aggregate all = new Aggregate();
+    private final Map<String, Aggregate> byReporter = new HashMap<>();
+    // when the channel last had a report, in the order GameStates counts them
+    volatile long lastReport;
+
+    /**
+     * @param reporter the user the event is credited to
+     */
+    public void apply(String reporter, GameEvent event) {
+        lock.lock();
+        try {
+            all.apply(event);
+            byReporter.computeIfAbsent(reporter, r -> new Aggregate()).apply(event);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Append the state in the layout of a SEND body: the teams and the three update sections
+     * @param reporter only that user's events, or null for everyone's
+     * @return the number of events the appended state was folded from
+     */
+    public long appendTo(StringBuilder out, String reporter) {
+        lock.lock();
+        try {
+            Aggregate aggregate = reporter == null ? all : byReporter.get(reporter);
+            if (aggregate == null) {
+                aggregate = new Aggregate();
+            }
+            aggregate.appendTo(out);
+            return aggregate.events;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
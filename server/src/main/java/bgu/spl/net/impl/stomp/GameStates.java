@@ -0,0 +1,72 @@
+package bgu.spl.net.impl.stomp;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The game state of every channel that had an event report sent to it, on this server, up to a number of
+ * channels: past that, the channels that went longest without a report are forgotten.
+ */
+public final class GameStates {
+
+    static final int MAX_CHANNELS = Integer.getInteger("stomp.summary.maxChannels", 10_000);
+
+    private final int maxChannels;
+    private final ConcurrentHashMap<String, GameState> channels = new ConcurrentHashMap<>();
+    private final AtomicLong reports = new AtomicLong();
+
+    private GameStates() {
+        this(MAX_CHANNELS);
+    }
+
+    GameStates(int maxChannels) {
+        this.maxChannels = maxChannels;
+    }
+
+    private static class Instance {
+        static GameStates instance = new GameStates();
+    }
+
+    public static GameStates getInstance() {
+        return Instance.instance;
+    }
+
+    public void apply(String destination, String reporter, GameEvent event) {
+        long report = reports.incrementAndGet();
+        GameState game = channels.get(destination);
+        if (game == null) {
+            game = channels.computeIfAbsent(destination, d -> new GameState());
+            // stamped first, so the new channel is not the one evicted
+            game.lastReport = report;
+            if (channels.size() > maxChannels) {
+                evictIdlest();
+            }
+        }
+        game.lastReport = report;
+        game.apply(reporter, event);
+    }
+
+    // one scan per channel over the cap; a channel gets its first report far less often than any report
+    private void evictIdlest() {
+        while (channels.size() > maxChannels) {
+            Map.Entry<String, GameState> idlest = null;
+            for (Map.Entry<String, GameState> channel : channels.entrySet()) {
+                if (idlest == null || channel.getValue().lastReport < idlest.getValue().lastReport) {
+                    idlest = channel;
+                }
+            }
+            if (idlest == null) {
+                return;
+            }
+            channels.remove(idlest.getKey(), idlest.getValue());
+        }
+    }
+
+    /**
+     * @return the channel's state, or null if no event was reported on it
+     */
+    public GameState of(String destination) {
+        return channels.get(destination);
+    }
+}
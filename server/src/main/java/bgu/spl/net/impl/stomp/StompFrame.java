@@ -0,0 +1,201 @@
+package bgu.spl.net.impl.stomp;
+
+import java.util.Arrays;
+
+/**
+ * A reusable view over one decoded STOMP frame.
+ * parse() only records offsets into the frame text: the command is matched to an enum,
+ * headers are kept as (key, value) ranges and the body as a range, nothing is copied
+ * until a header value is asked for.
+ */
+public final class StompFrame {
+
+    public enum Command {
+        CONNECT, SEND, SUBSCRIBE, UNSUBSCRIBE, DISCONNECT,
+        /** not STOMP: asks for the aggregated game state of a channel */
+        SUMMARY,
+        UNKNOWN;
+
+        private final String text = name();
+    }
+
+    private static final Command[] KNOWN_COMMANDS = {
+        Command.CONNECT, Command.SEND, Command.SUBSCRIBE, Command.UNSUBSCRIBE, Command.DISCONNECT, Command.SUMMARY
+    };
+
+    private String source;
+    private Command command;
+    private int commandStart;
+    private int commandEnd;
+    // 4 ints per header: key start, key end, value start, value end
+    private int[] headers = new int[4 * 8];
+    private int headerCount;
+    private int bodyStart;
+    private int bodyEnd;
+
+    /**
+     * Parse the given frame into this view, replacing whatever it held before
+     * @return false if the frame is empty (only whitespace)
+     */
+    public boolean parse(String frame) {
+        source = frame;
+        headerCount = 0;
+        int length = frame.length();
+
+        int pos = 0;
+        while (pos < length && frame.charAt(pos) <= ' ') {
+            pos++;
+        }
+        if (pos == length) {
+            command = null;
+            return false;
+        }
+
+        int lineEnd = lineEnd(pos);
+        commandStart = pos;
+        commandEnd = trimEnd(pos, lineEnd);
+        command = matchCommand();
+
+        bodyStart = length;
+        pos = lineEnd + 1;
+        while (pos <= length) {
+            lineEnd = lineEnd(pos);
+            int start = trimStart(pos, lineEnd);
+            int end = trimEnd(start, lineEnd);
+            if (start == end) {
+                bodyStart = Math.min(lineEnd + 1, length);
+                break;
+            }
+            int colon = frame.indexOf(':', start);
+            if (colon != -1 && colon < end) {
+                addHeader(start, trimEnd(start, colon), trimStart(colon + 1, end), end);
+            }
+            pos = lineEnd + 1;
+        }
+
+        bodyEnd = contentEnd();
+        if (bodyEnd == -1) {
+            int nul = frame.indexOf('\u0000', bodyStart);
+            bodyEnd = nul == -1 ? length : nul;
+        }
+        return true;
+    }
+
+    public Command command() {
+        return command;
+    }
+
+    /**
+     * @return the command line as sent, for error reporting
+     */
+    public String commandName() {
+        return source.substring(commandStart, commandEnd);
+    }
+
+    /**
+     * @return the value of the header, or null if it is absent; a repeated header yields its last value
+     */
+    public String header(String name) {
+        for (int i = (headerCount - 1) * 4; i >= 0; i -= 4) {
+            int keyStart = headers[i];
+            int keyLength = headers[i + 1] - keyStart;
+            if (keyLength == name.length() && source.regionMatches(keyStart, name, 0, keyLength)) {
+                return source.substring(headers[i + 2], headers[i + 3]);
+            }
+        }
+        return null;
+    }
+
+    public int headerCount() {
+        return headerCount;
+    }
+
+    /**
+     * append the body to the builder without materializing it as a separate string
+     */
+    public StringBuilder appendBody(StringBuilder out) {
+        return out.append(source, bodyStart, bodyEnd);
+    }
+
+    public String body() {
+        return source.substring(bodyStart, bodyEnd);
+    }
+
+    public int bodyLength() {
+        return bodyEnd - bodyStart;
+    }
+
+    private Command matchCommand() {
+        int length = commandEnd - commandStart;
+        for (Command candidate : KNOWN_COMMANDS) {
+            if (candidate.text.length() == length && source.regionMatches(commandStart, candidate.text, 0, length)) {
+                return candidate;
+            }
+        }
+        return Command.UNKNOWN;
+    }
+
+    /**
+     * @return where a body of content-length bytes ends, NULs included; -1 without a usable content-length
+     */
+    private int contentEnd() {
+        String value = header("content-length");
+        if (value == null) {
+            return -1;
+        }
+        long bytes;
+        try {
+            bytes = Long.parseLong(value);
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+        // the length counts UTF-8 bytes, the source is decoded text
+        int end = bodyStart;
+        int length = source.length();
+        while (bytes > 0 && end < length) {
+            char c = source.charAt(end++);
+            if (c < 0x80) {
+                bytes -= 1;
+            } else if (c < 0x800) {
+                bytes -= 2;
+            } else if (Character.isHighSurrogate(c) && end < length && Character.isLowSurrogate(source.charAt(end))) {
+                end++;
+                bytes -= 4;
+            } else {
+                bytes -= 3;
+            }
+        }
+        return bytes < 0 ? -1 : end;
+    }
+
+    private void addHeader(int keyStart, int keyEnd, int valueStart, int valueEnd) {
+        int i = headerCount * 4;
+        if (i + 4 > headers.length) {
+            headers = Arrays.copyOf(headers, headers.length * 2);
+        }
+        headers[i] = keyStart;
+        headers[i + 1] = keyEnd;
+        headers[i + 2] = valueStart;
+        headers[i + 3] = valueEnd;
+        headerCount++;
+    }
+
+    private int lineEnd(int from) {
+        int newLine = source.indexOf('\n', from);
+        return newLine == -1 ? source.length() : newLine;
+    }
+
+    private int trimStart(int start, int end) {
+        while (start < end && source.charAt(start) <= ' ') {
+            start++;
+        }
+        return start;
+    }
+
+    private int trimEnd(int start, int end) {
+        while (end > start && source.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return end;
+    }
+}
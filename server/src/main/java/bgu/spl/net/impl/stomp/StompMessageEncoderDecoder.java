@@ -1,14 +1,29 @@
 package bgu.spl.net.impl.stomp;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 import bgu.spl.net.api.MessageEncoderDecoder;
 
 public class StompMessageEncoderDecoder implements MessageEncoderDecoder<String> {
 
+private static final byte[] CONTENT_LENGTH = "content-length:".getBytes(StandardCharsets.US_ASCII);
+// a body announced larger than this is not allocated up front, the array grows as it arrives
+private static final int PREALLOCATE_LIMIT = 1 << 20;
+
 private byte[] bytes = new byte[1 << 10]; 
 private int len = 0;
+// the next byte decode() looks at
+private int pos = 0;
+// whether the frame's command started, so EOLs before it (heart-beats) do not end its headers
+private boolean inFrame = false;
+// where the frame's body starts and its NUL terminator is due, -1 until the headers are done
+private int bodyStart = -1;
+private int terminator = -1;
 
 @Override
 public String decodeNextByte(byte nextByte) {
@@ -18,6 +33,166 @@ public String decodeNextByte(byte nextByte) {
     pushByte(nextByte);
     return null;
 }
+/**
+ * Copies the buffer into the pending frame in bulk and splits it into frames.
+ * The headers are scanned for their end; a body with a content-length header is then taken whole,
+ * its bytes are not looked at and may include NULs, otherwise it ends at the first NUL.
+ * Only the unfinished tail is kept, so the array grows only for frames larger than it.
+ * decodeNextByte ignores content-length and always ends a frame at a NUL.
+ */
+@Override
+public List<String> decode(ByteBuffer buffer) {
+    List<String> frames = Collections.emptyList();
+    while (buffer.hasRemaining()) {
+        if (len == bytes.length) {
+            int size = len * 2;
+            // a body of known length gets room for all of it at once
+            if (terminator >= len && terminator - len < PREALLOCATE_LIMIT) {
+                size = Math.max(size, terminator + 1);
+            }
+            bytes = Arrays.copyOf(bytes, size);
+        }
+        int count = Math.min(buffer.remaining(), bytes.length - len);
+        buffer.get(bytes, len, count);
+        len += count;
+        frames = split(frames);
+    }
+    return frames;
+}
+
+private List<String> split(List<String> frames) {
+    int frameStart = 0;
+    while (pos < len) {
+        if (terminator >= 0) {
+            if (len <= terminator) {
+                // the rest of the body is still to come
+                pos = len;
+                break;
+            }
+            if (bytes[terminator] == '\u0000') {
+                int end = terminator;
+                frames = add(frames, frameStart, end);
+                frameStart = pos = end + 1;
+                continue;
+            }
+            // the content-length was wrong: the body ends at its first NUL, as without one,
+            // which may come before the announced end
+            pos = bodyStart;
+            terminator = -1;
+            continue;
+        }
+        if (bodyStart >= 0) {
+            // a body without content-length ends at the first NUL
+            while (pos < len && bytes[pos] != '\u0000') {
+                pos++;
+            }
+            if (pos == len) {
+                break;
+            }
+        }
+        byte b = bytes[pos];
+        if (b == '\u0000') {
+            frames = add(frames, frameStart, pos);
+            frameStart = ++pos;
+            continue;
+        }
+        if (b != '\n' && b != '\r') {
+            inFrame = true;
+        } else if (b == '\n' && inFrame && endsHeaders(frameStart)) {
+            bodyStart = pos + 1;
+            long length = contentLength(frameStart, pos);
+            if (length >= 0 && length <= Integer.MAX_VALUE - 1 - bodyStart) {
+                terminator = bodyStart + (int) length;
+                continue;
+            }
+        }
+        pos++;
+    }
+    if (frameStart > 0) {
+        System.arraycopy(bytes, frameStart, bytes, 0, len - frameStart);
+        len -= frameStart;
+        pos -= frameStart;
+        if (bodyStart >= 0) {
+            bodyStart -= frameStart;
+        }
+        if (terminator >= 0) {
+            terminator -= frameStart;
+        }
+    }
+    return frames;
+}
+
+private List<String> add(List<String> frames, int from, int to) {
+    if (frames.isEmpty()) {
+        frames = new ArrayList<>();
+    }
+    frames.add(new String(bytes, from, to - from, StandardCharsets.UTF_8));
+    inFrame = false;
+    bodyStart = -1;
+    terminator = -1;
+    return frames;
+}
+
+// the new line at pos closes an empty line: the one before it ends with \n or \r\n
+private boolean endsHeaders(int frameStart) {
+    int before = pos - 1;
+    if (before >= frameStart && bytes[before] == '\r') {
+        before--;
+    }
+    return before >= frameStart && bytes[before] == '\n';
+}
+
+/**
+ * @return the value of the last content-length header between the two offsets, -1 if there is none
+ * or it is not a number
+ */
+private long contentLength(int from, int to) {
+    long length = -1;
+    for (int line = from; line < to; ) {
+        int end = line;
+        while (end < to && bytes[end] != '\n') {
+            end++;
+        }
+        if (startsWith(line, end, CONTENT_LENGTH)) {
+            length = parseLength(line + CONTENT_LENGTH.length, end);
+        }
+        line = end + 1;
+    }
+    return length;
+}
+
+private boolean startsWith(int from, int to, byte[] prefix) {
+    if (to - from < prefix.length) {
+        return false;
+    }
+    for (int i = 0; i < prefix.length; i++) {
+        if (bytes[from + i] != prefix[i]) {
+            return false;
+        }
+    }
+    return true;
+}
+
+private long parseLength(int from, int to) {
+    while (from < to && bytes[from] == ' ') {
+        from++;
+    }
+    while (to > from && (bytes[to - 1] == ' ' || bytes[to - 1] == '\r')) {
+        to--;
+    }
+    if (from == to || to - from > 10) {
+        return -1;
+    }
+    long value = 0;
+    for (int i = from; i < to; i++) {
+        if (bytes[i] < '0' || bytes[i] > '9') {
+            return -1;
+        }
+        value = value * 10 + bytes[i] - '0';
+    }
+    return value;
+}
+
 @Override
 public byte[] encode(String message) {
     return (message + "\u0000").getBytes(StandardCharsets.UTF_8);
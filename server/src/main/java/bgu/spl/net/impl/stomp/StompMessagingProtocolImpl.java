@@ -1,26 +1,39 @@
 package bgu.spl.net.impl.stomp;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
-import java.util.function.Consumer;
+import java.util.Set;
 
 import bgu.spl.net.api.StompMessagingProtocol;
 import bgu.spl.net.impl.data.Database;
 import bgu.spl.net.impl.data.LoginStatus;
 import bgu.spl.net.impl.data.User;
 import bgu.spl.net.srv.Connections;
+import bgu.spl.net.srv.DestinationTrie;
+import bgu.spl.net.srv.HistoryReplay;
+import bgu.spl.net.srv.metrics.CommandMetrics;
+import bgu.spl.net.srv.metrics.ServerMetrics;
 
 public class StompMessagingProtocolImpl implements StompMessagingProtocol<String>{
     private int connectionId;
     private Connections<String> connections;
     private boolean shouldTerminate = false;
-    private final Map<String, Consumer<String>> commandHandlers;
-    private static final java.util.concurrent.atomic.AtomicInteger messageIdCounter = new java.util.concurrent.atomic.AtomicInteger(0);
+    private final StompFrame frame = new StompFrame();
     private final Map<Integer, String> activeSubscriptions = new HashMap<>();
+    // reverse index: the subscription ids per destination, so a SEND is authorized without a scan
+    private final Map<String, Set<Integer>> subscriptionIds = new HashMap<>();
     private final Database db = Database.getInstance();
+    private final GameStates games = GameStates.getInstance();
+    // frame count and processing time per command, indexed by ordinal
+    private static final CommandMetrics[] COMMAND_METRICS = new CommandMetrics[StompFrame.Command.values().length];
+    static {
+        for (StompFrame.Command command : StompFrame.Command.values()) {
+            COMMAND_METRICS[command.ordinal()] = ServerMetrics.getInstance().command(command.name());
+        }
+    }
+    private int untilTimed = 0;
     private User currentUser;
     public StompMessagingProtocolImpl() {
-        commandHandlers = new HashMap<>();
-        initializeHandlers();
         currentUser = null;
     }
     
@@ -32,14 +45,41 @@ public class StompMessagingProtocolImpl implements StompMessagingProtocol<String
     
     @Override
     public void process(String message) {
-        String cleanedMessage = message.replaceAll("^\\s+", ""); 
-        if (cleanedMessage.isEmpty()) return;
-        String command = cleanedMessage.split("\\n")[0].trim();
-    Consumer<String> handler = commandHandlers.get(command);
-        if (handler != null) {  
-            handler.accept(message);
-        } else {
-            connections.send(connectionId, "ERROR\nmessage: Unknown Command\n\nThe command " + command + " is not implemented.\u0000");
+        boolean timed = ServerMetrics.ENABLED && --untilTimed < 0;
+        long start = timed ? System.nanoTime() : 0;
+        if (!frame.parse(message)) return;
+        StompFrame.Command command = frame.command();
+        dispatch(command);
+        CommandMetrics metrics = COMMAND_METRICS[command.ordinal()];
+        metrics.received();
+        if (timed) {
+            metrics.record(System.nanoTime() - start);
+            untilTimed = ServerMetrics.SAMPLE_EVERY - 1;
+        }
+    }
+
+    private void dispatch(StompFrame.Command command) {
+        switch (command) {
+            case CONNECT:
+                handleConnect();
+                break;
+            case SEND:
+                handleSend();
+                break;
+            case SUBSCRIBE:
+                handleSubscribe();
+                break;
+            case UNSUBSCRIBE:
+                handleUnsubscribe();
+                break;
+            case DISCONNECT:
+                handleDisconnect();
+                break;
+            case SUMMARY:
+                handleSummary();
+                break;
+            default:
+                connections.send(connectionId, "ERROR\nmessage: Unknown Command\n\nThe command " + frame.commandName() + " is not implemented.\u0000");
         }
     }
 
@@ -48,41 +88,31 @@ public class StompMessagingProtocolImpl implements StompMessagingProtocol<String
         return shouldTerminate;
     }
 
-    private void initializeHandlers() {
-        commandHandlers.put("CONNECT", this::handleConnect);
-        commandHandlers.put("SEND", this::handleSend);
-        commandHandlers.put("SUBSCRIBE", this::handleSubscribe);
-        commandHandlers.put("UNSUBSCRIBE", this::handleUnsubscribe);
-        commandHandlers.put("DISCONNECT", this::handleDisconnect);
-    }
-
-    private void handleConnect(String message) {
+    private void handleConnect() {
         if (this.currentUser != null) {
-            sendError("Already Logged In", "This connection is already associated with a user", parseHeaders(message));
+            sendError("Already Logged In", "This connection is already associated with a user");
             return;
         }
 
-        Map<String, String> headers = parseHeaders(message);
-
-        String login = headers.get("login");
-        String passcode = headers.get("passcode");
-        String acceptVersion = headers.get("accept-version");
+        String login = frame.header("login");
+        String passcode = frame.header("passcode");
+        String acceptVersion = frame.header("accept-version");
 
         if (login == null || passcode == null || acceptVersion == null) {
-            sendError("Malformed Frame", "Missing required headers (login, passcode, accept-version).", headers);
+            sendError("Malformed Frame", "Missing required headers (login, passcode, accept-version).");
             return;
         }
 
         LoginStatus status = db.login(connectionId, login, passcode);
         switch (status) {
             case CLIENT_ALREADY_CONNECTED:
-                sendError("Client already connected", "Connection already associated with a user.", headers);
+                sendError("Client already connected", "Connection already associated with a user.");
                 return;
             case ALREADY_LOGGED_IN:
-                sendError("User already logged in", "User " + login + " is already logged in.", headers);
+                sendError("User already logged in", "User " + login + " is already logged in.");
                 return;
             case WRONG_PASSWORD:
-                sendError("Wrong password", "Password does not match.", headers);
+                sendError("Wrong password", "Password does not match.");
                 return;
             default:
                 break;
@@ -90,7 +120,7 @@ public class StompMessagingProtocolImpl implements StompMessagingProtocol<String
 
         this.currentUser = db.getUserByConnectionId(connectionId);
         if (this.currentUser == null) {
-            sendError("Login failed", "User state not found after login", headers);
+            sendError("Login failed", "User state not found after login");
             return;
         }
         String response = "CONNECTED\n" +
@@ -99,34 +129,11 @@ public class StompMessagingProtocolImpl implements StompMessagingProtocol<String
                           "\u0000"; 
         
         connections.send(connectionId, response);
-        sendReceiptIfRequested(headers);
+        sendReceiptIfRequested();
     }
 
-    private Map<String, String> parseHeaders(String message) {
-        Map<String, String> headers = new HashMap<>();
-        String[] lines = message.split("\n");
-        
-        for (int i = 1; i < lines.length; i++) {
-            String line = lines[i].trim();
-            if (line.isEmpty()) break; 
-
-            int splitIndex = line.indexOf(':');
-            if (splitIndex != -1) {
-                String key = line.substring(0, splitIndex).trim();
-                String value = line.substring(splitIndex + 1).trim();
-                headers.put(key, value);
-            }
-        }
-        return headers;
-    }
-
-    private void sendError(String messageHeader, String errorBody,Map<String, String> headers) {
-    String receiptId;
-    if (headers != null) {
-        receiptId = headers.get("receipt");
-    } else {
-        receiptId = null;
-    }
+    private void sendError(String messageHeader, String errorBody) {
+    String receiptId = frame.header("receipt");
     String errorFrame = "ERROR\n" +
                         "message:" + messageHeader + "\n";
 
@@ -142,59 +149,54 @@ public class StompMessagingProtocolImpl implements StompMessagingProtocol<String
     shouldTerminate = true;
     }
 
-    private void handleSend(String message) {
-    Map<String, String> headers = parseHeaders(message);
-
+    private void handleSend() {
       if (this.currentUser == null) {
-        sendError("Not Logged In", "You must send a CONNECT frame first", headers);
+        sendError("Not Logged In", "You must send a CONNECT frame first");
         return;
         }
-    String destination = headers.get("destination");
+    String destination = frame.header("destination");
 
     if (destination == null) {
-        sendError("Malformed Frame", "Missing destination header", headers);
+        sendError("Malformed Frame", "Missing destination header");
         return;
     }
-    if (!activeSubscriptions.containsValue(destination)) {
-        sendError("Not Subscribed", "You cannot send messages to a channel you are not subscribed to", headers);
+    if (DestinationTrie.isPattern(destination)) {
+        sendError("Malformed Frame", "Cannot send to a wildcard destination: " + destination);
         return;
     }
-    int msgId = messageIdCounter.getAndIncrement();
-
-    int bodyStartIndex = message.indexOf("\n\n");
-    int nullCharIndex = message.indexOf('\u0000');
-    if (nullCharIndex == -1) {
-        nullCharIndex = message.length();
+    if (!subscriptionIds.containsKey(destination)) {
+        sendError("Not Subscribed", "You cannot send messages to a channel you are not subscribed to");
+        return;
     }
-
-    String body;
-    if (bodyStartIndex != -1) {
-        body = message.substring(bodyStartIndex + 2, nullCharIndex);
-    } else {
-        body = "";
+    // the connections stamp message-id and sequence, per channel
+    StringBuilder messageFrame = new StringBuilder(64 + destination.length() + frame.bodyLength())
+            .append("MESSAGE\n")
+            .append("destination:").append(destination).append('\n')
+            .append('\n');
+    int bodyStart = messageFrame.length();
+    frame.appendBody(messageFrame);
+    // fold the report into the channel's game state, parsed where it already sits in the MESSAGE;
+    // it is credited to the logged-in sender, the body's user line could name anyone
+    GameEvent event = GameEvent.parse(messageFrame, bodyStart, messageFrame.length());
+    if (event != null) {
+        games.apply(destination, currentUser.name, event);
     }
+    messageFrame.append('\n')
+            .append('\u0000');
 
-    String messageFrame = "MESSAGE\n" +
-                          "message-id:" + msgId + "\n" +
-                          "destination:" + destination + "\n" +
-                          "\n" +
-                          body + "\n" +
-                          "\u0000";
-
-    connections.send(destination, messageFrame);
-    sendReceiptIfRequested(headers);
+    connections.send(destination, messageFrame.toString());
+    sendReceiptIfRequested();
     }
-    private void handleSubscribe(String message) {
-        Map<String, String> headers = parseHeaders(message);
+    private void handleSubscribe() {
         if (this.currentUser == null) {
-        sendError("Not Logged In", "You must send a CONNECT frame first", headers);
+        sendError("Not Logged In", "You must send a CONNECT frame first");
         return;
         }
-        String destination = headers.get("destination");
-        String idStr = headers.get("id");
+        String destination = frame.header("destination");
+        String idStr = frame.header("id");
         
         if (destination == null || idStr == null) {
-            sendError("Malformed Frame", "Missing required headers (destination, id).", headers);
+            sendError("Malformed Frame", "Missing required headers (destination, id).");
             return;
         }
         
@@ -202,26 +204,54 @@ public class StompMessagingProtocolImpl implements StompMessagingProtocol<String
         try {
             subscriptionId = Integer.parseInt(idStr);
         } catch (NumberFormatException e) {
-            sendError("Malformed Frame", "id header must be a number.", headers);
+            sendError("Malformed Frame", "id header must be a number.");
             return;
         }
 
-        connections.subscribe(destination, connectionId, subscriptionId);
-        
-        activeSubscriptions.put(subscriptionId, destination);
-        sendReceiptIfRequested(headers);
+        if (!DestinationTrie.isValidPattern(destination)) {
+            sendError("Malformed Frame", "'**' may only be the last level of a destination.");
+            return;
+        }
+
+        HistoryReplay replay;
+        try {
+            replay = replayOf(frame.header("replay-last"), frame.header("replay-after"));
+        } catch (IllegalArgumentException e) {
+            sendError("Malformed Frame", "replay-last and replay-after must be non negative numbers.");
+            return;
+        }
+
+        String previous = activeSubscriptions.put(subscriptionId, destination);
+        if (previous != null && !previous.equals(destination)) {
+            release(previous, subscriptionId);
+        }
+        connections.subscribe(destination, connectionId, subscriptionId, replay);
+        subscriptionIds.computeIfAbsent(destination, d -> new HashSet<>()).add(subscriptionId);
+        sendReceiptIfRequested();
 
     }
-    private void handleUnsubscribe(String message) {
-        Map<String, String> headers = parseHeaders(message);
+    /**
+     * the optional SUBSCRIBE headers asking for retained messages: the last K, or those after a channel sequence number
+     */
+    private static HistoryReplay replayOf(String last, String after) {
+        if (last != null) {
+            return HistoryReplay.last(Integer.parseInt(last));
+        }
+        if (after != null) {
+            return HistoryReplay.after(Long.parseLong(after));
+        }
+        return HistoryReplay.NONE;
+    }
+
+    private void handleUnsubscribe() {
          if (this.currentUser == null) {
-        sendError("Not Logged In", "You must send a CONNECT frame first", headers);
+        sendError("Not Logged In", "You must send a CONNECT frame first");
         return;
         }
-        String idStr = headers.get("id");
+        String idStr = frame.header("id");
 
         if (idStr == null) {
-            sendError("Malformed Frame", "Missing required header: id", headers);
+            sendError("Malformed Frame", "Missing required header: id");
             return;
         }
 
@@ -229,43 +259,93 @@ public class StompMessagingProtocolImpl implements StompMessagingProtocol<String
         try {
             subscriptionId = Integer.parseInt(idStr);
         } catch (NumberFormatException e) {
-            sendError("Malformed Frame", "id header must be a number"   , headers);
+            sendError("Malformed Frame", "id header must be a number"   );
             return;
         }
 
-        String channel = activeSubscriptions.get(subscriptionId);
+        String channel = activeSubscriptions.remove(subscriptionId);
 
         if (channel != null) {
-            connections.unsubscribe(channel, connectionId);
-
-            activeSubscriptions.remove(subscriptionId);
+            release(channel, subscriptionId);
         } else {
-            sendError("Not Subscribed", "No active subscription with id: " + subscriptionId, headers);
+            sendError("Not Subscribed", "No active subscription with id: " + subscriptionId);
         }
-        sendReceiptIfRequested(headers);
+        sendReceiptIfRequested();
     }
-    private void handleDisconnect(String message) {
-        Map<String, String> headers = parseHeaders(message);
+    /**
+     * Answers with the channel's aggregated game state, optionally for one reporter only:
+     * a SUMMARY frame with destination, user and events headers and the state as the body.
+     * In a cluster it covers the reports sent to this node only.
+     */
+    private void handleSummary() {
         if (this.currentUser == null) {
-            sendError("Not Logged In", "You must send a CONNECT frame first", headers);
+            sendError("Not Logged In", "You must send a CONNECT frame first");
+            return;
+        }
+        String destination = frame.header("destination");
+        if (destination == null) {
+            sendError("Malformed Frame", "Missing destination header");
+            return;
+        }
+        String reporter = frame.header("user");
+
+        StringBuilder state = new StringBuilder(256);
+        GameState game = games.of(destination);
+        if (game == null) {
+            game = new GameState();
+        }
+        long events = game.appendTo(state, reporter);
+        StringBuilder summary = new StringBuilder(64 + destination.length() + state.length())
+                .append("SUMMARY\n")
+                .append("destination:").append(destination).append('\n');
+        if (reporter != null) {
+            summary.append("user:").append(reporter).append('\n');
+        }
+        summary.append("events:").append(events).append('\n')
+                .append('\n')
+                .append(state)
+                .append('\u0000');
+        connections.send(connectionId, summary.toString());
+        sendReceiptIfRequested();
+    }
+
+    private void handleDisconnect() {
+        if (this.currentUser == null) {
+            sendError("Not Logged In", "You must send a CONNECT frame first");
             return;
         }
         unsubscribeAll();
-        sendReceiptIfRequested(headers);
+        sendReceiptIfRequested();
         db.logout(connectionId);
         connections.disconnect(connectionId);
         shouldTerminate = true;
         currentUser = null;
     }
 
-    private void unsubscribeAll() {
-        for (Map.Entry<Integer, String> entry : activeSubscriptions.entrySet()) {
-            connections.unsubscribe(entry.getValue(), connectionId);
+    /**
+     * drops one subscription id from a destination. Connections keeps a single subscription per channel,
+     * so it is only unsubscribed with the last id; otherwise deliveries move to an id the client still holds.
+     */
+    private void release(String destination, int subscriptionId) {
+        Set<Integer> ids = subscriptionIds.get(destination);
+        if (ids == null || !ids.remove(subscriptionId)) {
+            return;
+        }
+        if (ids.isEmpty()) {
+            subscriptionIds.remove(destination);
+            connections.unsubscribe(destination, connectionId);
+        } else {
+            connections.subscribe(destination, connectionId, ids.iterator().next());
         }
+    }
+
+    private void unsubscribeAll() {
+        connections.unsubscribeAll(connectionId);
         activeSubscriptions.clear();
+        subscriptionIds.clear();
     }
-    private void sendReceiptIfRequested(Map<String, String> headers) {
-    String receiptId = headers.get("receipt");
+    private void sendReceiptIfRequested() {
+    String receiptId = frame.header("receipt");
     if (receiptId != null) {
         String receiptFrame = "RECEIPT\n" +
                               "receipt-id:" + receiptId + "\n" +
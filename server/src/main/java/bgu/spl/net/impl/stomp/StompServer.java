@@ -1,16 +1,19 @@
 package bgu.spl.net.impl.stomp;
 
+import bgu.spl.net.impl.data.Database;
 import bgu.spl.net.srv.Server;
 
 public class StompServer {
 
     public static void main(String[] args) {
         if (args.length < 2) {
-            System.out.println("Usage: StompServer <port> <tpc/reactor>");
+            System.out.println("Usage: StompServer <port> <tpc/vtpc/reactor/multireactor/percore> [reactors/cores]");
             return;
         }
         int port = Integer.parseInt(args[0]);
         String mode = args[1];
+        // the registered users are loaded before the first CONNECT, not by it
+        Database.getInstance();
 
         switch (mode) {
             case "tpc":
@@ -20,6 +23,13 @@ public class StompServer {
                         () -> new StompMessageEncoderDecoder()
                 ).serve();
                 break;
+            case "vtpc":
+                Server.<String>virtualThreadPerClient(
+                        port,
+                        () -> new StompMessagingProtocolImpl(),
+                        () -> new StompMessageEncoderDecoder()
+                ).serve();
+                break;
             case "reactor":
                 Server.<String>reactor(
                         Runtime.getRuntime().availableProcessors(),
@@ -28,8 +38,27 @@ public class StompServer {
                         () -> new StompMessageEncoderDecoder()
                 ).serve();
                 break;
+            case "multireactor":
+                int reactors = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+                Server.<String>multiReactor(
+                        Runtime.getRuntime().availableProcessors(),
+                        reactors,
+                        port,
+                        () -> new StompMessagingProtocolImpl(),
+                        () -> new StompMessageEncoderDecoder()
+                ).serve();
+                break;
+            case "percore":
+                int cores = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+                Server.<String>threadPerCore(
+                        cores,
+                        port,
+                        () -> new StompMessagingProtocolImpl(),
+                        () -> new StompMessageEncoderDecoder()
+                ).serve();
+                break;
             default:
-                System.out.println("Unknown mode. Use 'tpc' or 'reactor'.");
+                System.out.println("Unknown mode. Use 'tpc', 'vtpc', 'reactor', 'multireactor' or 'percore'.");
         }
     }
 }
\ No newline at end of file
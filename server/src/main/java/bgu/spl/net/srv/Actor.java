@@ -0,0 +1,10 @@
+package bgu.spl.net.srv;
+
+/**
+ * Something whose tasks run one at a time and in submission order, from its own mailbox.
+ */
+@FunctionalInterface
+public interface Actor {
+
+    ActorMailbox mailbox();
+}
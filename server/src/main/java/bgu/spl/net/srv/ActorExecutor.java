@@ -0,0 +1,13 @@
+package bgu.spl.net.srv;
+
+/**
+ * Runs tasks on behalf of actors: the tasks of one actor never run concurrently and run in
+ * the order they were submitted, tasks of different actors run in parallel.
+ * @param <A> the kind of actor accepted
+ */
+public interface ActorExecutor<A> {
+
+    void submit(A act, Runnable r);
+
+    void shutdown();
+}
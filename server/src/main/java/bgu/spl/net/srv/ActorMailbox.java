@@ -0,0 +1,77 @@
+package bgu.spl.net.srv;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The pending tasks of one actor: a multi-producer single-consumer linked queue and a
+ * scheduled flag. Producers swap themselves in at the tail with one atomic exchange; only the
+ * executor task that won the idle to scheduled transition polls, so the head needs no atomics.
+ */
+public final class ActorMailbox {
+
+    private static final class Node {
+        private Runnable task;
+        private volatile Node next;
+
+        Node(Runnable task) {
+            this.task = task;
+        }
+    }
+
+    private final AtomicReference<Node> tail;
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    // consumer side only
+    private Node head;
+
+    public ActorMailbox() {
+        head = new Node(null);
+        tail = new AtomicReference<>(head);
+    }
+
+    /**
+     * add a task, from any thread
+     */
+    void offer(Runnable task) {
+        Node node = new Node(task);
+        Node previous = tail.getAndSet(node);
+        // until this link is written the consumer sees the queue as non empty but cannot reach the node
+        previous.next = node;
+    }
+
+    /**
+     * take the oldest task; only the owner of the scheduled flag may call this
+     * @return null when there is no task
+     */
+    Runnable poll() {
+        Node next = head.next;
+        if (next == null) {
+            if (tail.get() == head) {
+                return null;
+            }
+            // a producer swapped the tail but has not linked its node yet
+            while ((next = head.next) == null) {
+                Thread.yield();
+            }
+        }
+        head = next;
+        Runnable task = next.task;
+        next.task = null;
+        return task;
+    }
+
+    boolean isEmpty() {
+        return tail.get() == head;
+    }
+
+    /**
+     * @return whether the caller moved the mailbox from idle to scheduled, and so must run it
+     */
+    boolean trySchedule() {
+        return !scheduled.get() && scheduled.compareAndSet(false, true);
+    }
+
+    void idle() {
+        scheduled.set(false);
+    }
+}
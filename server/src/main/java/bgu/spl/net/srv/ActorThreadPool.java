@@ -11,12 +11,20 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
-public class ActorThreadPool {
+import bgu.spl.net.srv.metrics.ServerMetrics;
+
+/**
+ * The original actor executor: a monitor on the actor and shared pending queues behind a
+ * read-write lock. Kept for comparison with {@link MailboxActorExecutor}, select it with
+ * -Dstomp.reactor.actors=monitor.
+ */
+public class ActorThreadPool implements ActorExecutor<Object> {
 
     private final Map<Object, Queue<Runnable>> acts;
     private final ReadWriteLock actsRWLock;
     private final Set<Object> playingNow;
     private final ExecutorService threads;
+    private final ServerMetrics metrics = ServerMetrics.getInstance();
 
     public ActorThreadPool(int threads) {
         this.threads = Executors.newFixedThreadPool(threads);
@@ -25,7 +33,9 @@ public class ActorThreadPool {
         actsRWLock = new ReentrantReadWriteLock();
     }
 
+    @Override
     public void submit(Object act, Runnable r) {
+        metrics.taskSubmitted();
         synchronized (act) {
             if (!playingNow.contains(act)) {
                 playingNow.add(act);
@@ -36,6 +46,7 @@ public class ActorThreadPool {
         }
     }
 
+    @Override
     public void shutdown() {
         threads.shutdownNow();
     }
@@ -59,6 +70,7 @@ public class ActorThreadPool {
             try {
                 r.run();
             } finally {
+                metrics.taskCompleted();
                 complete(act);
             }
         });
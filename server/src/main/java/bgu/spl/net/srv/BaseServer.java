@@ -3,11 +3,13 @@ package bgu.spl.net.srv;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Supplier;
 
 import bgu.spl.net.api.MessageEncoderDecoder;
 import bgu.spl.net.api.StompMessagingProtocol;
+import bgu.spl.net.srv.metrics.ServerMetrics;
 
 public abstract class BaseServer<T> implements Server<T> {
 
@@ -34,6 +36,8 @@ public abstract class BaseServer<T> implements Server<T> {
 public void serve() {
    try (ServerSocket serverSock = new ServerSocket(port)) {
     this.sock = serverSock; 
+    ServerMetrics.getInstance().trackConnections(connections::subscriberCounts, connections::writeBacklogs);
+    ServerMetrics.getInstance().trackHistory(connections::historyBytes, connections::historyCount);
     System.out.println("Server started on port " + port);
         while (!Thread.currentThread().isInterrupted()) {
             Socket clientSock = serverSock.accept();
@@ -47,7 +51,8 @@ public void serve() {
                     encdecFactory.get(),
                     protocol,
                     connections,
-                    connectionId);
+                    connectionId,
+                    writerThreads());
 
             connections.addConnection(connectionId, handler);
             
@@ -66,4 +71,11 @@ public void serve() {
 
     protected abstract void execute(BlockingConnectionHandler<T>  handler);
 
+    /**
+     * @return the factory of the thread that writes to each client, so senders never block on a slow one
+     */
+    protected ThreadFactory writerThreads() {
+        return Thread::new;
+    }
+
 }
@@ -1,30 +1,66 @@
 package bgu.spl.net.srv;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ThreadFactory;
 
 import bgu.spl.net.api.MessageEncoderDecoder;
 import bgu.spl.net.api.StompMessagingProtocol;
+import bgu.spl.net.srv.metrics.ServerMetrics;
 
 public class BlockingConnectionHandler<T> implements Runnable, ConnectionHandler<T> {
 
+    private static final int BUFFER_SIZE = 1 << 13; //8k
+    private static final ServerMetrics METRICS = ServerMetrics.getInstance();
+    private static final int WRITE_BUDGET = Integer.getInteger("stomp.reactor.writeBudget", 1 << 16); //64k
+    private static final int MAX_GATHERED_BUFFERS = 128;
+    // how long a finished connection waits for its writer to flush before the socket is closed under it
+    private static final long LINGER_MILLIS = Long.getLong("stomp.write.lingerMillis", 5_000);
+
     private final StompMessagingProtocol<T> protocol;
     private final MessageEncoderDecoder<T> encdec;
     private final Socket sock;
     private final Connections<T> connections;
     private final int connectionId;
-    private BufferedInputStream in;
-    private BufferedOutputStream out;
+    private final ThreadFactory writerThreads;
+    // senders only queue, the writer thread is the only one to block on a slow peer
+    private final OutboundQueue writeQueue;
+    private InputStream in;
     private volatile boolean connected = true;
+    private volatile boolean writing = false;
 
     public BlockingConnectionHandler(Socket sock,
                                      MessageEncoderDecoder<T> reader,
                                      StompMessagingProtocol<T> protocol,
                                      Connections<T> connections,
                                      int connectionId) {
+        this(sock, reader, protocol, connections, connectionId, Thread::new, new OutboundQueue());
+    }
+
+    public BlockingConnectionHandler(Socket sock,
+                                     MessageEncoderDecoder<T> reader,
+                                     StompMessagingProtocol<T> protocol,
+                                     Connections<T> connections,
+                                     int connectionId,
+                                     ThreadFactory writerThreads) {
+        this(sock, reader, protocol, connections, connectionId, writerThreads, new OutboundQueue());
+    }
+
+    BlockingConnectionHandler(Socket sock,
+                              MessageEncoderDecoder<T> reader,
+                              StompMessagingProtocol<T> protocol,
+                              Connections<T> connections,
+                              int connectionId,
+                              ThreadFactory writerThreads,
+                              OutboundQueue writeQueue) {
         this.sock = sock;
+        this.writerThreads = writerThreads;
+        this.writeQueue = writeQueue;
         this.encdec = reader;
         this.protocol = protocol;
         this.connections = connections;
@@ -33,46 +69,137 @@ public class BlockingConnectionHandler<T> implements Runnable, ConnectionHandler
 
     @Override
     public void run() {
+        Thread writer = null;
         try (Socket sock = this.sock) { //just for automatic closing
             int read;
+            byte[] buf = new byte[BUFFER_SIZE];
+            ByteBuffer view = ByteBuffer.wrap(buf);
 
-            in = new BufferedInputStream(sock.getInputStream());
-            out = new BufferedOutputStream(sock.getOutputStream());
-            while (!protocol.shouldTerminate() && connected && (read = in.read()) >= 0) {
-                T nextMessage = encdec.decodeNextByte((byte) read);
-                if (nextMessage != null) {
-                protocol.process(nextMessage); 
+            in = sock.getInputStream();
+            OutputStream out = new BufferedOutputStream(sock.getOutputStream(), BUFFER_SIZE);
+            writer = writerThreads.newThread(() -> writeLoop(out));
+            writer.start();
+            while (!protocol.shouldTerminate() && connected && (read = in.read(buf)) >= 0) {
+                view.limit(read).position(0);
+                for (T nextMessage : encdec.decode(view)) {
+                    if (protocol.shouldTerminate()) {
+                        break;
+                    }
+                    protocol.process(nextMessage);
                 }
             }
 
+            // let the writer flush what is queued, e.g. the RECEIPT of a DISCONNECT
+            writeQueue.shutdown();
+            writer.join(LINGER_MILLIS);
         } catch (IOException ex) {
-            ex.printStackTrace();
+            // closed under the reader by the writer, or for a slow consumer
+            if (connected) {
+                ex.printStackTrace();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
         } finally {
+            writeQueue.close();
             if (connections != null) {
                 connections.disconnect(connectionId);
             }
         }
     }
 
+    /**
+     * Writes queued frames until the queue is closed, a batch of frames per flush.
+     * Runs on its own thread so senders never wait for this peer.
+     */
+    private void writeLoop(OutputStream out) {
+        ByteBuffer[] gathered = new ByteBuffer[MAX_GATHERED_BUFFERS];
+        byte[] staging = new byte[BUFFER_SIZE];
+        try {
+            int buffers;
+            while ((buffers = writeQueue.awaitGather(gathered, WRITE_BUDGET, Long.MAX_VALUE)) >= 0) {
+                writing = true;
+                long bytes = 0;
+                for (int i = 0; i < buffers; i++) {
+                    bytes += write(gathered[i], out, staging);
+                }
+                out.flush();
+                writing = false;
+                Arrays.fill(gathered, 0, buffers, null);
+                METRICS.written(1, writeQueue.completeWrite(), bytes);
+            }
+        } catch (IOException ex) {
+            if (connected) {
+                ex.printStackTrace();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            writing = false;
+            writeQueue.close();
+            // a queue closed for a slow consumer or a finished connection: the socket goes with the writer
+            closeQuietly();
+        }
+    }
+
+    private static int write(ByteBuffer buffer, OutputStream out, byte[] staging) throws IOException {
+        int bytes = buffer.remaining();
+        if (buffer.hasArray()) {
+            out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), bytes);
+            buffer.position(buffer.limit());
+        } else {
+            // read-only shared bodies are copied out through the staging array
+            while (buffer.hasRemaining()) {
+                int chunk = Math.min(buffer.remaining(), staging.length);
+                buffer.get(staging, 0, chunk);
+                out.write(staging, 0, chunk);
+            }
+        }
+        return bytes;
+    }
+
     @Override
     public void close() throws IOException {
         connected = false;
+        writeQueue.close();
         sock.close();
     }
 
-    @Override
-    public void send(T msg) {
-    if (msg != null && out != null) {
-    synchronized (this) { 
+    private void closeQuietly() {
         try {
-            out.write(encdec.encode(msg));
-            out.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
+            close();
+        } catch (IOException ex) {
+            ex.printStackTrace();
         }
     }
+
+    @Override
+    public void send(T msg) {
+    if (msg != null) {
+        enqueue(new ByteBuffer[] { ByteBuffer.wrap(encdec.encode(msg)) }, false);
     }
     }
+
+    @Override
+    public void send(SharedFrame frame, int subscriptionId) {
+        enqueue(new ByteBuffer[] { frame.header(subscriptionId), frame.body() }, true);
+    }
+
+    private void enqueue(ByteBuffer[] frame, boolean droppable) {
+        if (writeQueue.offer(frame, droppable) == OutboundQueue.Offer.OVERFLOW) {
+            // the ERROR frame replaces the backlog; if the writer is stuck on the peer it would never get out.
+            // Either way the socket closes and the reader disconnects, the sender never waits for it
+            writeQueue.closeWithSlowConsumerError();
+            if (writing) {
+                closeQuietly();
+            }
+        }
+    }
+
+    @Override
+    public int pendingWrites() {
+        return writeQueue.size();
+    }
+
     public StompMessagingProtocol<T> getProtocol() {
     return protocol;
 }
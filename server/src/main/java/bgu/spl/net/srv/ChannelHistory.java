@@ -0,0 +1,169 @@
+package bgu.spl.net.srv;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * The last MESSAGE frames sent to one channel, in a ring capped both in frames and in bytes,
+ * kept in their encoded form with their sequence numbers. The ring starts small and grows up to its cap.
+ * The lock also orders the channel's fan-out and numbering, so a subscription that replays the history
+ * and joins under it sees every message exactly once.
+ */
+class ChannelHistory {
+
+    static final int MAX_MESSAGES = Integer.getInteger("stomp.history.messages", 256);
+    static final long MAX_BYTES = Long.getLong("stomp.history.bytes", 256L << 10); //256k
+    /**
+     * channels with a history per registry; past that, the one that went longest without a message is dropped
+     */
+    static final int MAX_CHANNELS = Integer.getInteger("stomp.history.channels", 10_000);
+    // roughly what a retained frame costs besides its bytes
+    private static final int ENTRY_OVERHEAD = 64;
+    private static final int INITIAL_CAPACITY = 8;
+    private static final AtomicInteger channelNumbers = new AtomicInteger();
+
+    /**
+     * unique among the channels of this process, so it stands in for the destination in message ids
+     */
+    final int number;
+    final ReentrantLock lock = new ReentrantLock();
+    // when the channel last had a message, in the order its registry counts them
+    volatile long lastPublish;
+    // dropped from its registry; set under the lock, after which nothing is numbered or retained here
+    boolean retired = false;
+    private SharedFrame[] ring;
+    private long[] sequences;
+    private final int maxMessages;
+    private final long maxBytes;
+    private long nextSequence;
+    private int oldest = 0;
+    private int count = 0;
+    private volatile long bytes = 0;
+
+    /**
+     * How a channel's messages are numbered: its number in message ids and its next sequence.
+     * Kept by the registry when it drops the channel's history, so the numbering goes on where it stopped.
+     */
+    static final class Numbering {
+        final int number;
+        final long nextSequence;
+
+        Numbering(int number, long nextSequence) {
+            this.number = number;
+            this.nextSequence = nextSequence;
+        }
+    }
+
+    ChannelHistory(long firstSequence) {
+        this(MAX_MESSAGES, MAX_BYTES, firstSequence);
+    }
+
+    ChannelHistory(Numbering numbering) {
+        this(MAX_MESSAGES, MAX_BYTES, numbering.number, numbering.nextSequence);
+    }
+
+    ChannelHistory(int maxMessages, long maxBytes, long firstSequence) {
+        this(maxMessages, maxBytes, channelNumbers.getAndIncrement(), firstSequence);
+    }
+
+    private ChannelHistory(int maxMessages, long maxBytes, int number, long firstSequence) {
+        this.number = number;
+        this.maxMessages = Math.max(0, maxMessages);
+        this.ring = new SharedFrame[Math.min(this.maxMessages, INITIAL_CAPACITY)];
+        this.sequences = new long[ring.length];
+        this.maxBytes = maxBytes;
+        this.nextSequence = firstSequence;
+    }
+
+    /**
+     * @return the channel's next message sequence number: from 0 (or where its journal left off),
+     * without gaps; call with the lock held
+     */
+    long nextSequence() {
+        return nextSequence++;
+    }
+
+    /**
+     * @return where the numbering stands, for a history that replaces this one; call with the lock held
+     */
+    Numbering numbering() {
+        return new Numbering(number, nextSequence);
+    }
+
+    /**
+     * retain a frame, evicting the oldest ones over the caps; call with the lock held
+     */
+    void append(long sequence, SharedFrame frame) {
+        long size = sizeOf(frame);
+        if (maxMessages == 0 || size > maxBytes) {
+            return;
+        }
+        long retained = bytes;
+        while (count == maxMessages || count > 0 && retained + size > maxBytes) {
+            retained -= sizeOf(ring[oldest]);
+            ring[oldest] = null;
+            oldest = (oldest + 1) % ring.length;
+            count--;
+        }
+        if (count == ring.length) {
+            grow();
+        }
+        ring[(oldest + count) % ring.length] = frame;
+        sequences[(oldest + count) % ring.length] = sequence;
+        count++;
+        bytes = retained + size;
+    }
+
+    private void grow() {
+        int capacity = Math.min(maxMessages, ring.length * 2);
+        SharedFrame[] frames = new SharedFrame[capacity];
+        long[] numbers = new long[capacity];
+        for (int i = 0; i < count; i++) {
+            frames[i] = ring[(oldest + i) % ring.length];
+            numbers[i] = sequences[(oldest + i) % ring.length];
+        }
+        ring = frames;
+        sequences = numbers;
+        oldest = 0;
+    }
+
+    /**
+     * the frames the replay asks for, oldest first; call with the lock held
+     */
+    void replay(HistoryReplay replay, Consumer<SharedFrame> to) {
+        int from = count;
+        if (replay.last() > 0) {
+            from = Math.max(0, count - replay.last());
+        } else if (replay.afterSequence() >= 0) {
+            from = indexAfter(replay.afterSequence());
+        }
+        for (int i = from; i < count; i++) {
+            to.accept(ring[(oldest + i) % ring.length]);
+        }
+    }
+
+    private int indexAfter(long sequence) {
+        // the newest ones are the likely ask
+        int i = count;
+        while (i > 0 && sequences[(oldest + i - 1) % ring.length] > sequence) {
+            i--;
+        }
+        return i;
+    }
+
+    int size() {
+        return count;
+    }
+
+    /**
+     * @return the bytes retained, readable without the lock
+     */
+    long bytes() {
+        return bytes;
+    }
+
+    private static long sizeOf(SharedFrame frame) {
+        return frame.bodySize() + ENTRY_OVERHEAD;
+    }
+}
@@ -19,4 +19,20 @@ public interface ConnectionHandler<T> extends Closeable {
 
     void send(T msg);
 
+    /**
+     * sends a channel frame to this connection under the given subscription.
+     * handlers that write bytes directly should override this to reuse the shared body.
+     */
+    @SuppressWarnings("unchecked")
+    default void send(SharedFrame frame, int subscriptionId) {
+        send((T) frame.toString(subscriptionId));
+    }
+
+    /**
+     * @return frames accepted by send but not yet written to the connection
+     */
+    default int pendingWrites() {
+        return 0;
+    }
+
 }
@@ -10,5 +10,19 @@ public interface Connections<T> {
 
     void subscribe(String channel, int connectionId, int subscriptionId);
 
+    /**
+     * subscribe, first delivering the channel's retained messages the replay asks for;
+     * nothing sent to the channel meanwhile is missed or delivered twice.
+     * A wildcard pattern (see {@link DestinationTrie}) has no history of its own and only joins the live traffic.
+     */
+    default void subscribe(String channel, int connectionId, int subscriptionId, HistoryReplay replay) {
+        subscribe(channel, connectionId, subscriptionId);
+    }
+
     void unsubscribe(String channel, int connectionId);
+
+    /**
+     * leave every channel the connection joined, keeping the connection itself
+     */
+    void unsubscribeAll(int connectionId);
 }
@@ -1,13 +1,43 @@
 package bgu.spl.net.srv;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 import bgu.spl.net.impl.data.Database;
+import bgu.spl.net.srv.cluster.ClusterNode;
+import bgu.spl.net.srv.journal.DestinationJournal;
+import bgu.spl.net.srv.journal.MessageJournal;
+import bgu.spl.net.srv.metrics.ServerMetrics;
 
 public class ConnectionsImpl<T> implements Connections<T> {
+    /**
+     * the first part of every message-id this process stamps: -Dstomp.node.id (or a random one) and the start time,
+     * so ids stay unique across nodes and restarts while the sequences go on from the journal
+     */
+    public static final String NODE_ID = System.getProperty("stomp.node.id",
+            Long.toString(new SecureRandom().nextLong() >>> 1, 36)) + "-" + Long.toString(System.currentTimeMillis(), 36);
     private final ConcurrentHashMap<Integer, ConnectionHandler<T>> activeConnections = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<String, ConcurrentLinkedQueue<Subscriber>> channelSubscribers = new ConcurrentHashMap<>();
+    // by destination pattern, so a send reaches exact and wildcard subscribers in one walk
+    private final DestinationTrie<Subscriber> channelSubscribers = new DestinationTrie<>();
+    // reverse index: the channels each connection joined, so cleanup never scans unrelated channels
+    private final ConcurrentHashMap<Integer, ConnectionSubscriptions> subscriptionsByConnection = new ConcurrentHashMap<>();
+    // outlives the channel's subscribers, so a later subscriber can still catch up, up to maxHistories channels
+    private final ConcurrentHashMap<String, ChannelHistory> histories = new ConcurrentHashMap<>();
+    // the numbering of the channels dropped from histories, a few bytes each, so their sequences go on
+    private final ConcurrentHashMap<String, ChannelHistory.Numbering> retiredNumberings = new ConcurrentHashMap<>();
+    private final int maxHistories;
+    private final AtomicLong publishes = new AtomicLong();
+    // null unless -Dstomp.journal.dir is set
+    private final MessageJournal journal;
+    // null unless -Dstomp.cluster.nodes is set
+    private final ClusterNode cluster;
     private static class Subscriber {
     private final int connectionId; 
     private final int subscriptionId; 
@@ -17,6 +47,66 @@ public class ConnectionsImpl<T> implements Connections<T> {
             this.subscriptionId = subscriptionId;
         }
     }
+
+    /**
+     * The channels (and subscription id in each) held by one connection.
+     * Guarded by its own lock; once closed no subscription can be added to it.
+     */
+    private static class ConnectionSubscriptions {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Map<String, Integer> channels = new HashMap<>();
+        private boolean closed = false;
+    }
+
+    public ConnectionsImpl() {
+        this(MessageJournal.configured(), ClusterNode.configured());
+    }
+
+    /**
+     * @param journal where channel messages are also written, and the histories are warmed from; may be null
+     */
+    public ConnectionsImpl(MessageJournal journal) {
+        this(journal, null);
+    }
+
+    /**
+     * @param journal where channel messages are also written, and the histories are warmed from; may be null
+     * @param cluster the node, not started yet, to share subscriptions, messages and logins with the others through;
+     *                may be null
+     */
+    public ConnectionsImpl(MessageJournal journal, ClusterNode cluster) {
+        this(journal, cluster, ChannelHistory.MAX_CHANNELS);
+    }
+
+    ConnectionsImpl(MessageJournal journal, ClusterNode cluster, int maxHistories) {
+        this.journal = journal;
+        this.cluster = cluster;
+        this.maxHistories = maxHistories;
+        if (journal != null) {
+            for (Map.Entry<String, DestinationJournal> destination : journal.journals().entrySet()) {
+                ChannelHistory history = new ChannelHistory(destination.getValue().nextSequence());
+                destination.getValue().readLast(ChannelHistory.MAX_MESSAGES, (sequence, timestamp, frame) ->
+                        history.append(sequence, new SharedFrame(new String(frame, StandardCharsets.UTF_8))));
+                histories.put(destination.getKey(), history);
+            }
+            evictIdlest();
+        }
+        if (cluster != null) {
+            startCluster();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void startCluster() {
+        Database database = Database.getInstance();
+        try {
+            cluster.start((channel, frame) -> publish(channel, (T) frame, false), database::addRegisteredUser);
+            database.useLoginClaims(cluster);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not start cluster node " + cluster.self(), e);
+        }
+    }
+
     @Override
     public boolean send(int connectionId, T msg) {
         ConnectionHandler<T> handler = activeConnections.get(connectionId);
@@ -31,42 +121,279 @@ public class ConnectionsImpl<T> implements Connections<T> {
 
     @Override
     public void send(String channel, T msg) {
-        ConcurrentLinkedQueue<Subscriber> subscribers = channelSubscribers.get(channel);
-    if (subscribers != null) {
-        for (Subscriber sub : subscribers) {
-            String frame = (String) msg;
-            int firstNewLine = frame.indexOf("\n");
-            String command = frame.substring(0, firstNewLine);
-            String rest = frame.substring(firstNewLine);
-            String modifiedFrame = command + "\nsubscription:" + sub.subscriptionId + rest;
-            send(sub.connectionId, (T) modifiedFrame);
+        publish(channel, msg, cluster != null);
+    }
+
+    // numbered and fanned out here, and forwarded to the other nodes if it was sent here
+    private void publish(String channel, T msg, boolean forward) {
+        while (true) {
+            ChannelHistory history = historyOf(channel);
+            // handlers only queue the frame, so holding the lock over the fan-out is short
+            history.lock.lock();
+            try {
+                if (history.retired) {
+                    continue; // dropped meanwhile, the channel gets a new one
+                }
+                history.lastPublish = publishes.incrementAndGet();
+                publishLocked(channel, history, msg, forward);
+                return;
+            } finally {
+                history.lock.unlock();
+            }
+        }
+    }
+
+    // with the history's lock held
+    private void publishLocked(String channel, ChannelHistory history, T msg, boolean forward) {
+        long sequence = history.nextSequence();
+        SharedFrame frame = new SharedFrame((String) msg,
+                "\nmessage-id:" + NODE_ID + "." + history.number + "." + sequence + "\nsequence:" + sequence);
+        history.append(sequence, frame);
+        if (journal != null) {
+            journal(channel, sequence, frame);
+        }
+        channelSubscribers.forEachMatch(channel, sub -> {
+            ConnectionHandler<T> handler = activeConnections.get(sub.connectionId);
+            if (handler != null) {
+                handler.send(frame, sub.subscriptionId);
+            }
+        });
+        if (forward) {
+            // still under the lock, so the other nodes get the channel's messages in this node's order
+            cluster.forward(channel, (String) msg);
+        }
+    }
+
+    private ChannelHistory historyOf(String channel) {
+        ChannelHistory history = histories.get(channel);
+        if (history == null) {
+            history = histories.computeIfAbsent(channel, c -> {
+                ChannelHistory.Numbering numbering = retiredNumberings.remove(c);
+                ChannelHistory created = numbering != null ? new ChannelHistory(numbering) : new ChannelHistory(firstSequence(c));
+                created.lastPublish = publishes.incrementAndGet();
+                return created;
+            });
+            if (histories.size() > maxHistories) {
+                evictIdlest();
+            }
+        }
+        return history;
+    }
+
+    // one scan per channel over the cap; a channel is new far less often than it gets a message
+    private void evictIdlest() {
+        while (histories.size() > maxHistories) {
+            Map.Entry<String, ChannelHistory> idlest = null;
+            for (Map.Entry<String, ChannelHistory> channel : histories.entrySet()) {
+                if (idlest == null || channel.getValue().lastPublish < idlest.getValue().lastPublish) {
+                    idlest = channel;
+                }
+            }
+            if (idlest == null) {
+                return;
+            }
+            ChannelHistory history = idlest.getValue();
+            history.lock.lock();
+            try {
+                if (history.retired) {
+                    continue; // another thread dropped it first
+                }
+                history.retired = true;
+                // only the frames go; recorded before the removal, so a new history finds it
+                retiredNumberings.put(idlest.getKey(), history.numbering());
+                histories.remove(idlest.getKey(), history);
+            } finally {
+                history.lock.unlock();
+            }
+            ServerMetrics.getInstance().historyEvicted();
+        }
+    }
+
+    // a channel first seen since the start goes on from its journal, if it has one
+    private long firstSequence(String channel) {
+        if (journal == null) {
+            return 0;
+        }
+        try {
+            return journal.journal(channel).nextSequence();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return 0;
         }
     }
+
+    private void journal(String channel, long sequence, SharedFrame frame) {
+        try {
+            journal.journal(channel).append(sequence, frame.encoded());
+        } catch (IOException e) {
+            // the live subscribers still get the message
+            e.printStackTrace();
+        }
     }
 
     @Override
     public void disconnect(int connectionId) {
-        activeConnections.remove(connectionId);
+        if (activeConnections.remove(connectionId) != null) {
+            ServerMetrics.getInstance().connectionClosed();
+        }
 
-        for (ConcurrentLinkedQueue<Subscriber> subscribers : channelSubscribers.values()) {
-            subscribers.removeIf(sub -> sub.connectionId == connectionId);
+        ConnectionSubscriptions subscriptions = subscriptionsByConnection.remove(connectionId);
+        if (subscriptions != null) {
+            subscriptions.lock.lock();
+            try {
+                subscriptions.closed = true;
+                for (String channel : subscriptions.channels.keySet()) {
+                    removeSubscriber(channel, connectionId);
+                }
+                subscriptions.channels.clear();
+            } finally {
+                subscriptions.lock.unlock();
+            }
         }
         Database.getInstance().logout(connectionId);
     }
 
     public void addConnection(int connectionId, ConnectionHandler<T> handler) {
+        subscriptionsByConnection.put(connectionId, new ConnectionSubscriptions());
         activeConnections.put(connectionId, handler);
+        ServerMetrics.getInstance().connectionOpened();
     }
     @Override
     public void subscribe(String channel, int connectionId, int subscriptionId) {
-        channelSubscribers.computeIfAbsent(channel, k -> new ConcurrentLinkedQueue<>())
-                          .add(new Subscriber(connectionId, subscriptionId));
+        subscribe(channel, connectionId, subscriptionId, HistoryReplay.NONE);
+    }
+
+    @Override
+    public void subscribe(String channel, int connectionId, int subscriptionId, HistoryReplay replay) {
+        ConnectionSubscriptions subscriptions = subscriptionsByConnection.get(connectionId);
+        if (subscriptions == null) {
+            return; // unknown or already disconnected
+        }
+        subscriptions.lock.lock();
+        try {
+            if (subscriptions.closed) {
+                return;
+            }
+            subscriptions.channels.put(channel, subscriptionId);
+            Subscriber subscriber = new Subscriber(connectionId, subscriptionId);
+            while (true) {
+                ChannelHistory history = replay.isNone() ? null : histories.get(channel);
+                if (history == null) {
+                    addSubscriber(channel, subscriber);
+                    return;
+                }
+                // no send to the channel can come between the replay and joining the live traffic
+                history.lock.lock();
+                try {
+                    if (history.retired) {
+                        continue;
+                    }
+                    ConnectionHandler<T> handler = activeConnections.get(connectionId);
+                    if (handler != null) {
+                        history.replay(replay, frame -> handler.send(frame, subscriptionId));
+                    }
+                    addSubscriber(channel, subscriber);
+                    return;
+                } finally {
+                    history.lock.unlock();
+                }
+            }
+        } finally {
+            subscriptions.lock.unlock();
+        }
     }
     @Override
     public void unsubscribe(String channel, int connectionId) {
-        ConcurrentLinkedQueue<Subscriber> subscribers = channelSubscribers.get(channel);
-        if (subscribers != null) {
-            subscribers.removeIf(sub -> sub.connectionId == connectionId);
+        ConnectionSubscriptions subscriptions = subscriptionsByConnection.get(connectionId);
+        if (subscriptions == null) {
+            return;
+        }
+        subscriptions.lock.lock();
+        try {
+            if (subscriptions.channels.remove(channel) != null) {
+                removeSubscriber(channel, connectionId);
+            }
+        } finally {
+            subscriptions.lock.unlock();
+        }
+    }
+
+    @Override
+    public void unsubscribeAll(int connectionId) {
+        ConnectionSubscriptions subscriptions = subscriptionsByConnection.get(connectionId);
+        if (subscriptions == null) {
+            return;
+        }
+        subscriptions.lock.lock();
+        try {
+            for (String channel : subscriptions.channels.keySet()) {
+                removeSubscriber(channel, connectionId);
+            }
+            subscriptions.channels.clear();
+        } finally {
+            subscriptions.lock.unlock();
+        }
+    }
+
+    private void addSubscriber(String channel, Subscriber subscriber) {
+        if (channelSubscribers.add(channel, subscriber.connectionId, subscriber) && cluster != null) {
+            cluster.subscribed(channel);
+        }
+    }
+
+    /**
+     * @return the subscribers of exactly this channel or pattern
+     */
+    public int subscriberCount(String channel) {
+        return channelSubscribers.count(channel);
+    }
+
+    /**
+     * @return the subscriber count of every channel and pattern, for the metrics gauges
+     */
+    public Map<String, Integer> subscriberCounts() {
+        return channelSubscribers.counts();
+    }
+
+    /**
+     * @return the channels with a history, for the metrics gauges
+     */
+    public int historyCount() {
+        return histories.size();
+    }
+
+    /**
+     * @return the bytes retained in the history of every channel that has any, for the metrics gauges
+     */
+    public Map<String, Long> historyBytes() {
+        Map<String, Long> bytes = new HashMap<>();
+        for (Map.Entry<String, ChannelHistory> channel : histories.entrySet()) {
+            long retained = channel.getValue().bytes();
+            if (retained > 0) {
+                bytes.put(channel.getKey(), retained);
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the outgoing frames still queued on every connection that has any
+     */
+    public Map<Integer, Integer> writeBacklogs() {
+        Map<Integer, Integer> backlogs = new HashMap<>();
+        for (Map.Entry<Integer, ConnectionHandler<T>> connection : activeConnections.entrySet()) {
+            int pending = connection.getValue().pendingWrites();
+            if (pending > 0) {
+                backlogs.put(connection.getKey(), pending);
+            }
+        }
+        return backlogs;
+    }
+
+    private void removeSubscriber(String channel, int connectionId) {
+        // the trie prunes the branch with its last subscriber, atomically with concurrent subscribes
+        if (channelSubscribers.remove(channel, connectionId) && cluster != null) {
+            cluster.unsubscribed(channel);
         }
     }
 
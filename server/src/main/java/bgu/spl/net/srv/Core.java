@@ -0,0 +1,484 @@
+package bgu.spl.net.srv;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import bgu.spl.net.impl.data.Database;
+import bgu.spl.net.srv.metrics.ServerMetrics;
+
+/**
+ * One core of the thread-per-core server: a thread with its own selector that owns a fixed share of
+ * the connections and of the destinations, and touches nothing else.
+ * <p>
+ * A connection is read, processed and written on its core only; the core is also its {@link Connections}.
+ * A destination's owner core, by hash, numbers its messages, keeps its history and knows which cores have
+ * subscribers to it. A SEND goes to the owner, which passes the frame to each interested core, which hands
+ * it to its own subscribers. Wildcard patterns are registered with every owner and have no history.
+ * <p>
+ * Cores only talk through {@link SpscRing}s, one per pair of cores, carrying tasks to run on the receiving
+ * core. A task for a full ring waits in the sending core's own backlog, so no core ever blocks on another.
+ */
+final class Core<T> implements Runnable, Connections<T> {
+
+    private static final int TASKS_PER_RING = 256;
+    private static final int READ_BUFFER_SIZE = 1 << 13; //8k
+    private static final int MAX_GATHERED_BUFFERS = 128;
+
+    private final int index;
+    private List<Core<T>> cores;
+    private final Selector selector;
+    // inbound.get(j) carries the tasks core j sends here; the last one is the acceptor's
+    private final List<SpscRing<Runnable>> inbound;
+    // per target core, what did not fit its ring yet; touched by this core only
+    private final List<ArrayDeque<Runnable>> backlog;
+    private volatile boolean sleeping = false;
+    private volatile boolean closing = false;
+    private volatile Thread thread;
+
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    private final ByteBuffer[] gathered = new ByteBuffer[MAX_GATHERED_BUFFERS];
+    private final List<CoreConnectionHandler<T>> dirty = new ArrayList<>();
+
+    // the connections of this core, and the destinations each one subscribed to with the subscription id
+    private final Map<Integer, CoreConnectionHandler<T>> handlers = new HashMap<>();
+    private final Map<Integer, Map<String, Integer>> subscriptions = new HashMap<>();
+    private final DestinationTrie<Subscriber> subscribers = new DestinationTrie<>();
+    // local subscriptions per destination or pattern, to tell the owners when the first comes and the last goes
+    private final Map<String, Integer> localInterest = new HashMap<>();
+
+    // the destinations this core owns, with a history for up to maxHistories of them
+    private final Map<String, ChannelHistory> histories = new HashMap<>();
+    // the numbering of the destinations dropped from histories, a few bytes each, so their sequences go on
+    private final Map<String, ChannelHistory.Numbering> retiredNumberings = new HashMap<>();
+    private final int maxHistories;
+    private long publishes = 0;
+    private final DestinationTrie<Integer> interestedCores = new DestinationTrie<>();
+    private final boolean[] interested;
+
+    private static final class Subscriber {
+        private final int connectionId;
+        private final int subscriptionId;
+
+        Subscriber(int connectionId, int subscriptionId) {
+            this.connectionId = connectionId;
+            this.subscriptionId = subscriptionId;
+        }
+    }
+
+    Core(int index, int cores, int ringSize) throws IOException {
+        this(index, cores, ringSize, ChannelHistory.MAX_CHANNELS);
+    }
+
+    Core(int index, int cores, int ringSize, int maxHistories) throws IOException {
+        this.index = index;
+        this.maxHistories = maxHistories;
+        this.selector = Selector.open();
+        this.inbound = new ArrayList<>(cores + 1);
+        for (int i = 0; i <= cores; i++) {
+            inbound.add(new SpscRing<>(ringSize));
+        }
+        this.backlog = new ArrayList<>(cores);
+        for (int i = 0; i < cores; i++) {
+            backlog.add(new ArrayDeque<>());
+        }
+        this.interested = new boolean[cores];
+    }
+
+    void connect(List<Core<T>> cores) {
+        this.cores = cores;
+    }
+
+    private int ownerOf(String destination) {
+        return Math.floorMod(destination.hashCode(), cores.size());
+    }
+
+    static int coreOf(int connectionId, int cores) {
+        // ids go negative once the acceptor's counter wraps around
+        return Math.floorMod(connectionId, cores);
+    }
+
+    /**
+     * hand a task to another core, from this core's thread
+     */
+    private void submit(int core, Runnable task) {
+        if (core == index) {
+            task.run();
+            return;
+        }
+        ArrayDeque<Runnable> waiting = backlog.get(core);
+        if (!waiting.isEmpty() || !cores.get(core).inbound.get(index).offer(task)) {
+            waiting.add(task);
+            return;
+        }
+        cores.get(core).wake();
+    }
+
+    /**
+     * hand a task to this core from the acceptor thread, the only other producer of its ring
+     */
+    void submitFromAcceptor(Runnable task) {
+        SpscRing<Runnable> ring = inbound.get(inbound.size() - 1);
+        while (!ring.offer(task)) {
+            Thread.yield();
+        }
+        wake();
+    }
+
+    private void wake() {
+        // after the volatile store that published the task; pairs with the recheck before select()
+        if (sleeping) {
+            selector.wakeup();
+        }
+    }
+
+    @Override
+    public void run() {
+        thread = Thread.currentThread();
+        try {
+            while (!closing) {
+                boolean busy = runTasks() | drainBacklog();
+                writeDirty();
+                if (busy) {
+                    selector.selectNow();
+                } else {
+                    sleeping = true;
+                    if (hasTasks()) {
+                        selector.selectNow();
+                    } else {
+                        selector.select(hasBacklog() ? 1 : 0);
+                    }
+                    sleeping = false;
+                }
+                for (SelectionKey key : selector.selectedKeys()) {
+                    handle(key);
+                }
+                selector.selectedKeys().clear();
+                writeDirty();
+            }
+        } catch (ClosedSelectorException ex) {
+            //do nothing - the server was closed
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        } finally {
+            closeSelector();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void handle(SelectionKey key) {
+        CoreConnectionHandler<T> handler = (CoreConnectionHandler<T>) key.attachment();
+        if (key.isValid() && key.isReadable()) {
+            handler.read(readBuffer);
+        }
+        if (key.isValid() && key.isWritable()) {
+            handler.write();
+        }
+    }
+
+    private boolean runTasks() {
+        boolean ran = false;
+        for (SpscRing<Runnable> ring : inbound) {
+            Runnable task;
+            for (int i = 0; i < TASKS_PER_RING && (task = ring.poll()) != null; i++) {
+                task.run();
+                ran = true;
+            }
+        }
+        return ran;
+    }
+
+    private boolean hasTasks() {
+        for (SpscRing<Runnable> ring : inbound) {
+            if (!ring.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean drainBacklog() {
+        boolean moved = false;
+        for (int core = 0; core < backlog.size(); core++) {
+            ArrayDeque<Runnable> waiting = backlog.get(core);
+            boolean any = false;
+            while (!waiting.isEmpty() && cores.get(core).inbound.get(index).offer(waiting.peek())) {
+                waiting.poll();
+                any = true;
+            }
+            if (any) {
+                cores.get(core).wake();
+                moved = true;
+            }
+        }
+        return moved;
+    }
+
+    private boolean hasBacklog() {
+        for (ArrayDeque<Runnable> waiting : backlog) {
+            if (!waiting.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void markDirty(CoreConnectionHandler<T> handler) {
+        if (handler.markDirty()) {
+            dirty.add(handler);
+        }
+    }
+
+    private void writeDirty() {
+        // a write may close a connection, whose disconnect may mark others
+        for (int i = 0; i < dirty.size(); i++) {
+            dirty.get(i).write();
+        }
+        dirty.clear();
+    }
+
+    ByteBuffer[] gatherBuffers() {
+        return gathered;
+    }
+
+    SelectionKey keyOf(SocketChannel chan) {
+        return chan.keyFor(selector);
+    }
+
+    /**
+     * take on a freshly accepted connection, on this core's thread
+     */
+    void register(SocketChannel chan, CoreConnectionHandler<T> handler) {
+        try {
+            chan.register(selector, SelectionKey.OP_READ, handler);
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            handler.close();
+            return;
+        }
+        handlers.put(handler.connectionId, handler);
+        subscriptions.put(handler.connectionId, new HashMap<>());
+        ServerMetrics.getInstance().connectionOpened();
+        handler.start();
+    }
+
+    @Override
+    public boolean send(int connectionId, T msg) {
+        CoreConnectionHandler<T> handler = handlers.get(connectionId);
+        if (handler != null) {
+            handler.send(msg);
+            return true;
+        }
+        int core = coreOf(connectionId, cores.size());
+        if (core == index) {
+            return false;
+        }
+        submit(core, () -> cores.get(core).send(connectionId, msg));
+        return true;
+    }
+
+    @Override
+    public void send(String channel, T msg) {
+        int owner = ownerOf(channel);
+        submit(owner, () -> cores.get(owner).publish(channel, msg));
+    }
+
+    /**
+     * number and retain a message to a destination this core owns, then pass it to the interested cores
+     */
+    private void publish(String channel, T msg) {
+        ChannelHistory history = histories.get(channel);
+        if (history == null) {
+            ChannelHistory.Numbering numbering = retiredNumberings.remove(channel);
+            history = numbering != null ? new ChannelHistory(numbering) : new ChannelHistory(0);
+            histories.put(channel, history);
+        }
+        history.lastPublish = ++publishes;
+        if (histories.size() > maxHistories) {
+            evictIdlest();
+        }
+        long sequence = history.nextSequence();
+        SharedFrame frame = new SharedFrame((String) msg,
+                "\nmessage-id:" + ConnectionsImpl.NODE_ID + "." + history.number + "." + sequence + "\nsequence:" + sequence);
+        history.append(sequence, frame);
+        interestedCores.forEachMatch(channel, core -> interested[core] = true);
+        for (Core<T> core : cores) {
+            if (interested[core.index]) {
+                interested[core.index] = false;
+                submit(core.index, () -> core.deliver(channel, frame));
+            }
+        }
+    }
+
+    // one scan per destination over the cap; a destination is new far less often than it gets a message
+    private void evictIdlest() {
+        Map.Entry<String, ChannelHistory> idlest = null;
+        for (Map.Entry<String, ChannelHistory> channel : histories.entrySet()) {
+            if (idlest == null || channel.getValue().lastPublish < idlest.getValue().lastPublish) {
+                idlest = channel;
+            }
+        }
+        // only the frames go, the destination goes on numbering where it stopped
+        retiredNumberings.put(idlest.getKey(), idlest.getValue().numbering());
+        histories.remove(idlest.getKey());
+        ServerMetrics.getInstance().historyEvicted();
+    }
+
+    /**
+     * @return the destinations owned here that have a history
+     */
+    int historyCount() {
+        return histories.size();
+    }
+
+    private void deliver(String channel, SharedFrame frame) {
+        subscribers.forEachMatch(channel, sub -> {
+            CoreConnectionHandler<T> handler = handlers.get(sub.connectionId);
+            if (handler != null) {
+                handler.send(frame, sub.subscriptionId);
+            }
+        });
+    }
+
+    @Override
+    public void subscribe(String channel, int connectionId, int subscriptionId) {
+        subscribe(channel, connectionId, subscriptionId, HistoryReplay.NONE);
+    }
+
+    @Override
+    public void subscribe(String channel, int connectionId, int subscriptionId, HistoryReplay replay) {
+        Map<String, Integer> channels = subscriptions.get(connectionId);
+        if (channels == null) {
+            return;
+        }
+        if (channels.put(channel, subscriptionId) == null && localInterest.merge(channel, 1, Integer::sum) == 1
+                && DestinationTrie.isPattern(channel)) {
+            for (Core<T> owner : cores) {
+                int core = index;
+                submit(owner.index, () -> owner.interestedCores.add(channel, core, core));
+            }
+        }
+        if (DestinationTrie.isPattern(channel)) {
+            subscribers.add(channel, connectionId, new Subscriber(connectionId, subscriptionId));
+            return;
+        }
+        // joins the live traffic when the owner answers, right after the replayed frames
+        CoreConnectionHandler<T> handler = handlers.get(connectionId);
+        handler.joinStarted();
+        int owner = ownerOf(channel);
+        int core = index;
+        submit(owner, () -> cores.get(owner).join(channel, core, handler, subscriptionId, replay));
+    }
+
+    /**
+     * on the owner: register the core's interest and answer with the retained frames the replay asks for
+     */
+    private void join(String channel, int core, CoreConnectionHandler<T> handler, int subscriptionId,
+                      HistoryReplay replay) {
+        interestedCores.add(channel, core, core);
+        List<SharedFrame> frames = new ArrayList<>();
+        ChannelHistory history = histories.get(channel);
+        if (history != null && !replay.isNone()) {
+            history.replay(replay, frames::add);
+        }
+        submit(core, () -> cores.get(core).joined(channel, handler, subscriptionId, frames));
+    }
+
+    private void joined(String channel, CoreConnectionHandler<T> handler, int subscriptionId, List<SharedFrame> frames) {
+        int connectionId = handler.connectionId;
+        Map<String, Integer> channels = subscriptions.get(connectionId);
+        // it may have unsubscribed or disconnected meanwhile; what it was sent since still goes out
+        if (channels != null && Integer.valueOf(subscriptionId).equals(channels.get(channel))) {
+            for (SharedFrame frame : frames) {
+                handler.replay(frame, subscriptionId);
+            }
+            subscribers.add(channel, connectionId, new Subscriber(connectionId, subscriptionId));
+        }
+        handler.joinDone();
+    }
+
+    @Override
+    public void unsubscribe(String channel, int connectionId) {
+        Map<String, Integer> channels = subscriptions.get(connectionId);
+        if (channels != null && channels.remove(channel) != null) {
+            removeSubscriber(channel, connectionId);
+        }
+    }
+
+    @Override
+    public void unsubscribeAll(int connectionId) {
+        Map<String, Integer> channels = subscriptions.get(connectionId);
+        if (channels == null) {
+            return;
+        }
+        for (String channel : channels.keySet()) {
+            removeSubscriber(channel, connectionId);
+        }
+        channels.clear();
+    }
+
+    private void removeSubscriber(String channel, int connectionId) {
+        subscribers.remove(channel, connectionId);
+        if (localInterest.computeIfPresent(channel, (c, count) -> count == 1 ? null : count - 1) != null) {
+            return;
+        }
+        int core = index;
+        if (DestinationTrie.isPattern(channel)) {
+            for (Core<T> owner : cores) {
+                submit(owner.index, () -> owner.interestedCores.remove(channel, core));
+            }
+        } else {
+            int owner = ownerOf(channel);
+            submit(owner, () -> cores.get(owner).interestedCores.remove(channel, core));
+        }
+    }
+
+    @Override
+    public void disconnect(int connectionId) {
+        if (handlers.remove(connectionId) == null) {
+            return;
+        }
+        ServerMetrics.getInstance().connectionClosed();
+        unsubscribeAll(connectionId);
+        subscriptions.remove(connectionId);
+        Database.getInstance().logout(connectionId);
+    }
+
+    /**
+     * @return the connections this core serves
+     */
+    int connectionCount() {
+        return handlers.size();
+    }
+
+    /**
+     * stop the loop; the selector is closed by its own thread so it is never closed mid-iteration
+     */
+    void close() {
+        closing = true;
+        if (thread == null) {
+            closeSelector();
+        } else {
+            selector.wakeup();
+        }
+    }
+
+    private void closeSelector() {
+        try {
+            for (SelectionKey key : selector.keys()) {
+                key.channel().close();
+            }
+            selector.close();
+        } catch (ClosedSelectorException | IOException ex) {
+            // already closed
+        }
+    }
+}
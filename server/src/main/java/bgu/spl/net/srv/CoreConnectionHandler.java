@@ -0,0 +1,314 @@
+package bgu.spl.net.srv;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import bgu.spl.net.api.MessageEncoderDecoder;
+import bgu.spl.net.api.StompMessagingProtocol;
+import bgu.spl.net.srv.metrics.ServerMetrics;
+
+/**
+ * A connection owned by one {@link Core}: it is read, processed and written only by that core's thread,
+ * so its write queue is a plain deque. Frames are queued by send and written by the core once per loop
+ * turn, as one gathering write of everything queued meanwhile.
+ * Frames over the OutboundQueue limits are handled by its overflow policy, as on the other servers.
+ */
+final class CoreConnectionHandler<T> implements ConnectionHandler<T> {
+
+    private static final int WRITE_BUDGET = Integer.getInteger("stomp.reactor.writeBudget", 1 << 16); //64k
+    private static final int MAX_GATHERED_BUFFERS = 128;
+    private static final ServerMetrics METRICS = ServerMetrics.getInstance();
+
+    private static final class Outbound {
+        private final ByteBuffer[] buffers;
+        private final long size;
+        // channel messages may be dropped, replies to the connection's own frames may not
+        private final boolean droppable;
+
+        Outbound(ByteBuffer[] buffers, boolean droppable) {
+            long size = 0;
+            for (ByteBuffer buffer : buffers) {
+                size += buffer.remaining();
+            }
+            this.buffers = buffers;
+            this.size = size;
+            this.droppable = droppable;
+        }
+
+        boolean started() {
+            return buffers[0].position() > 0;
+        }
+
+        boolean done() {
+            return !buffers[buffers.length - 1].hasRemaining();
+        }
+    }
+
+    private final MessageEncoderDecoder<T> encdec;
+    private final StompMessagingProtocol<T> protocol;
+    private final SocketChannel chan;
+    private final Core<T> core;
+    final int connectionId;
+    private final int maxFrames;
+    private final long maxBytes;
+    private final OutboundQueue.OverflowPolicy policy;
+    private final ArrayDeque<Outbound> writeQueue = new ArrayDeque<>();
+    private long queuedBytes = 0;
+    // frames sent while a subscription waits for its channel's owner, so its RECEIPT cannot overtake it
+    private ArrayDeque<Outbound> held = null;
+    private int pendingJoins = 0;
+    private boolean dirty = false;
+    private boolean writeInterest = false;
+    // an ERROR frame is queued for the slow consumer; nothing else is, and the next write closes it
+    private boolean slowConsumer = false;
+
+    CoreConnectionHandler(MessageEncoderDecoder<T> encdec, StompMessagingProtocol<T> protocol, SocketChannel chan,
+                          Core<T> core, int connectionId) {
+        this(encdec, protocol, chan, core, connectionId,
+                OutboundQueue.MAX_FRAMES, OutboundQueue.MAX_BYTES, OutboundQueue.POLICY);
+    }
+
+    CoreConnectionHandler(MessageEncoderDecoder<T> encdec, StompMessagingProtocol<T> protocol, SocketChannel chan,
+                          Core<T> core, int connectionId,
+                          int maxFrames, long maxBytes, OutboundQueue.OverflowPolicy policy) {
+        this.encdec = encdec;
+        this.protocol = protocol;
+        this.chan = chan;
+        this.core = core;
+        this.connectionId = connectionId;
+        this.maxFrames = maxFrames;
+        this.maxBytes = maxBytes;
+        this.policy = policy;
+    }
+
+    void start() {
+        protocol.start(connectionId, core);
+    }
+
+    /**
+     * decode and process whatever the peer sent, on the core's thread
+     */
+    void read(ByteBuffer buffer) {
+        buffer.clear();
+        boolean open;
+        try {
+            open = chan.read(buffer) != -1;
+        } catch (IOException ex) {
+            open = false;
+        }
+        if (!open) {
+            core.disconnect(connectionId);
+            close();
+            return;
+        }
+        buffer.flip();
+        for (T message : encdec.decode(buffer)) {
+            protocol.process(message);
+        }
+        if (protocol.shouldTerminate()) {
+            // the last replies go out first, then write() closes the channel
+            core.markDirty(this);
+        }
+    }
+
+    @Override
+    public void send(T msg) {
+        if (msg != null) {
+            enqueue(new Outbound(new ByteBuffer[] { ByteBuffer.wrap(encdec.encode(msg)) }, false));
+        }
+    }
+
+    @Override
+    public void send(SharedFrame frame, int subscriptionId) {
+        enqueue(new Outbound(new ByteBuffer[] { frame.header(subscriptionId), frame.body() }, true));
+    }
+
+    private void enqueue(Outbound frame) {
+        if (!chan.isOpen() || slowConsumer) {
+            return;
+        }
+        if (held != null) {
+            held.add(frame);
+            return;
+        }
+        if (!fits(frame) && (policy != OutboundQueue.OverflowPolicy.DROP_OLDEST || !evictFor(frame))) {
+            if (!frame.droppable || policy == OutboundQueue.OverflowPolicy.DISCONNECT) {
+                queueSlowConsumerError();
+            } else {
+                METRICS.slowConsumer(OutboundQueue.OverflowPolicy.DROP_NEWEST.name(), 1);
+            }
+            return;
+        }
+        writeQueue.add(frame);
+        queuedBytes += frame.size;
+        core.markDirty(this);
+    }
+
+    private boolean fits(Outbound frame) {
+        // a single frame above the byte limit still goes out on its own
+        return writeQueue.isEmpty() || writeQueue.size() < maxFrames && queuedBytes + frame.size <= maxBytes;
+    }
+
+    private boolean evictFor(Outbound frame) {
+        int evicted = 0;
+        for (Iterator<Outbound> oldestFirst = writeQueue.iterator(); !fits(frame) && oldestFirst.hasNext(); ) {
+            Outbound queued = oldestFirst.next();
+            if (queued.droppable && !queued.started()) {
+                oldestFirst.remove();
+                queuedBytes -= queued.size;
+                evicted++;
+            }
+        }
+        if (evicted > 0) {
+            METRICS.slowConsumer(OutboundQueue.OverflowPolicy.DROP_OLDEST.name(), evicted);
+        }
+        return fits(frame);
+    }
+
+    /**
+     * The peer does not read fast enough: whatever is not started gives way to an ERROR frame, which gets
+     * one write attempt before the connection is closed.
+     */
+    private void queueSlowConsumerError() {
+        for (Iterator<Outbound> it = writeQueue.iterator(); it.hasNext(); ) {
+            Outbound queued = it.next();
+            if (!queued.started()) {
+                it.remove();
+                queuedBytes -= queued.size;
+            }
+        }
+        Outbound error = new Outbound(new ByteBuffer[] { ByteBuffer.wrap(OutboundQueue.SLOW_CONSUMER_ERROR) }, false);
+        writeQueue.add(error);
+        queuedBytes += error.size;
+        slowConsumer = true;
+        METRICS.slowConsumer(OutboundQueue.OverflowPolicy.DISCONNECT.name(), 1);
+        core.markDirty(this);
+    }
+
+    /**
+     * a subscription was sent to its channel's owner; what the connection is sent meanwhile waits for it
+     */
+    void joinStarted() {
+        if (pendingJoins++ == 0) {
+            held = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * the owner answered; the replayed frames go out ahead of anything held since
+     */
+    void joinDone() {
+        if (--pendingJoins == 0) {
+            ArrayDeque<Outbound> frames = held;
+            held = null;
+            for (Outbound frame : frames) {
+                enqueue(frame);
+            }
+        }
+    }
+
+    /**
+     * send the replayed frames of a subscription, ahead of the held ones
+     */
+    void replay(SharedFrame frame, int subscriptionId) {
+        ArrayDeque<Outbound> frames = held;
+        held = null;
+        send(frame, subscriptionId);
+        held = frames;
+    }
+
+    /**
+     * write what was queued this turn in one gathering write, called by the core
+     */
+    void write() {
+        dirty = false;
+        if (!chan.isOpen()) {
+            return;
+        }
+        ByteBuffer[] gathered = core.gatherBuffers();
+        while (!writeQueue.isEmpty()) {
+            int buffers = 0;
+            long bytes = 0;
+            for (Outbound frame : writeQueue) {
+                if (buffers + frame.buffers.length > MAX_GATHERED_BUFFERS || buffers > 0 && bytes >= WRITE_BUDGET) {
+                    break;
+                }
+                for (ByteBuffer buffer : frame.buffers) {
+                    gathered[buffers++] = buffer;
+                    bytes += buffer.remaining();
+                }
+            }
+            long written;
+            try {
+                written = chan.write(gathered, 0, buffers);
+            } catch (IOException ex) {
+                core.disconnect(connectionId);
+                close();
+                return;
+            } finally {
+                Arrays.fill(gathered, 0, buffers, null);
+            }
+            int completed = 0;
+            while (!writeQueue.isEmpty() && writeQueue.peek().done()) {
+                queuedBytes -= writeQueue.poll().size;
+                completed++;
+            }
+            METRICS.written(1, completed, written);
+            if (written < bytes) {
+                break;
+            }
+        }
+        if (slowConsumer) {
+            // the ERROR frame had its one write attempt
+            core.disconnect(connectionId);
+            close();
+            return;
+        }
+        setWriteInterest(!writeQueue.isEmpty());
+        if (writeQueue.isEmpty() && protocol.shouldTerminate()) {
+            close();
+        }
+    }
+
+    private void setWriteInterest(boolean interested) {
+        if (interested != writeInterest) {
+            writeInterest = interested;
+            SelectionKey key = core.keyOf(chan);
+            if (key != null && key.isValid()) {
+                key.interestOps(interested ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+            }
+        }
+    }
+
+    /**
+     * @return whether the handler was not queued for a write yet this turn
+     */
+    boolean markDirty() {
+        if (dirty) {
+            return false;
+        }
+        dirty = true;
+        return true;
+    }
+
+    @Override
+    public int pendingWrites() {
+        return writeQueue.size();
+    }
+
+    @Override
+    public void close() {
+        writeQueue.clear();
+        queuedBytes = 0;
+        try {
+            chan.close();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+}
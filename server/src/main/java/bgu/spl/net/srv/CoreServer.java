@@ -0,0 +1,126 @@
+package bgu.spl.net.srv;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+import bgu.spl.net.api.MessageEncoderDecoder;
+import bgu.spl.net.api.StompMessagingProtocol;
+
+/**
+ * A shared-nothing server: one thread per {@link Core}, each owning the connections it was handed and the
+ * destinations that hash to it. The serving thread only accepts, handing connections to the cores in turn.
+ * There is no shared subscriber table, journal or cluster link in this mode, and the per-channel gauges
+ * are not tracked since each core's tables are read by that core only.
+ */
+public class CoreServer<T> implements Server<T> {
+
+    private static final int RING_SIZE = Integer.getInteger("stomp.cores.ringSize", 4096);
+
+    private final int numCores;
+    private final int port;
+    private final Supplier<StompMessagingProtocol<T>> protocolFactory;
+    private final Supplier<MessageEncoderDecoder<T>> readerFactory;
+    private volatile List<Core<T>> cores;
+    private volatile ServerSocketChannel serverSock;
+    private int nextConnection = 0;
+
+    public CoreServer(
+            int numCores,
+            int port,
+            Supplier<StompMessagingProtocol<T>> protocolFactory,
+            Supplier<MessageEncoderDecoder<T>> readerFactory) {
+
+        if (numCores < 1) {
+            throw new IllegalArgumentException("numCores must be positive");
+        }
+        this.numCores = numCores;
+        this.port = port;
+        this.protocolFactory = protocolFactory;
+        this.readerFactory = readerFactory;
+    }
+
+    @Override
+    public void serve() {
+        Thread[] threads = new Thread[numCores];
+        try (ServerSocketChannel serverSock = ServerSocketChannel.open()) {
+
+            this.serverSock = serverSock; //just to be able to close
+            List<Core<T>> cores = new ArrayList<>(numCores);
+            for (int i = 0; i < numCores; i++) {
+                cores.add(new Core<>(i, numCores, RING_SIZE));
+            }
+            for (Core<T> core : cores) {
+                core.connect(cores);
+            }
+            this.cores = cores;
+
+            serverSock.bind(new InetSocketAddress(port));
+            for (int i = 0; i < numCores; i++) {
+                threads[i] = new Thread(cores.get(i), "core-" + i);
+                threads[i].start();
+            }
+            System.out.println("Server started with " + numCores + " cores");
+
+            while (!Thread.currentThread().isInterrupted()) {
+                accept(serverSock.accept());
+            }
+
+        } catch (ClosedChannelException ex) {
+            //do nothing - server was requested to be closed
+        } catch (IOException ex) {
+            //this is an error
+            ex.printStackTrace();
+        }
+
+        closeCores();
+        for (Thread thread : threads) {
+            if (thread != null) {
+                try {
+                    thread.join();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        System.out.println("server closed!!!");
+    }
+
+    private void accept(SocketChannel clientChan) throws IOException {
+        clientChan.configureBlocking(false);
+        // the core is part of the id, so any core can tell where a connection lives
+        int connectionId = nextConnection++;
+        Core<T> owner = cores.get(Core.coreOf(connectionId, numCores));
+        CoreConnectionHandler<T> handler = new CoreConnectionHandler<>(
+                readerFactory.get(),
+                protocolFactory.get(),
+                clientChan,
+                owner,
+                connectionId);
+        owner.submitFromAcceptor(() -> owner.register(clientChan, handler));
+    }
+
+    private void closeCores() {
+        List<Core<T>> cores = this.cores;
+        if (cores == null) {
+            return;
+        }
+        for (Core<T> core : cores) {
+            core.close();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (serverSock != null) {
+            serverSock.close();
+        }
+        closeCores();
+    }
+
+}
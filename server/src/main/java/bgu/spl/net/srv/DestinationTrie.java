@@ -0,0 +1,184 @@
+package bgu.spl.net.srv;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Subscriptions by destination pattern, in a trie of '/' separated levels, such as /worldcup/groupE/Germany_Japan.
+ * A pattern level of {@value #ANY_LEVEL} matches exactly one level, a last level of {@value #ANY_LEVELS}
+ * matches the rest of the destination, zero or more levels. Anything else is matched literally.
+ * Routing only walks the destination's own levels and the '*' branches next to them, so its cost
+ * depends on the depth, not on how many subscriptions there are.
+ * Routing is lock-free; adding and removing take a lock, so an empty branch is never pruned under a new subscription.
+ *
+ * @param <S> the subscription, at most one per key (connection) and pattern
+ */
+public final class DestinationTrie<S> {
+
+    public static final String ANY_LEVEL = "*";
+    public static final String ANY_LEVELS = "**";
+
+    private static final class Node<S> {
+        private final ConcurrentHashMap<String, Node<S>> children = new ConcurrentHashMap<>();
+        private final ConcurrentHashMap<Integer, S> subscriptions = new ConcurrentHashMap<>();
+
+        boolean isEmpty() {
+            return children.isEmpty() && subscriptions.isEmpty();
+        }
+    }
+
+    private final Node<S> root = new Node<>();
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * @return whether the destination has a wildcard level
+     */
+    public static boolean isPattern(String destination) {
+        int start = 0;
+        while (true) {
+            int end = levelEnd(destination, start);
+            String level = destination.substring(start, end);
+            if (level.equals(ANY_LEVEL) || level.equals(ANY_LEVELS)) {
+                return true;
+            }
+            if (end == destination.length()) {
+                return false;
+            }
+            start = end + 1;
+        }
+    }
+
+    /**
+     * @return whether the pattern can be subscribed to: {@value #ANY_LEVELS} only as its last level
+     */
+    public static boolean isValidPattern(String pattern) {
+        int multi = pattern.indexOf(ANY_LEVELS);
+        return multi == -1 || multi + ANY_LEVELS.length() == pattern.length()
+                && (multi == 0 || pattern.charAt(multi - 1) == '/');
+    }
+
+    private static int levelEnd(String destination, int start) {
+        int end = destination.indexOf('/', start);
+        return end == -1 ? destination.length() : end;
+    }
+
+    /**
+     * add or replace the key's subscription to the pattern
+     * @return whether it was added, not replaced
+     */
+    public boolean add(String pattern, int key, S subscription) {
+        lock.lock();
+        try {
+            Node<S> node = root;
+            int start = 0;
+            while (true) {
+                int end = levelEnd(pattern, start);
+                node = node.children.computeIfAbsent(pattern.substring(start, end), level -> new Node<>());
+                if (end == pattern.length()) {
+                    break;
+                }
+                start = end + 1;
+            }
+            return node.subscriptions.put(key, subscription) == null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * remove the key's subscription to the pattern, and the branch it leaves empty
+     * @return whether there was one
+     */
+    public boolean remove(String pattern, int key) {
+        lock.lock();
+        try {
+            return remove(root, pattern, 0, key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean remove(Node<S> parent, String pattern, int start, int key) {
+        int end = levelEnd(pattern, start);
+        String level = pattern.substring(start, end);
+        Node<S> node = parent.children.get(level);
+        if (node == null) {
+            return false;
+        }
+        boolean removed = end == pattern.length()
+                ? node.subscriptions.remove(key) != null
+                : remove(node, pattern, end + 1, key);
+        if (node.isEmpty()) {
+            parent.children.remove(level, node);
+        }
+        return removed;
+    }
+
+    /**
+     * hand every subscription whose pattern matches the destination to the consumer, once each
+     */
+    public void forEachMatch(String destination, Consumer<? super S> to) {
+        match(root, destination, 0, to);
+    }
+
+    private void match(Node<S> node, String destination, int start, Consumer<? super S> to) {
+        Node<S> rest = node.children.get(ANY_LEVELS);
+        if (rest != null) {
+            rest.subscriptions.values().forEach(to);
+        }
+        if (start > destination.length()) {
+            node.subscriptions.values().forEach(to);
+            return;
+        }
+        int end = levelEnd(destination, start);
+        Node<S> any = node.children.get(ANY_LEVEL);
+        if (any != null) {
+            match(any, destination, end + 1, to);
+        }
+        Node<S> exact = node.children.get(destination.substring(start, end));
+        // a destination with a literal '*' level would reach the same node twice
+        if (exact != null && exact != any) {
+            match(exact, destination, end + 1, to);
+        }
+    }
+
+    /**
+     * @return the number of subscriptions to exactly this pattern
+     */
+    public int count(String pattern) {
+        Node<S> node = root;
+        int start = 0;
+        while (node != null) {
+            int end = levelEnd(pattern, start);
+            node = node.children.get(pattern.substring(start, end));
+            if (end == pattern.length()) {
+                break;
+            }
+            start = end + 1;
+        }
+        return node == null ? 0 : node.subscriptions.size();
+    }
+
+    /**
+     * @return the subscription count of every pattern that has any
+     */
+    public Map<String, Integer> counts() {
+        Map<String, Integer> counts = new HashMap<>();
+        for (Map.Entry<String, Node<S>> child : root.children.entrySet()) {
+            collect(child.getValue(), child.getKey(), counts);
+        }
+        return counts;
+    }
+
+    private void collect(Node<S> node, String pattern, Map<String, Integer> counts) {
+        if (!node.subscriptions.isEmpty()) {
+            counts.put(pattern, node.subscriptions.size());
+        }
+        for (Map.Entry<String, Node<S>> child : node.children.entrySet()) {
+            collect(child.getValue(), pattern + '/' + child.getKey(), counts);
+        }
+    }
+}
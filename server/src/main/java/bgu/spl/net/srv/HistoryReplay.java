@@ -0,0 +1,50 @@
+package bgu.spl.net.srv;
+
+/**
+ * Which of a channel's retained messages a new subscription gets before live traffic.
+ */
+public final class HistoryReplay {
+
+    public static final HistoryReplay NONE = new HistoryReplay(0, -1);
+
+    private final int last;
+    private final long afterSequence;
+
+    private HistoryReplay(int last, long afterSequence) {
+        this.last = last;
+        this.afterSequence = afterSequence;
+    }
+
+    /**
+     * @return the last count retained messages, or all of them if fewer are retained
+     */
+    public static HistoryReplay last(int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("count must not be negative");
+        }
+        return count == 0 ? NONE : new HistoryReplay(count, -1);
+    }
+
+    /**
+     * @return the retained messages with a channel sequence number above the given one,
+     * so a subscriber that saw up to it resumes without a gap if they are still retained
+     */
+    public static HistoryReplay after(long sequence) {
+        if (sequence < 0) {
+            throw new IllegalArgumentException("sequence must not be negative");
+        }
+        return new HistoryReplay(0, sequence);
+    }
+
+    int last() {
+        return last;
+    }
+
+    long afterSequence() {
+        return afterSequence;
+    }
+
+    boolean isNone() {
+        return last == 0 && afterSequence < 0;
+    }
+}
@@ -0,0 +1,102 @@
+package bgu.spl.net.srv;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedTransferQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import bgu.spl.net.srv.metrics.ServerMetrics;
+
+/**
+ * An actor executor without a global lock: every actor owns an {@link ActorMailbox}, submit is a
+ * queue offer plus a compare and set of the mailbox's scheduled flag, and only the submit that
+ * wins the flag hands a task to the worker threads.
+ * The workers share one FIFO LinkedTransferQueue, which is lock-free as well. (Not a ForkJoinPool:
+ * its workers run the tasks they submit themselves first, so a busy actor would never give up its thread.)
+ * <p>
+ * A scheduled actor runs up to a batch of tasks, or until its time slice is used up, before its
+ * mailbox goes back to the end of the pool's queue. A connection with a backlog of read chunks
+ * stays on a warm thread instead of paying a hand-off per chunk, and cannot starve the others.
+ */
+public class MailboxActorExecutor implements ActorExecutor<Actor> {
+    static final int BATCH = Integer.getInteger("stomp.reactor.actorBatch", 64);
+    static final long SLICE_MICROS = Long.getLong("stomp.reactor.actorSliceMicros", 500);
+
+    private final ExecutorService threads;
+    private final int batch;
+    private final long sliceNanos;
+    private final ServerMetrics metrics = ServerMetrics.getInstance();
+
+    public MailboxActorExecutor(int threads) {
+        this(threads, BATCH, SLICE_MICROS);
+    }
+
+    /**
+     * @param batch the most tasks of one actor run per hand-off, 1 for a hand-off per task
+     * @param sliceMicros how long an actor may keep its thread once it started a batch, 0 for no limit
+     */
+    public MailboxActorExecutor(int threads, int batch, long sliceMicros) {
+        if (batch < 1 || sliceMicros < 0) {
+            throw new IllegalArgumentException("batch must be positive and sliceMicros not negative");
+        }
+        this.threads = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedTransferQueue<>());
+        this.batch = batch;
+        this.sliceNanos = TimeUnit.MICROSECONDS.toNanos(sliceMicros);
+    }
+
+    @Override
+    public void submit(Actor act, Runnable r) {
+        metrics.taskSubmitted();
+        ActorMailbox mailbox = act.mailbox();
+        mailbox.offer(r);
+        if (mailbox.trySchedule()) {
+            execute(mailbox);
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        threads.shutdownNow();
+    }
+
+    private void execute(ActorMailbox mailbox) {
+        threads.execute(() -> drain(mailbox));
+    }
+
+    private void drain(ActorMailbox mailbox) {
+        // the clock is only read when there is a batch to cut short
+        boolean sliced = batch > 1 && sliceNanos > 0;
+        long deadline = sliced ? System.nanoTime() + sliceNanos : 0;
+        try {
+            for (int ran = 0; ran < batch; ran++) {
+                Runnable task = mailbox.poll();
+                if (task == null) {
+                    break;
+                }
+                try {
+                    task.run();
+                } finally {
+                    metrics.taskCompleted();
+                }
+                if (sliced && System.nanoTime() - deadline >= 0) {
+                    break;
+                }
+            }
+        } finally {
+            complete(mailbox);
+        }
+    }
+
+    private void complete(ActorMailbox mailbox) {
+        if (!mailbox.isEmpty()) {
+            // still scheduled, back to the end of the pool's queue without touching the flag
+            execute(mailbox);
+            return;
+        }
+        mailbox.idle();
+        // a producer may have offered after the check above and lost the flag to us
+        if (!mailbox.isEmpty() && mailbox.trySchedule()) {
+            execute(mailbox);
+        }
+    }
+}
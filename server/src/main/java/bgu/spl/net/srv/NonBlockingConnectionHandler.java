@@ -4,33 +4,55 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
-import java.util.Queue;
+import java.util.Arrays;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
 import bgu.spl.net.api.MessageEncoderDecoder;
 import bgu.spl.net.api.StompMessagingProtocol;
+import bgu.spl.net.srv.metrics.ServerMetrics;
 
-public class NonBlockingConnectionHandler<T> implements ConnectionHandler<T> {
+public class NonBlockingConnectionHandler<T> implements ConnectionHandler<T>, Actor {
 
     private static final int BUFFER_ALLOCATION_SIZE = 1 << 13; //8k
     private static final ConcurrentLinkedQueue<ByteBuffer> BUFFER_POOL = new ConcurrentLinkedQueue<>();
+    // upper bound of bytes handed to one gathering write
+    private static final int WRITE_BUDGET = Integer.getInteger("stomp.reactor.writeBudget", 1 << 16); //64k
+    private static final int MAX_GATHERED_BUFFERS = 128;
+    private static final ServerMetrics METRICS = ServerMetrics.getInstance();
 
     private final StompMessagingProtocol<T> protocol;
     private final MessageEncoderDecoder<T> encdec;
-    private final Queue<ByteBuffer> writeQueue = new ConcurrentLinkedQueue<>();
+    private final OutboundQueue writeQueue;
     private final SocketChannel chan;
-    private final Reactor reactor;
+    private final SubReactor<T> reactor;
     private final int connectionId;
     private final Connections<T> connections;
+    private final ActorMailbox mailbox = new ActorMailbox();
     private boolean started = false;
+    // only touched by the selector thread
+    private final ByteBuffer[] gathered = new ByteBuffer[MAX_GATHERED_BUFFERS];
+    private volatile long writeCalls = 0;
+    private volatile long framesWritten = 0;
+    private volatile long bytesWritten = 0;
     
     public NonBlockingConnectionHandler(MessageEncoderDecoder<T> reader,
         StompMessagingProtocol<T> protocol,
         SocketChannel chan,
-        Reactor reactor,
+        SubReactor<T> reactor,
         int connectionId,
         Connections<T> connections) {
+        this(reader, protocol, chan, reactor, connectionId, connections, new OutboundQueue());
+    }
+
+    NonBlockingConnectionHandler(MessageEncoderDecoder<T> reader,
+        StompMessagingProtocol<T> protocol,
+        SocketChannel chan,
+        SubReactor<T> reactor,
+        int connectionId,
+        Connections<T> connections,
+        OutboundQueue writeQueue) {
         this.chan = chan;
+        this.writeQueue = writeQueue;
         this.encdec = reader;
         this.protocol = protocol;
         this.reactor = reactor;
@@ -57,11 +79,8 @@ public class NonBlockingConnectionHandler<T> implements ConnectionHandler<T> {
                         started = true;
                     }
 
-                    while (buf.hasRemaining()) {
-                        T nextMessage = encdec.decodeNextByte(buf.get());
-                        if (nextMessage != null) {
-                            protocol.process(nextMessage);
-                        }
+                    for (T nextMessage : encdec.decode(buf)) {
+                        protocol.process(nextMessage);
                     }
                 } finally {
                     releaseBuffer(buf);
@@ -77,6 +96,7 @@ public class NonBlockingConnectionHandler<T> implements ConnectionHandler<T> {
     }
 
     public void close() {
+        writeQueue.close();
         try {
             chan.close();
         } catch (IOException ex) {
@@ -89,25 +109,59 @@ public class NonBlockingConnectionHandler<T> implements ConnectionHandler<T> {
     }
 
     public void continueWrite() {
-        while (!writeQueue.isEmpty()) {
+        if (isClosed()) {
+            return;
+        }
+        int buffers;
+        // gather queued frames, oldest first, up to the byte budget
+        while ((buffers = writeQueue.gather(gathered, WRITE_BUDGET)) > 0) {
             try {
-                ByteBuffer top = writeQueue.peek();
-                chan.write(top);
-                if (top.hasRemaining()) {
+                long bytes = 0;
+                for (int i = 0; i < buffers; i++) {
+                    bytes += gathered[i].remaining();
+                }
+
+                long written = chan.write(gathered, 0, buffers);
+                Arrays.fill(gathered, 0, buffers, null);
+                writeCalls++;
+                bytesWritten += written;
+
+                int completed = writeQueue.completeWrite();
+                framesWritten += completed;
+                METRICS.written(1, completed, written);
+                if (written < bytes) {
                     return;
-                } else {
-                    writeQueue.remove();
                 }
             } catch (IOException ex) {
                 ex.printStackTrace();
                 close();
+                return;
             }
         }
 
-        if (writeQueue.isEmpty()) {
-            if (protocol.shouldTerminate()) close();
-            else reactor.updateInterestedOps(chan, SelectionKey.OP_READ);
-        }
+        // a closed queue was left holding the slow consumer ERROR, which is now written
+        if (protocol.shouldTerminate() || writeQueue.isClosed()) close();
+        else reactor.updateInterestedOps(chan, SelectionKey.OP_READ);
+    }
+
+    public long getWriteCalls() {
+        return writeCalls;
+    }
+
+    public long getFramesWritten() {
+        return framesWritten;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * @return how many frames one write syscall carried on average
+     */
+    public double getFramesPerWrite() {
+        long calls = writeCalls;
+        return calls == 0 ? 0 : (double) framesWritten / calls;
     }
 
     private static ByteBuffer leaseBuffer() {
@@ -127,10 +181,54 @@ public class NonBlockingConnectionHandler<T> implements ConnectionHandler<T> {
     @Override
     public void send(T msg) {
     if (msg != null) {
-        writeQueue.add(ByteBuffer.wrap(encdec.encode(msg)));
-        reactor.updateInterestedOps(chan, SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        enqueue(new ByteBuffer[] { ByteBuffer.wrap(encdec.encode(msg)) }, false);
     }
 }
+
+    @Override
+    public void send(SharedFrame frame, int subscriptionId) {
+        // header and shared body go out together in one gathering write
+        enqueue(new ByteBuffer[] { frame.header(subscriptionId), frame.body() }, true);
+    }
+
+    private void enqueue(ByteBuffer[] frame, boolean droppable) {
+        switch (writeQueue.offer(frame, droppable)) {
+            case QUEUED:
+                reactor.updateInterestedOps(chan, SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                break;
+            case OVERFLOW:
+                disconnectSlowConsumer();
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * The peer does not read fast enough. Its queued frames give way to an ERROR frame, which gets one
+     * non-blocking write attempt on the selector thread before the channel is closed; the sender
+     * (possibly another connection's actor, holding a channel's lock) never waits for this peer.
+     * Until then the closed queue drops whatever else is sent to it.
+     */
+    private void disconnectSlowConsumer() {
+        writeQueue.closeWithSlowConsumerError();
+        reactor.execute(() -> {
+            connections.disconnect(connectionId);
+            continueWrite();
+            close();
+        });
+    }
+
+    @Override
+    public ActorMailbox mailbox() {
+        return mailbox;
+    }
+
+    @Override
+    public int pendingWrites() {
+        return writeQueue.size();
+    }
+
 public StompMessagingProtocol<T> getProtocol() {
     return protocol;
 }
@@ -0,0 +1,327 @@
+package bgu.spl.net.srv;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import bgu.spl.net.srv.metrics.ServerMetrics;
+
+/**
+ * The encoded frames accepted for one connection and not yet written, bounded in frames and bytes.
+ * Any thread may offer frames; a single writer gathers from the head and then reports what it wrote.
+ * Frames handed to the writer, and a frame already partly written, are never evicted,
+ * so the byte stream the peer sees is always made of whole frames.
+ */
+class OutboundQueue {
+
+    public enum OverflowPolicy {
+        /** evict the oldest queued channel messages to make room */
+        DROP_OLDEST,
+        /** drop the channel message that does not fit */
+        DROP_NEWEST,
+        /** send an ERROR frame and disconnect the slow consumer */
+        DISCONNECT
+    }
+
+    enum Offer {
+        QUEUED,
+        /** not queued: dropped by the policy or the queue is already closed */
+        DROPPED,
+        /** did not fit and could not be dropped; the connection should be disconnected */
+        OVERFLOW
+    }
+
+    static final int MAX_FRAMES = Integer.getInteger("stomp.write.maxFrames", 10_000);
+    static final long MAX_BYTES = Long.getLong("stomp.write.maxBytes", 8L << 20); //8m
+    static final OverflowPolicy POLICY = OverflowPolicy.valueOf(System.getProperty("stomp.write.overflow", "DISCONNECT"));
+
+    static final byte[] SLOW_CONSUMER_ERROR = ("ERROR\nmessage:Slow consumer\n\n"
+            + "Too many frames are waiting to be sent to this connection, it is being disconnected.\n\u0000")
+            .getBytes(StandardCharsets.UTF_8);
+    private static final ServerMetrics METRICS = ServerMetrics.getInstance();
+
+    private static class Entry {
+        private final ByteBuffer[] buffers;
+        private final long size;
+        // channel messages may be dropped, replies to the connection's own frames may not
+        private final boolean droppable;
+
+        Entry(ByteBuffer[] buffers, boolean droppable) {
+            long size = 0;
+            for (ByteBuffer buffer : buffers) {
+                size += buffer.remaining();
+            }
+            this.buffers = buffers;
+            this.size = size;
+            this.droppable = droppable;
+        }
+
+        boolean started() {
+            return buffers[0].position() > 0;
+        }
+    }
+
+    private final int maxFrames;
+    private final long maxBytes;
+    private final OverflowPolicy policy;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+    private long bytes = 0;
+    private int inFlight = 0;
+    private boolean closed = false;
+
+    OutboundQueue() {
+        this(MAX_FRAMES, MAX_BYTES, POLICY);
+    }
+
+    OutboundQueue(int maxFrames, long maxBytes, OverflowPolicy policy) {
+        if (maxFrames < 1 || maxBytes < 1) {
+            throw new IllegalArgumentException("maxFrames and maxBytes must be positive");
+        }
+        this.maxFrames = maxFrames;
+        this.maxBytes = maxBytes;
+        this.policy = policy;
+    }
+
+    /**
+     * @param droppable whether the overflow policy may drop this frame (channel messages)
+     */
+    Offer offer(ByteBuffer[] frame, boolean droppable) {
+        Entry entry = new Entry(frame, droppable);
+        lock.lock();
+        try {
+            if (closed) {
+                return Offer.DROPPED;
+            }
+            if (!fits(entry) && (policy != OverflowPolicy.DROP_OLDEST || !evictFor(entry))) {
+                if (!droppable || policy == OverflowPolicy.DISCONNECT) {
+                    return Offer.OVERFLOW;
+                }
+                METRICS.slowConsumer(OverflowPolicy.DROP_NEWEST.name(), 1);
+                return Offer.DROPPED;
+            }
+            add(entry);
+            return Offer.QUEUED;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean fits(Entry entry) {
+        // a single frame above the byte limit still goes out on its own
+        return entries.isEmpty() || entries.size() < maxFrames && bytes + entry.size <= maxBytes;
+    }
+
+    private boolean evictFor(Entry entry) {
+        int evicted = 0;
+        int position = 0;
+        Iterator<Entry> oldestFirst = entries.iterator();
+        while (!fits(entry) && oldestFirst.hasNext()) {
+            Entry queued = oldestFirst.next();
+            if (position++ >= inFlight && queued.droppable && !queued.started()) {
+                oldestFirst.remove();
+                bytes -= queued.size;
+                evicted++;
+            }
+        }
+        if (evicted > 0) {
+            METRICS.slowConsumer(OverflowPolicy.DROP_OLDEST.name(), evicted);
+            METRICS.writesQueued(-evicted);
+        }
+        return fits(entry);
+    }
+
+    private void add(Entry entry) {
+        entries.add(entry);
+        bytes += entry.size;
+        METRICS.writesQueued(1);
+        notEmpty.signal();
+    }
+
+    /**
+     * Replace everything not yet started with an ERROR frame and accept nothing more.
+     * The writer closes the connection once the queue is empty.
+     */
+    void closeWithSlowConsumerError() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            dropUnstarted();
+            closed = true;
+            add(new Entry(new ByteBuffer[] { ByteBuffer.wrap(SLOW_CONSUMER_ERROR) }, false));
+            METRICS.slowConsumer(OverflowPolicy.DISCONNECT.name(), 1);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * accept nothing more but keep what is queued; the writer stops once it has written it
+     */
+    void shutdown() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * drop every queued frame and accept nothing more, the connection is going away
+     */
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            METRICS.writesQueued(-entries.size());
+            entries.clear();
+            bytes = 0;
+            inFlight = 0;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void dropUnstarted() {
+        int dropped = 0;
+        int position = 0;
+        for (Iterator<Entry> it = entries.iterator(); it.hasNext(); ) {
+            Entry queued = it.next();
+            if (position++ >= inFlight && !queued.started()) {
+                it.remove();
+                bytes -= queued.size;
+                dropped++;
+            }
+        }
+        METRICS.writesQueued(-dropped);
+    }
+
+    /**
+     * Hand the oldest frames to the writer, up to the given number of buffers and roughly the byte budget.
+     * @return the number of buffers placed at the start of into
+     */
+    int gather(ByteBuffer[] into, long budget) {
+        lock.lock();
+        try {
+            return gatherLocked(into, budget);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * like gather, but waits up to the timeout for a frame to arrive
+     * @return the number of buffers, 0 on timeout, -1 once closed and empty
+     */
+    int awaitGather(ByteBuffer[] into, long budget, long timeoutMillis) throws InterruptedException {
+        lock.lock();
+        try {
+            long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            while (entries.isEmpty()) {
+                if (closed) {
+                    return -1;
+                }
+                if (remaining <= 0) {
+                    return 0;
+                }
+                remaining = notEmpty.awaitNanos(remaining);
+            }
+            return gatherLocked(into, budget);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int gatherLocked(ByteBuffer[] into, long budget) {
+        int buffers = 0;
+        int frames = 0;
+        long gathered = 0;
+        for (Entry entry : entries) {
+            if (gathered >= budget || buffers + entry.buffers.length > into.length) {
+                break;
+            }
+            for (ByteBuffer part : entry.buffers) {
+                into[buffers++] = part;
+                gathered += part.remaining();
+            }
+            frames++;
+        }
+        inFlight = frames;
+        return buffers;
+    }
+
+    /**
+     * After a write of gathered buffers: drop the frames written in full. A partly written frame stays
+     * at the head, its buffers remember how far they got.
+     * @return the number of frames completed
+     */
+    int completeWrite() {
+        lock.lock();
+        try {
+            int completed = 0;
+            while (completed < inFlight) {
+                Entry top = entries.peek();
+                if (top.buffers[top.buffers.length - 1].hasRemaining()) {
+                    break;
+                }
+                entries.remove();
+                bytes -= top.size;
+                completed++;
+            }
+            inFlight = 0;
+            METRICS.writesQueued(-completed);
+            return completed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean isEmpty() {
+        lock.lock();
+        try {
+            return entries.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return whether no more frames are accepted (a slow consumer ERROR may still be queued)
+     */
+    boolean isClosed() {
+        lock.lock();
+        try {
+            return closed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long bytes() {
+        lock.lock();
+        try {
+            return bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -2,37 +2,59 @@ package bgu.spl.net.srv;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.nio.channels.ClosedSelectorException;
-import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Supplier;
 
 import bgu.spl.net.api.MessageEncoderDecoder;
 import bgu.spl.net.api.StompMessagingProtocol;
+import bgu.spl.net.srv.metrics.ServerMetrics;
 
 public class Reactor<T> implements Server<T> {
 
     private final int port;
     private final Supplier<StompMessagingProtocol<T>> protocolFactory;
     private final Supplier<MessageEncoderDecoder<T>> readerFactory;
-    private final ActorThreadPool pool;
-    private Selector selector;
+    private final ActorExecutor<? super NonBlockingConnectionHandler<T>> pool;
+    private final int numReactors;
     private AtomicInteger idCounter = new AtomicInteger(0);
     private ConnectionsImpl<T> connections = new ConnectionsImpl<>();
-    private Thread selectorThread;
-    private final ConcurrentLinkedQueue<Runnable> selectorTasks = new ConcurrentLinkedQueue<>();
+    private volatile List<SubReactor<T>> subReactors;
+    private volatile ServerSocketChannel serverSock;
+    private int nextSubReactor = 0;
 
     public Reactor(
             int numThreads,
             int port,
             Supplier<StompMessagingProtocol<T>> protocolFactory,
             Supplier<MessageEncoderDecoder<T>> readerFactory) {
+        this(numThreads, 1, port, protocolFactory, readerFactory);
+    }
+
+    /**
+     * @param numReactors number of selector loops; with more than one, the serving thread only accepts
+     *                    and each accepted channel is handed to one of the sub-reactors in turn
+     */
+    public Reactor(
+            int numThreads,
+            int numReactors,
+            int port,
+            Supplier<StompMessagingProtocol<T>> protocolFactory,
+            Supplier<MessageEncoderDecoder<T>> readerFactory) {
 
-        this.pool = new ActorThreadPool(numThreads);
+        if (numReactors < 1) {
+            throw new IllegalArgumentException("numReactors must be positive");
+        }
+        if ("monitor".equals(System.getProperty("stomp.reactor.actors"))) {
+            this.pool = new ActorThreadPool(numThreads);
+        } else {
+            this.pool = new MailboxActorExecutor(numThreads);
+        }
+        this.numReactors = numReactors;
         this.port = port;
         this.protocolFactory = protocolFactory;
         this.readerFactory = readerFactory;
@@ -40,105 +62,97 @@ public class Reactor<T> implements Server<T> {
 
     @Override
     public void serve() {
-	selectorThread = Thread.currentThread();
-        try (Selector selector = Selector.open();
-                ServerSocketChannel serverSock = ServerSocketChannel.open()) {
-
-            this.selector = selector; //just to be able to close
+        try (ServerSocketChannel serverSock = ServerSocketChannel.open()) {
+
+            this.serverSock = serverSock; //just to be able to close
+            ServerMetrics.getInstance().trackConnections(connections::subscriberCounts, connections::writeBacklogs);
+            ServerMetrics.getInstance().trackHistory(connections::historyBytes, connections::historyCount);
+            List<SubReactor<T>> subReactors = new ArrayList<>(numReactors);
+            for (int i = 0; i < numReactors; i++) {
+                subReactors.add(new SubReactor<>(this, pool));
+            }
+            this.subReactors = subReactors;
 
             serverSock.bind(new InetSocketAddress(port));
-            serverSock.configureBlocking(false);
-            serverSock.register(selector, SelectionKey.OP_ACCEPT);
-			System.out.println("Server started");
-
-            while (!Thread.currentThread().isInterrupted()) {
-
-                selector.select();
-                runSelectionThreadTasks();
-
-                for (SelectionKey key : selector.selectedKeys()) {
 
-                    if (!key.isValid()) {
-                        continue;
-                    } else if (key.isAcceptable()) {
-                        handleAccept(serverSock, selector);
-                    } else {
-                        handleReadWrite(key);
-                    }
+            if (numReactors == 1) {
+                subReactors.get(0).registerAcceptor(serverSock);
+                System.out.println("Server started");
+                subReactors.get(0).run();
+            } else {
+                Thread[] threads = new Thread[numReactors];
+                for (int i = 0; i < numReactors; i++) {
+                    threads[i] = new Thread(subReactors.get(i), "sub-reactor-" + i);
+                    threads[i].start();
+                }
+                System.out.println("Server started with " + numReactors + " reactors");
+                acceptLoop(serverSock);
+                for (Thread thread : threads) {
+                    thread.join();
                 }
-
-                selector.selectedKeys().clear(); //clear the selected keys set so that we can know about new events
-
             }
 
-        } catch (ClosedSelectorException ex) {
+        } catch (ClosedChannelException ex) {
             //do nothing - server was requested to be closed
         } catch (IOException ex) {
             //this is an error
             ex.printStackTrace();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
         }
 
+        closeSubReactors();
         System.out.println("server closed!!!");
         pool.shutdown();
     }
 
-    void updateInterestedOps(SocketChannel chan, int ops) {
-        final SelectionKey key = chan.keyFor(selector);
-        if (Thread.currentThread() == selectorThread) {
-            key.interestOps(ops);
-        } else {
-            selectorTasks.add(() -> {
-                key.interestOps(ops);
-            });
-            selector.wakeup();
+    private void acceptLoop(ServerSocketChannel serverSock) throws IOException {
+        serverSock.configureBlocking(true);
+        while (!Thread.currentThread().isInterrupted()) {
+            handleAccept(serverSock);
         }
     }
 
-
-    private void handleAccept(ServerSocketChannel serverChan, Selector selector) throws IOException {
+    void handleAccept(ServerSocketChannel serverChan) throws IOException {
         SocketChannel clientChan = serverChan.accept();
+        if (clientChan == null) {
+            return;
+        }
         clientChan.configureBlocking(false);
 
         int connectionId = idCounter.getAndIncrement();
+        SubReactor<T> owner = subReactors.get(nextSubReactor);
+        nextSubReactor = (nextSubReactor + 1) % subReactors.size();
 
         final NonBlockingConnectionHandler<T> handler = new NonBlockingConnectionHandler<>(
                 readerFactory.get(),
                 protocolFactory.get(),
                 clientChan,
-                this,
+                owner,
                 connectionId,
                 connections);
 
+        // known to connections before its sub-reactor can read a CONNECT and reply to it
         connections.addConnection(connectionId, handler);
-
-        clientChan.register(selector, SelectionKey.OP_READ, handler);
+        owner.register(clientChan, handler);
     }
 
-    private void handleReadWrite(SelectionKey key) {
-        @SuppressWarnings("unchecked")
-        NonBlockingConnectionHandler<T> handler = (NonBlockingConnectionHandler<T>) key.attachment();
-
-        if (key.isReadable()) {
-            Runnable task = handler.continueRead();
-            if (task != null) {
-                pool.submit(handler, task);
-            }
+    private void closeSubReactors() {
+        List<SubReactor<T>> subReactors = this.subReactors;
+        if (subReactors == null) {
+            return;
         }
-
-	    if (key.isValid() && key.isWritable()) {
-            handler.continueWrite();
-        }
-    }
-
-    private void runSelectionThreadTasks() {
-        while (!selectorTasks.isEmpty()) {
-            selectorTasks.remove().run();
+        for (SubReactor<T> subReactor : subReactors) {
+            subReactor.close();
         }
     }
 
     @Override
     public void close() throws IOException {
-        selector.close();
+        if (serverSock != null) {
+            serverSock.close();
+        }
+        closeSubReactors();
     }
 
 }
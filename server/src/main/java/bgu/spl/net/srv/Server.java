@@ -3,6 +3,7 @@ package bgu.spl.net.srv;
 import bgu.spl.net.api.MessageEncoderDecoder;
 import bgu.spl.net.api.StompMessagingProtocol;
 import java.io.Closeable;
+import java.util.concurrent.ThreadFactory;
 import java.util.function.Supplier;
 
 public interface Server<T> extends Closeable {
@@ -34,6 +35,35 @@ public interface Server<T> extends Closeable {
 
     }
 
+    /**
+     *This function returns a new instance of a thread per client server that runs every client on a virtual thread
+     * @param port The port for the server socket
+     * @param protocolFactory A factory that creats new StompMessagingProtocols
+     * @param encoderDecoderFactory A factory that creats new MessageEncoderDecoder
+     * @param <T> The Message Object for the protocol
+     * @return A new virtual thread per client server
+     * @throws UnsupportedOperationException if the JVM has no virtual threads (before Java 21)
+     */
+    public static <T> Server<T> virtualThreadPerClient(
+            int port,
+            Supplier<StompMessagingProtocol<T> > protocolFactory,
+            Supplier<MessageEncoderDecoder<T> > encoderDecoderFactory) {
+
+        ThreadFactory virtualThreads = VirtualThreads.factory();
+        return new BaseServer<T>(port, protocolFactory, encoderDecoderFactory) {
+            @Override
+            protected void execute(BlockingConnectionHandler<T>  handler) {
+                virtualThreads.newThread(handler).start();
+            }
+
+            @Override
+            protected ThreadFactory writerThreads() {
+                return virtualThreads;
+            }
+        };
+
+    }
+
     /**
      * This function returns a new instance of a reactor pattern server
      * @param nthreads Number of threads available for protocol processing
@@ -51,4 +81,40 @@ public interface Server<T> extends Closeable {
         return new Reactor<T>(nthreads, port, protocolFactory, encoderDecoderFactory);
     }
 
+    /**
+     * This function returns a new instance of a reactor pattern server with several selector loops
+     * @param nthreads Number of threads available for protocol processing
+     * @param nreactors Number of sub-reactors, each with its own selector and thread
+     * @param port The port for the server socket
+     * @param protocolFactory A factory that creats new StompMessagingProtocols
+     * @param encoderDecoderFactory A factory that creats new MessageEncoderDecoder
+     * @param <T> The Message Object for the protocol
+     * @return A new multi reactor server
+     */
+    public static <T> Server<T> multiReactor(
+            int nthreads,
+            int nreactors,
+            int port,
+            Supplier<StompMessagingProtocol<T>> protocolFactory,
+            Supplier<MessageEncoderDecoder<T>> encoderDecoderFactory) {
+        return new Reactor<T>(nthreads, nreactors, port, protocolFactory, encoderDecoderFactory);
+    }
+
+    /**
+     * This function returns a new instance of a shared-nothing thread per core server
+     * @param ncores Number of cores, each a thread owning its share of the connections and destinations
+     * @param port The port for the server socket
+     * @param protocolFactory A factory that creats new StompMessagingProtocols
+     * @param encoderDecoderFactory A factory that creats new MessageEncoderDecoder
+     * @param <T> The Message Object for the protocol
+     * @return A new thread per core server
+     */
+    public static <T> Server<T> threadPerCore(
+            int ncores,
+            int port,
+            Supplier<StompMessagingProtocol<T>> protocolFactory,
+            Supplier<MessageEncoderDecoder<T>> encoderDecoderFactory) {
+        return new CoreServer<T>(ncores, port, protocolFactory, encoderDecoderFactory);
+    }
+
 }
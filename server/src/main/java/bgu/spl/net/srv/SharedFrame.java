@@ -0,0 +1,110 @@
+package bgu.spl.net.srv;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A frame that is broadcast to every subscriber of a channel.
+ * The part after the command line is encoded once (including the NUL terminator)
+ * and shared read-only, each subscriber only gets its own small header prefix.
+ * Only the encoded form is kept, so a frame retained in a channel's history costs about its size on the wire.
+ * A content-length header is added, so a client can take the body whole instead of scanning it for the NUL.
+ */
+public final class SharedFrame {
+
+    private static final String SUBSCRIPTION_HEADER = "\nsubscription:";
+    private static final String CONTENT_LENGTH_HEADER = "\ncontent-length:";
+
+    private final String command;
+    private final byte[] encodedRest;
+
+    public SharedFrame(String frame) {
+        this(frame, "");
+    }
+
+    /**
+     * @param headers header lines to add right after the command line, each starting with a new line
+     */
+    public SharedFrame(String frame, String headers) {
+        int firstNewLine = frame.indexOf('\n');
+        if (firstNewLine == -1) {
+            firstNewLine = frame.length();
+        }
+        this.command = frame.substring(0, firstNewLine);
+        byte[] rest = (frame.substring(firstNewLine) + "\u0000").getBytes(StandardCharsets.UTF_8);
+        int blankLine = frame.indexOf("\n\n", firstNewLine);
+        // a frame rebuilt from its encoded form (journal, cluster link) already says its length
+        if (blankLine != -1 && frame.lastIndexOf(CONTENT_LENGTH_HEADER, blankLine) == -1) {
+            int body = bodyOffset(rest);
+            // the frame's own NUL terminator, if it came with one, is not part of the body
+            int bodyEnd = rest.length - 1;
+            if (bodyEnd > body && rest[bodyEnd - 1] == '\u0000') {
+                bodyEnd--;
+            }
+            headers = headers + CONTENT_LENGTH_HEADER + (bodyEnd - body);
+        }
+        byte[] headerBytes = headers.getBytes(StandardCharsets.UTF_8);
+        this.encodedRest = Arrays.copyOf(headerBytes, headerBytes.length + rest.length);
+        System.arraycopy(rest, 0, encodedRest, headerBytes.length, rest.length);
+    }
+
+    // the offset of the body, after the first blank line
+    private static int bodyOffset(byte[] rest) {
+        for (int i = 1; i < rest.length; i++) {
+            if (rest[i] == '\n' && rest[i - 1] == '\n') {
+                return i + 1;
+            }
+        }
+        return rest.length;
+    }
+
+    /**
+     * @return the encoded command line and subscription header of the given subscriber
+     */
+    public ByteBuffer header(int subscriptionId) {
+        return ByteBuffer.wrap((command + SUBSCRIPTION_HEADER + subscriptionId).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return a read-only view of the shared encoded body, with its own position and limit
+     */
+    public ByteBuffer body() {
+        return ByteBuffer.wrap(encodedRest).asReadOnlyBuffer();
+    }
+
+    public int bodySize() {
+        return encodedRest.length;
+    }
+
+    /**
+     * @return the frame as it was given, encoded, without the subscription header or NUL terminator;
+     * what a journal stores and a new SharedFrame can be built from again
+     */
+    public byte[] encoded() {
+        byte[] commandLine = command.getBytes(StandardCharsets.UTF_8);
+        byte[] encoded = Arrays.copyOf(commandLine, commandLine.length + encodedRest.length - 1);
+        System.arraycopy(encodedRest, 0, encoded, commandLine.length, encodedRest.length - 1);
+        return encoded;
+    }
+
+    /**
+     * @return the number of bytes written
+     */
+    public int writeTo(OutputStream out, int subscriptionId) throws IOException {
+        byte[] header = (command + SUBSCRIPTION_HEADER + subscriptionId).getBytes(StandardCharsets.UTF_8);
+        out.write(header);
+        out.write(encodedRest);
+        return header.length + encodedRest.length;
+    }
+
+    /**
+     * @return the frame as the given subscriber sees it, before encoding
+     */
+    public String toString(int subscriptionId) {
+        String rest = new String(encodedRest, 0, encodedRest.length - 1, StandardCharsets.UTF_8);
+        return command + SUBSCRIPTION_HEADER + subscriptionId + rest;
+    }
+}
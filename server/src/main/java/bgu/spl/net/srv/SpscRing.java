@@ -0,0 +1,83 @@
+package bgu.spl.net.srv;
+
+/**
+ * A bounded FIFO between exactly one producer thread and one consumer thread. Each side only writes
+ * its own index, with a volatile store; there is no compare-and-set, and each side rereads the other's
+ * index only when its cached copy says the ring is full (producer) or empty (consumer).
+ */
+final class SpscRing<E> {
+
+    private final Object[] slots;
+    private final int mask;
+    // next slot to take, written by the consumer
+    private volatile long head = 0;
+    // next slot to fill, written by the producer
+    private volatile long tail = 0;
+    // the producer's last look at head, and the consumer's last look at tail
+    private long headCache = 0;
+    private long tailCache = 0;
+
+    /**
+     * @param capacity rounded up to a power of two
+     */
+    SpscRing(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("capacity must be between 1 and 2^30");
+        }
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        slots = new Object[size];
+        mask = size - 1;
+    }
+
+    /**
+     * producer side
+     * @return false if the ring is full
+     */
+    boolean offer(E element) {
+        long t = tail;
+        if (t - headCache >= slots.length) {
+            headCache = head;
+            if (t - headCache >= slots.length) {
+                return false;
+            }
+        }
+        slots[(int) t & mask] = element;
+        // the volatile store publishes the slot
+        tail = t + 1;
+        return true;
+    }
+
+    /**
+     * consumer side
+     * @return the oldest element, null if the ring is empty
+     */
+    @SuppressWarnings("unchecked")
+    E poll() {
+        long h = head;
+        if (h >= tailCache) {
+            tailCache = tail;
+            if (h >= tailCache) {
+                return null;
+            }
+        }
+        int slot = (int) h & mask;
+        E element = (E) slots[slot];
+        slots[slot] = null;
+        head = h + 1;
+        return element;
+    }
+
+    /**
+     * consumer side: a volatile read of what the producer published, for the check before parking
+     */
+    boolean isEmpty() {
+        return head >= tail;
+    }
+
+    int capacity() {
+        return slots.length;
+    }
+}
@@ -0,0 +1,161 @@
+package bgu.spl.net.srv;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * One selector loop of the reactor: it owns a Selector, the channels registered with it
+ * and the queue of tasks that must run on its thread.
+ */
+class SubReactor<T> implements Runnable {
+
+    private final Reactor<T> reactor;
+    private final ActorExecutor<? super NonBlockingConnectionHandler<T>> pool;
+    private final Selector selector;
+    private final ConcurrentLinkedQueue<Runnable> selectorTasks = new ConcurrentLinkedQueue<>();
+    private volatile Thread selectorThread;
+    private volatile boolean closing = false;
+
+    SubReactor(Reactor<T> reactor, ActorExecutor<? super NonBlockingConnectionHandler<T>> pool) throws IOException {
+        this.reactor = reactor;
+        this.pool = pool;
+        this.selector = Selector.open();
+    }
+
+    /**
+     * accept connections on this selector too (single reactor mode); must be called before run
+     */
+    void registerAcceptor(ServerSocketChannel serverSock) throws IOException {
+        serverSock.configureBlocking(false);
+        serverSock.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    @Override
+    public void run() {
+        selectorThread = Thread.currentThread();
+        try {
+            while (!closing && !Thread.currentThread().isInterrupted()) {
+
+                selector.select();
+                runSelectionThreadTasks();
+
+                for (SelectionKey key : selector.selectedKeys()) {
+
+                    if (!key.isValid()) {
+                        continue;
+                    } else if (key.isAcceptable()) {
+                        reactor.handleAccept((ServerSocketChannel) key.channel());
+                    } else {
+                        handleReadWrite(key);
+                    }
+                }
+
+                selector.selectedKeys().clear(); //clear the selected keys set so that we can know about new events
+
+            }
+        } catch (ClosedSelectorException ex) {
+            //do nothing - server was requested to be closed
+        } catch (IOException ex) {
+            //this is an error
+            ex.printStackTrace();
+        } finally {
+            closeSelector();
+        }
+    }
+
+    /**
+     * register a freshly accepted channel with this selector, from any thread
+     */
+    void register(SocketChannel chan, NonBlockingConnectionHandler<T> handler) throws IOException {
+        if (Thread.currentThread() == selectorThread) {
+            chan.register(selector, SelectionKey.OP_READ, handler);
+        } else {
+            selectorTasks.add(() -> {
+                try {
+                    chan.register(selector, SelectionKey.OP_READ, handler);
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                    handler.close();
+                }
+            });
+            selector.wakeup();
+        }
+    }
+
+    void updateInterestedOps(SocketChannel chan, int ops) {
+        if (Thread.currentThread() == selectorThread) {
+            SelectionKey key = chan.keyFor(selector);
+            if (key != null && key.isValid()) {
+                key.interestOps(ops);
+            }
+        } else {
+            selectorTasks.add(() -> {
+                // looked up on the selector thread, after any pending registration of the channel
+                SelectionKey key = chan.keyFor(selector);
+                if (key != null && key.isValid()) {
+                    key.interestOps(ops);
+                }
+            });
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * run a task on the selector thread: now when called from it, otherwise on its next wakeup
+     */
+    void execute(Runnable task) {
+        if (Thread.currentThread() == selectorThread) {
+            task.run();
+        } else {
+            selectorTasks.add(task);
+            selector.wakeup();
+        }
+    }
+
+    private void handleReadWrite(SelectionKey key) {
+        @SuppressWarnings("unchecked")
+        NonBlockingConnectionHandler<T> handler = (NonBlockingConnectionHandler<T>) key.attachment();
+
+        if (key.isReadable()) {
+            Runnable task = handler.continueRead();
+            if (task != null) {
+                pool.submit(handler, task);
+            }
+        }
+
+	    if (key.isValid() && key.isWritable()) {
+            handler.continueWrite();
+        }
+    }
+
+    private void runSelectionThreadTasks() {
+        while (!selectorTasks.isEmpty()) {
+            selectorTasks.remove().run();
+        }
+    }
+
+    /**
+     * stop the loop; the selector is closed by its own thread so it is never closed mid-iteration
+     */
+    void close() {
+        closing = true;
+        if (selectorThread == null) {
+            closeSelector();
+        } else {
+            selector.wakeup();
+        }
+    }
+
+    private void closeSelector() {
+        try {
+            selector.close();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+}
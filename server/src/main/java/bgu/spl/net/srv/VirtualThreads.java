@@ -0,0 +1,25 @@
+package bgu.spl.net.srv;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Access to virtual threads (Java 21+) while the server is still compiled for Java 8.
+ */
+final class VirtualThreads {
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * @return a factory of virtual threads
+     * @throws UnsupportedOperationException if the running JVM has no virtual threads
+     */
+    static ThreadFactory factory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException ex) {
+            throw new UnsupportedOperationException("Virtual threads need Java 21 or newer, running on " + System.getProperty("java.version"), ex);
+        }
+    }
+}
@@ -0,0 +1,546 @@
+package bgu.spl.net.srv.cluster;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+import bgu.spl.net.impl.data.LoginClaims;
+import bgu.spl.net.srv.DestinationTrie;
+
+/**
+ * One server of a cluster that shares channels and logins over persistent TCP links on a port of its own.
+ * Every node is started with the same -Dstomp.cluster.nodes list of host:port and its own index in it,
+ * -Dstomp.cluster.node. Each node listens on its own address in the list, dials every other one from it and
+ * only writes on that link ({@link PeerLink}); it reads what the others send on the links they dialed, and
+ * refuses a link that names a node but does not come from that node's address.
+ * <p>
+ * Channels: a node tells the others which destinations and patterns it has subscribers for, whenever one
+ * gets its first or loses its last. A MESSAGE is forwarded only to the nodes interested in its channel, and
+ * the receiving node numbers, retains and fans it out as if it had been sent there, so sequence numbers
+ * and history are per node. So are the game states a SUMMARY answers with: a forwarded report reaches
+ * the subscribers here but is only folded into the state of the node it was sent to.
+ * <p>
+ * Logins: every user name has an owner node, by hash, which a login claims the name at first. When a node's
+ * link goes down the others drop its interest and the owners release its users; it sends both again when
+ * the link is back.
+ */
+public final class ClusterNode implements LoginClaims, Closeable {
+
+    static final int LINK_QUEUE = Integer.getInteger("stomp.cluster.queue", 65_536);
+    static final long RETRY_MILLIS = Long.getLong("stomp.cluster.retryMillis", 500);
+    static final long CLAIM_MILLIS = Long.getLong("stomp.cluster.claimMillis", 2000);
+    // a link that heard nothing, not even a heartbeat, for this many retry intervals is down
+    private static final int SILENT_INTERVALS = 5;
+
+    // record types; a record is the type, the length of the rest and the rest
+    private static final int HELLO = 1;
+    private static final int HEARTBEAT_TYPE = 2;
+    private static final int INTEREST = 3;
+    private static final int NO_INTEREST = 4;
+    private static final int MESSAGE = 5;
+    private static final int CLAIM = 6;
+    private static final int GRANTED = 7;
+    private static final int DENIED = 8;
+    private static final int HOLD = 9;
+    private static final int RELEASE = 10;
+    private static final int REGISTERED = 11;
+
+    static final byte[] HEARTBEAT = record(HEARTBEAT_TYPE, out -> { });
+
+    private final int self;
+    private final InetSocketAddress[] nodes;
+    private final PeerLink[] links;
+    private final long retryMillis;
+    private final long claimMillis;
+    // orders the interest changes against the links (re)connecting, so a link never misses or repeats one
+    private final Object interestLock = new Object();
+    private final Map<String, Integer> localInterest = new HashMap<>();
+    private final DestinationTrie<Integer> remoteInterest = new DestinationTrie<>();
+    private final List<Set<String>> remotePatterns;
+    private final Socket[] inbound;
+    // the users this node owns, by the node that holds their session
+    private final ConcurrentHashMap<String, Integer> claims = new ConcurrentHashMap<>();
+    // the users logged in here
+    private final Set<String> held = ConcurrentHashMap.newKeySet();
+    private final ConcurrentHashMap<Long, CompletableFuture<Boolean>> pendingClaims = new ConcurrentHashMap<>();
+    private final AtomicLong claimIds = new AtomicLong();
+    private final LongAdder forwarded = new LongAdder();
+    private final List<Thread> threads = new CopyOnWriteArrayList<>();
+    private volatile BiConsumer<String, String> deliver;
+    private volatile BiConsumer<String, String> registered;
+    private volatile ServerSocket listener;
+    private volatile boolean closed = false;
+
+    private interface RecordWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    public ClusterNode(List<InetSocketAddress> nodes, int self) {
+        this(nodes, self, LINK_QUEUE, RETRY_MILLIS, CLAIM_MILLIS);
+    }
+
+    /**
+     * @param nodes every node of the cluster, in the same order on all of them
+     * @param self this node's index in nodes
+     * @param maxQueued forwarded MESSAGE frames queued per link before more are dropped
+     */
+    public ClusterNode(List<InetSocketAddress> nodes, int self, int maxQueued, long retryMillis, long claimMillis) {
+        if (self < 0 || self >= nodes.size()) {
+            throw new IllegalArgumentException("node " + self + " is not one of the " + nodes.size() + " nodes");
+        }
+        this.self = self;
+        this.nodes = nodes.toArray(new InetSocketAddress[0]);
+        this.retryMillis = retryMillis;
+        this.claimMillis = claimMillis;
+        this.links = new PeerLink[this.nodes.length];
+        this.remotePatterns = new ArrayList<>(this.nodes.length);
+        this.inbound = new Socket[this.nodes.length];
+        for (int node = 0; node < this.nodes.length; node++) {
+            remotePatterns.add(ConcurrentHashMap.newKeySet());
+            if (node != self) {
+                links[node] = new PeerLink(node, this.nodes[node], this.nodes[self].getAddress(), this, maxQueued,
+                        retryMillis);
+            }
+        }
+    }
+
+    private static class Instance {
+        static ClusterNode instance = openConfigured();
+    }
+
+    /**
+     * @return the node described by -Dstomp.cluster.nodes and -Dstomp.cluster.node, not started yet;
+     * null when they are not set or not valid
+     */
+    public static ClusterNode configured() {
+        return Instance.instance;
+    }
+
+    private static ClusterNode openConfigured() {
+        String nodes = System.getProperty("stomp.cluster.nodes");
+        if (nodes == null || nodes.isEmpty()) {
+            return null;
+        }
+        try {
+            List<InetSocketAddress> addresses = new ArrayList<>();
+            for (String node : nodes.split(",")) {
+                int colon = node.lastIndexOf(':');
+                addresses.add(new InetSocketAddress(node.substring(0, colon).trim(),
+                        Integer.parseInt(node.substring(colon + 1).trim())));
+            }
+            return new ClusterNode(addresses, Integer.getInteger("stomp.cluster.node", 0));
+        } catch (RuntimeException e) {
+            System.err.println("Could not configure the cluster from " + nodes + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * listen for the other nodes and start dialing them
+     * @param deliver gets every MESSAGE forwarded here, with its channel
+     * @param registered gets the name and password of every user another node registered
+     */
+    public synchronized void start(BiConsumer<String, String> deliver, BiConsumer<String, String> registered)
+            throws IOException {
+        if (listener != null) {
+            throw new IllegalStateException("already started");
+        }
+        this.deliver = deliver;
+        this.registered = registered;
+        ServerSocket listener = new ServerSocket();
+        listener.setReuseAddress(true);
+        listener.bind(nodes[self]);
+        this.listener = listener;
+        startThread("cluster-listener", this::accept);
+        for (PeerLink link : links) {
+            if (link != null) {
+                startThread("cluster-link-" + link.node, link);
+            }
+        }
+        System.out.println("Cluster node " + self + " listening on " + nodes[self]);
+    }
+
+    private void startThread(String name, Runnable task) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        threads.add(thread);
+        thread.start();
+    }
+
+    public int self() {
+        return self;
+    }
+
+    /**
+     * a local subscription to the destination or pattern was added
+     */
+    public void subscribed(String pattern) {
+        synchronized (interestLock) {
+            if (localInterest.merge(pattern, 1, Integer::sum) == 1) {
+                broadcast(record(INTEREST, out -> out.writeUTF(pattern)));
+            }
+        }
+    }
+
+    /**
+     * a local subscription to the destination or pattern was removed
+     */
+    public void unsubscribed(String pattern) {
+        synchronized (interestLock) {
+            if (localInterest.computeIfPresent(pattern, (p, count) -> count == 1 ? null : count - 1) == null) {
+                broadcast(record(NO_INTEREST, out -> out.writeUTF(pattern)));
+            }
+        }
+    }
+
+    /**
+     * queue a MESSAGE sent here for every other node with subscribers to its channel
+     */
+    public void forward(String channel, String frame) {
+        boolean[] interested = new boolean[nodes.length];
+        remoteInterest.forEachMatch(channel, node -> interested[node] = true);
+        byte[] record = null;
+        for (int node = 0; node < nodes.length; node++) {
+            if (interested[node]) {
+                if (record == null) {
+                    byte[] encoded = frame.getBytes(StandardCharsets.UTF_8);
+                    record = record(MESSAGE, out -> {
+                        out.writeUTF(channel);
+                        out.write(encoded);
+                    });
+                }
+                if (links[node].forward(record)) {
+                    forwarded.increment();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the MESSAGE frames queued for other nodes since the start
+     */
+    public long forwardedFrames() {
+        return forwarded.sum();
+    }
+
+    /**
+     * @return how many other nodes have subscribers to the channel
+     */
+    int interestedNodes(String channel) {
+        Set<Integer> interested = ConcurrentHashMap.newKeySet();
+        remoteInterest.forEachMatch(channel, interested::add);
+        return interested.size();
+    }
+
+    /**
+     * @return whether the links to all other nodes are up
+     */
+    boolean isLinked() {
+        for (PeerLink link : links) {
+            if (link != null && !link.isUp()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    int owner(String username) {
+        return Math.floorMod(username.hashCode(), nodes.length);
+    }
+
+    @Override
+    public boolean claim(String username) {
+        int owner = owner(username);
+        boolean granted;
+        if (owner == self) {
+            granted = claims.putIfAbsent(username, self) == null;
+        } else {
+            granted = claimAt(links[owner], username);
+        }
+        if (granted) {
+            held.add(username);
+        }
+        return granted;
+    }
+
+    private boolean claimAt(PeerLink owner, String username) {
+        if (!owner.isUp()) {
+            return false;
+        }
+        long id = claimIds.incrementAndGet();
+        CompletableFuture<Boolean> reply = new CompletableFuture<>();
+        pendingClaims.put(id, reply);
+        try {
+            owner.send(record(CLAIM, out -> {
+                out.writeLong(id);
+                out.writeUTF(username);
+            }));
+            return reply.get(claimMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            // the owner may still grant it, and must not keep it for a login that gave up
+            owner.send(record(RELEASE, out -> out.writeUTF(username)));
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            owner.send(record(RELEASE, out -> out.writeUTF(username)));
+            return false;
+        } finally {
+            pendingClaims.remove(id);
+        }
+    }
+
+    @Override
+    public void release(String username) {
+        held.remove(username);
+        int owner = owner(username);
+        if (owner == self) {
+            claims.remove(username, self);
+        } else {
+            links[owner].send(record(RELEASE, out -> out.writeUTF(username)));
+        }
+    }
+
+    @Override
+    public void registered(String username, String password) {
+        broadcast(record(REGISTERED, out -> {
+            out.writeUTF(username);
+            out.writeUTF(password);
+        }));
+    }
+
+    private void broadcast(byte[] record) {
+        for (PeerLink link : links) {
+            if (link != null) {
+                link.send(record);
+            }
+        }
+    }
+
+    /**
+     * the link to another node (re)connected: everything it lost about this node goes first
+     */
+    void linkUp(PeerLink link) {
+        List<byte[]> sync = new ArrayList<>();
+        sync.add(record(HELLO, out -> out.writeInt(self)));
+        synchronized (interestLock) {
+            for (String pattern : localInterest.keySet()) {
+                sync.add(record(INTEREST, out -> out.writeUTF(pattern)));
+            }
+            for (String username : held) {
+                if (owner(username) == link.node) {
+                    sync.add(record(HOLD, out -> out.writeUTF(username)));
+                }
+            }
+            link.connected(sync);
+        }
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                Socket socket = listener.accept();
+                startThread("cluster-reader", () -> read(socket));
+            } catch (IOException e) {
+                if (!closed) {
+                    e.printStackTrace();
+                }
+                return;
+            }
+        }
+    }
+
+    private void read(Socket socket) {
+        int node = -1;
+        try {
+            socket.setSoTimeout((int) (retryMillis * SILENT_INTERVALS));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 << 10));
+            while (!closed) {
+                int type = in.readUnsignedByte();
+                byte[] payload = new byte[in.readInt()];
+                in.readFully(payload);
+                DataInputStream body = new DataInputStream(new ByteArrayInputStream(payload));
+                if (node == -1) {
+                    node = hello(type, body, socket);
+                } else {
+                    handle(node, type, body, payload);
+                }
+            }
+        } catch (EOFException e) {
+            // the other node closed the link
+        } catch (IOException e) {
+            if (!closed) {
+                System.err.println("Cluster link from node " + node + " lost: " + e.getMessage());
+            }
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // the link is gone either way
+            }
+            if (node != -1) {
+                left(node, socket);
+            }
+        }
+    }
+
+    private int hello(int type, DataInputStream body, Socket socket) throws IOException {
+        int node = type == HELLO ? body.readInt() : -1;
+        if (node < 0 || node >= nodes.length || node == self) {
+            throw new IOException("Not a cluster node's link: record " + type + " from node " + node);
+        }
+        // a node dials from its own address, so nobody else can speak for it
+        if (!socket.getInetAddress().equals(nodes[node].getAddress())) {
+            throw new IOException("Not node " + node + "'s link: it comes from " + socket.getInetAddress());
+        }
+        synchronized (inbound) {
+            Socket previous = inbound[node];
+            inbound[node] = socket;
+            if (previous != null) {
+                // a reconnect the old link did not notice yet: everything comes again on the new one
+                forget(node);
+                previous.close();
+            }
+        }
+        return node;
+    }
+
+    private void handle(int node, int type, DataInputStream body, byte[] payload) throws IOException {
+        switch (type) {
+            case HEARTBEAT_TYPE:
+                break;
+            case INTEREST: {
+                String pattern = body.readUTF();
+                if (remotePatterns.get(node).add(pattern)) {
+                    remoteInterest.add(pattern, node, node);
+                }
+                break;
+            }
+            case NO_INTEREST: {
+                String pattern = body.readUTF();
+                if (remotePatterns.get(node).remove(pattern)) {
+                    remoteInterest.remove(pattern, node);
+                }
+                break;
+            }
+            case MESSAGE: {
+                String channel = body.readUTF();
+                int frameBytes = body.available();
+                deliver.accept(channel, new String(payload, payload.length - frameBytes, frameBytes, StandardCharsets.UTF_8));
+                break;
+            }
+            case CLAIM: {
+                long id = body.readLong();
+                boolean granted = claims.putIfAbsent(body.readUTF(), node) == null;
+                links[node].send(record(granted ? GRANTED : DENIED, out -> out.writeLong(id)));
+                break;
+            }
+            case GRANTED:
+            case DENIED: {
+                CompletableFuture<Boolean> reply = pendingClaims.get(body.readLong());
+                if (reply != null) {
+                    reply.complete(type == GRANTED);
+                }
+                break;
+            }
+            case HOLD: {
+                String username = body.readUTF();
+                Integer holder = claims.putIfAbsent(username, node);
+                if (holder != null && holder != node) {
+                    System.err.println("User " + username + " is logged in on nodes " + holder + " and " + node);
+                }
+                break;
+            }
+            case RELEASE:
+                claims.remove(body.readUTF(), node);
+                break;
+            case REGISTERED:
+                registered.accept(body.readUTF(), body.readUTF());
+                break;
+            default:
+                throw new IOException("Unknown cluster record " + type);
+        }
+    }
+
+    private void left(int node, Socket socket) {
+        synchronized (inbound) {
+            if (inbound[node] == socket) {
+                inbound[node] = null;
+                forget(node);
+            }
+        }
+    }
+
+    private void forget(int node) {
+        for (String pattern : remotePatterns.get(node)) {
+            remoteInterest.remove(pattern, node);
+        }
+        remotePatterns.get(node).clear();
+        claims.values().removeIf(holder -> holder == node);
+    }
+
+    private static byte[] record(int type, RecordWriter body) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(type);
+            out.writeInt(0);
+            body.write(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        byte[] record = bytes.toByteArray();
+        int length = record.length - 5;
+        record[1] = (byte) (length >>> 24);
+        record[2] = (byte) (length >>> 16);
+        record[3] = (byte) (length >>> 8);
+        record[4] = (byte) length;
+        return record;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        for (PeerLink link : links) {
+            if (link != null) {
+                link.close();
+            }
+        }
+        synchronized (inbound) {
+            for (Socket socket : inbound) {
+                if (socket != null) {
+                    socket.close();
+                }
+            }
+        }
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+        if (listener != null) {
+            listener.close();
+        }
+    }
+}
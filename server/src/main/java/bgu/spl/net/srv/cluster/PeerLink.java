@@ -0,0 +1,144 @@
+package bgu.spl.net.srv.cluster;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import bgu.spl.net.srv.metrics.ServerMetrics;
+
+/**
+ * The link this node dials to one other node and only writes on. Records are queued by any thread
+ * and written by the link's own thread, as many as are waiting in one flush; an idle link writes a heartbeat
+ * every retry interval, so a node that restarted meanwhile is reconnected to. While the link is down
+ * nothing is queued; on every (re)connect the node first queues what the other one has to know again.
+ */
+final class PeerLink implements Runnable {
+
+    private static final int MAX_BATCH = 256;
+    private static final int BUFFER_BYTES = 64 << 10;
+
+    final int node;
+    private final InetSocketAddress address;
+    private final InetAddress from;
+    private final ClusterNode cluster;
+    private final int maxQueued;
+    private final long retryMillis;
+    private final LinkedBlockingQueue<byte[]> queue = new LinkedBlockingQueue<>();
+    private volatile boolean up = false;
+    private volatile boolean closed = false;
+    private volatile Socket socket;
+
+    /**
+     * @param from this node's own address, which the other node only accepts its links from
+     */
+    PeerLink(int node, InetSocketAddress address, InetAddress from, ClusterNode cluster, int maxQueued,
+            long retryMillis) {
+        this.node = node;
+        this.address = address;
+        this.from = from;
+        this.cluster = cluster;
+        this.maxQueued = maxQueued;
+        this.retryMillis = retryMillis;
+    }
+
+    boolean isUp() {
+        return up;
+    }
+
+    /**
+     * queue a record that has to arrive while the link is up; dropped while it is down
+     */
+    void send(byte[] record) {
+        if (up) {
+            queue.add(record);
+        }
+    }
+
+    /**
+     * queue a forwarded MESSAGE, dropped (and counted as a slow consumer event) if the other node is that far behind
+     * @return whether it was queued
+     */
+    boolean forward(byte[] record) {
+        if (!up) {
+            return false;
+        }
+        if (queue.size() >= maxQueued) {
+            ServerMetrics.getInstance().slowConsumer("CLUSTER_LINK", 1);
+            return false;
+        }
+        queue.add(record);
+        return true;
+    }
+
+    /**
+     * the link came up: replace whatever was queued with the records that bring the other node up to date;
+     * called by the node under the lock that orders its interest changes
+     */
+    void connected(List<byte[]> sync) {
+        queue.clear();
+        queue.addAll(sync);
+        up = true;
+    }
+
+    @Override
+    public void run() {
+        List<byte[]> batch = new ArrayList<>(MAX_BATCH);
+        while (!closed) {
+            try (Socket socket = new Socket()) {
+                this.socket = socket;
+                socket.bind(new InetSocketAddress(from, 0));
+                socket.connect(address, (int) Math.max(retryMillis, 1000));
+                socket.setTcpNoDelay(true);
+                OutputStream out = new BufferedOutputStream(socket.getOutputStream(), BUFFER_BYTES);
+                cluster.linkUp(this);
+                while (!closed) {
+                    byte[] first = queue.poll(retryMillis, TimeUnit.MILLISECONDS);
+                    batch.add(first != null ? first : ClusterNode.HEARTBEAT);
+                    queue.drainTo(batch, MAX_BATCH - 1);
+                    for (byte[] record : batch) {
+                        out.write(record);
+                    }
+                    out.flush();
+                    batch.clear();
+                }
+            } catch (IOException e) {
+                if (up) {
+                    System.err.println("Cluster link to node " + node + " at " + address + " lost: " + e.getMessage());
+                }
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                up = false;
+                batch.clear();
+            }
+            pause();
+        }
+    }
+
+    private void pause() {
+        try {
+            Thread.sleep(retryMillis);
+        } catch (InterruptedException e) {
+            closed = true;
+        }
+    }
+
+    void close() {
+        closed = true;
+        up = false;
+        Socket socket = this.socket;
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package bgu.spl.net.srv.journal;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The journal of one destination: a directory of segment files, the newest one taking appends.
+ * Every frame is stored with its sequence number in the destination, either the one the caller assigned
+ * or the next one, starting at 0; sequences only grow and are kept across restarts.
+ * Old segments go once the journal is over its byte budget or they are older than the retention time;
+ * the segment being written is never removed. A segment file that cannot be deleted yet, as on Windows while
+ * its mapping is alive, is tried again on the next retention pass.
+ */
+public final class DestinationJournal {
+
+    /**
+     * receives journaled frames, oldest first
+     */
+    @FunctionalInterface
+    public interface Reader {
+        void record(long sequence, long timestampMillis, byte[] frame);
+    }
+
+    private final Path directory;
+    private final FsyncPolicy fsync;
+    private final int segmentBytes;
+    private final long retainBytes;
+    private final long retainMillis;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final List<JournalSegment> segments = new ArrayList<>();
+    private final List<Path> undeleted = new ArrayList<>();
+
+    DestinationJournal(Path directory, FsyncPolicy fsync, int segmentBytes, long retainBytes, long retainMillis)
+            throws IOException {
+        this.directory = directory;
+        this.fsync = fsync;
+        this.segmentBytes = segmentBytes;
+        this.retainBytes = retainBytes;
+        this.retainMillis = retainMillis;
+        Files.createDirectories(directory);
+        recover();
+    }
+
+    private void recover() throws IOException {
+        List<Long> bases = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.log")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    bases.add(Long.parseLong(name.substring(0, name.length() - ".log".length())));
+                } catch (NumberFormatException e) {
+                    // not a segment
+                }
+            }
+        }
+        bases.sort(null);
+        for (long base : bases) {
+            JournalSegment segment = JournalSegment.open(segmentPath(base), base, segmentBytes);
+            if (!segments.isEmpty() && base < last().nextSequence()) {
+                // overlaps the one before, the segments after a torn one were never acknowledged as a whole
+                discard(segment);
+                continue;
+            }
+            segments.add(segment);
+        }
+        if (segments.isEmpty()) {
+            segments.add(JournalSegment.open(segmentPath(0), 0, segmentBytes));
+        }
+    }
+
+    private Path segmentPath(long baseSequence) {
+        return directory.resolve(String.format("%020d.log", baseSequence));
+    }
+
+    private JournalSegment last() {
+        return segments.get(segments.size() - 1);
+    }
+
+    /**
+     * append with the next sequence number
+     * @param frame an encoded frame, as {@link bgu.spl.net.srv.SharedFrame#encoded()} gives it
+     * @return the sequence number of the frame
+     */
+    public long append(byte[] frame) throws IOException {
+        lock.lock();
+        try {
+            long sequence = last().nextSequence();
+            append(sequence, frame);
+            return sequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param sequence the frame's sequence number, at least {@link #nextSequence()}
+     * @param frame an encoded frame, as {@link bgu.spl.net.srv.SharedFrame#encoded()} gives it
+     */
+    public void append(long sequence, byte[] frame) throws IOException {
+        long now = System.currentTimeMillis();
+        lock.lock();
+        try {
+            JournalSegment active = last();
+            if (sequence < active.nextSequence()) {
+                throw new IllegalArgumentException("sequence " + sequence + " is below " + active.nextSequence());
+            }
+            if (!active.append(sequence, now, frame)) {
+                active.force();
+                // a frame bigger than a segment gets a segment of its own
+                active = JournalSegment.open(segmentPath(sequence), sequence,
+                        Math.max(segmentBytes, JournalSegment.HEADER_SIZE + frame.length));
+                segments.add(active);
+                active.append(sequence, now, frame);
+                enforceRetention(now);
+            }
+            if (fsync == FsyncPolicy.PER_MESSAGE) {
+                active.force();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the sequence number the next appended frame will get
+     */
+    public long nextSequence() {
+        lock.lock();
+        try {
+            return last().nextSequence();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the sequence number of the oldest frame still retained
+     */
+    public long firstSequence() {
+        lock.lock();
+        try {
+            return segments.get(0).baseSequence();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * hand every retained frame from the given sequence on to the reader; appends wait meanwhile
+     */
+    public void read(long fromSequence, Reader reader) {
+        lock.lock();
+        try {
+            for (int i = 0; i < segments.size(); i++) {
+                JournalSegment segment = segments.get(i);
+                if (segment.nextSequence() > fromSequence) {
+                    segment.read(fromSequence, reader);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * hand the newest retained frames, up to count, to the reader
+     */
+    public void readLast(int count, Reader reader) {
+        lock.lock();
+        try {
+            read(Math.max(segments.get(0).baseSequence(), last().nextSequence() - count), reader);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * write appended frames to the disk; appends go on meanwhile
+     */
+    public void force() {
+        MappedByteBuffer dirty;
+        lock.lock();
+        try {
+            dirty = last().takeDirty();
+        } finally {
+            lock.unlock();
+        }
+        if (dirty != null) {
+            dirty.force();
+        }
+    }
+
+    /**
+     * @return bytes taken by the retained frames
+     */
+    public long size() {
+        lock.lock();
+        try {
+            long size = 0;
+            for (JournalSegment segment : segments) {
+                size += segment.size();
+            }
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int segmentCount() {
+        lock.lock();
+        try {
+            return segments.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * remove the oldest segments over the byte budget or past the retention time
+     */
+    void enforceRetention(long nowMillis) {
+        lock.lock();
+        try {
+            for (int i = undeleted.size() - 1; i >= 0; i--) {
+                if (delete(undeleted.get(i))) {
+                    undeleted.remove(i);
+                }
+            }
+            long size = size();
+            while (segments.size() > 1) {
+                JournalSegment oldest = segments.get(0);
+                if (size <= retainBytes && oldest.lastTimestamp() >= nowMillis - retainMillis) {
+                    break;
+                }
+                segments.remove(0);
+                size -= oldest.size();
+                discard(oldest);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * close a segment and delete its file, now or on a later retention pass; a failure here must not fail
+     * the append that rolled over to a new segment
+     */
+    private void discard(JournalSegment segment) {
+        try {
+            segment.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (!delete(segment.path())) {
+            undeleted.add(segment.path());
+        }
+    }
+
+    /**
+     * @return false if the file is still there; the mapping itself is only released when the buffer is collected
+     */
+    private static boolean delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    void close() throws IOException {
+        lock.lock();
+        try {
+            for (JournalSegment segment : segments) {
+                segment.close();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
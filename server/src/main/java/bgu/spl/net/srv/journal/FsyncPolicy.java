@@ -0,0 +1,13 @@
+package bgu.spl.net.srv.journal;
+
+/**
+ * When appended journal records are forced from the page cache to the disk.
+ */
+public enum FsyncPolicy {
+    /** before append returns; nothing acknowledged is lost, every message pays for an msync */
+    PER_MESSAGE,
+    /** by a background flusher every few milliseconds; a crash loses at most that window */
+    BATCHED,
+    /** whenever the OS writes the pages back (and on segment roll and close); survives a process crash, not a power loss */
+    OS
+}
@@ -0,0 +1,210 @@
+package bgu.spl.net.srv.journal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * One memory-mapped segment file of a destination's journal, named after its first sequence number.
+ * A record is a 24 byte header (payload length, CRC32 of the payload, sequence, timestamp) and the payload.
+ * Sequences only grow, a failed append may leave a gap.
+ * The length is written last: a record whose length is still 0, or whose CRC does not match, marks the end.
+ * Not thread safe, {@link DestinationJournal} serializes access.
+ */
+final class JournalSegment {
+    static final int HEADER_SIZE = 4 + 4 + 8 + 8;
+    // one sparse index entry per this many records
+    private static final int INDEX_EVERY = 64;
+
+    private final Path path;
+    private final long baseSequence;
+    private final FileChannel channel;
+    private final MappedByteBuffer map;
+    private final CRC32 crc = new CRC32();
+    private int writePosition = 0;
+    private long nextSequence;
+    private long lastTimestamp = 0;
+    private int records = 0;
+    private long[] indexSequences = new long[16];
+    private int[] indexPositions = new int[16];
+    private int indexed = 0;
+    private boolean dirty = false;
+
+    private JournalSegment(Path path, long baseSequence, int capacity) throws IOException {
+        this.path = path;
+        this.baseSequence = baseSequence;
+        this.nextSequence = baseSequence;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        // an existing segment keeps the size it was created with
+        long size = Math.max(channel.size(), capacity);
+        this.map = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    /**
+     * map a segment file, creating it if needed, and find its end by scanning its records
+     */
+    static JournalSegment open(Path path, long baseSequence, int capacity) throws IOException {
+        JournalSegment segment = new JournalSegment(path, baseSequence, capacity);
+        segment.recover();
+        return segment;
+    }
+
+    private void recover() {
+        int position = 0;
+        int capacity = map.capacity();
+        while (position + HEADER_SIZE <= capacity) {
+            int length = map.getInt(position);
+            long sequence = map.getLong(position + 8);
+            if (length <= 0 || length > capacity - position - HEADER_SIZE
+                    || sequence < nextSequence
+                    || map.getInt(position + 4) != crcOf(position + HEADER_SIZE, length)) {
+                break;
+            }
+            index(sequence, position);
+            lastTimestamp = map.getLong(position + 16);
+            nextSequence = sequence + 1;
+            position += HEADER_SIZE + length;
+        }
+        writePosition = position;
+        if (position + 4 <= capacity && map.getInt(position) != 0) {
+            // a torn record from a crash: clear its length so the next scan stops here too
+            map.putInt(position, 0);
+            dirty = true;
+        }
+    }
+
+    /**
+     * @return false if the segment has no room left for the record
+     */
+    boolean append(long sequence, long timestamp, byte[] payload) {
+        int recordSize = HEADER_SIZE + payload.length;
+        if (writePosition + recordSize > map.capacity()) {
+            return false;
+        }
+        int position = writePosition;
+        ByteBuffer body = map.duplicate();
+        body.position(position + HEADER_SIZE);
+        body.put(payload);
+        map.putLong(position + 8, sequence);
+        map.putLong(position + 16, timestamp);
+        map.putInt(position + 4, crcOf(position + HEADER_SIZE, payload.length));
+        // the length commits the record
+        map.putInt(position, payload.length);
+        index(sequence, position);
+        writePosition += recordSize;
+        nextSequence = sequence + 1;
+        lastTimestamp = timestamp;
+        dirty = true;
+        return true;
+    }
+
+    private int crcOf(int position, int length) {
+        ByteBuffer payload = map.duplicate();
+        payload.limit(position + length).position(position);
+        crc.reset();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    private void index(long sequence, int position) {
+        if (records++ % INDEX_EVERY != 0) {
+            return;
+        }
+        if (indexed == indexSequences.length) {
+            indexSequences = Arrays.copyOf(indexSequences, indexed * 2);
+            indexPositions = Arrays.copyOf(indexPositions, indexed * 2);
+        }
+        indexSequences[indexed] = sequence;
+        indexPositions[indexed] = position;
+        indexed++;
+    }
+
+    /**
+     * hand every record from the given sequence on to the reader, in order
+     */
+    void read(long fromSequence, DestinationJournal.Reader reader) {
+        if (fromSequence >= nextSequence) {
+            return;
+        }
+        // start from the last indexed record at or before the sequence
+        int slot = Arrays.binarySearch(indexSequences, 0, indexed, Math.max(fromSequence, baseSequence));
+        int position = indexPositions[slot >= 0 ? slot : Math.max(0, -slot - 2)];
+        while (position < writePosition) {
+            int length = map.getInt(position);
+            long sequence = map.getLong(position + 8);
+            if (sequence >= fromSequence) {
+                byte[] payload = new byte[length];
+                ByteBuffer body = map.duplicate();
+                body.position(position + HEADER_SIZE);
+                body.get(payload);
+                reader.record(sequence, map.getLong(position + 16), payload);
+            }
+            position += HEADER_SIZE + length;
+        }
+    }
+
+    /**
+     * write dirty pages to the disk
+     */
+    void force() {
+        if (dirty) {
+            map.force();
+            dirty = false;
+        }
+    }
+
+    /**
+     * count what was appended so far as written, for the caller to force the returned mapping itself
+     * @return the mapping, or null if nothing was appended since the last force
+     */
+    MappedByteBuffer takeDirty() {
+        if (!dirty) {
+            return null;
+        }
+        dirty = false;
+        return map;
+    }
+
+    void close() throws IOException {
+        force();
+        channel.close();
+    }
+
+    Path path() {
+        return path;
+    }
+
+    long baseSequence() {
+        return baseSequence;
+    }
+
+    /**
+     * @return the sequence the next record appended here would get
+     */
+    long nextSequence() {
+        return nextSequence;
+    }
+
+    boolean isEmpty() {
+        return records == 0;
+    }
+
+    /**
+     * @return bytes taken by records
+     */
+    int size() {
+        return writePosition;
+    }
+
+    /**
+     * @return the timestamp of the newest record, 0 if empty
+     */
+    long lastTimestamp() {
+        return lastTimestamp;
+    }
+}
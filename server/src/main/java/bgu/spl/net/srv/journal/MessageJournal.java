@@ -0,0 +1,167 @@
+package bgu.spl.net.srv.journal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Durable storage of the frames sent to every destination, one {@link DestinationJournal} directory each
+ * under a root directory. Journals found there are recovered when it is opened. A background thread
+ * forces appends to the disk under {@link FsyncPolicy#BATCHED} and applies the retention limits.
+ * Enabled for the server by -Dstomp.journal.dir, see {@link #configured()}.
+ */
+public final class MessageJournal implements Closeable {
+
+    static final FsyncPolicy FSYNC = FsyncPolicy.valueOf(System.getProperty("stomp.journal.fsync", "BATCHED"));
+    static final long FSYNC_MILLIS = Long.getLong("stomp.journal.fsyncMillis", 50);
+    static final int SEGMENT_BYTES = Integer.getInteger("stomp.journal.segmentBytes", 64 << 20); //64m
+    static final long RETAIN_BYTES = Long.getLong("stomp.journal.retainBytes", 1L << 30); //1g
+    static final long RETAIN_MILLIS = Long.getLong("stomp.journal.retainMillis", TimeUnit.DAYS.toMillis(7));
+
+    private final Path root;
+    private final FsyncPolicy fsync;
+    private final int segmentBytes;
+    private final long retainBytes;
+    private final long retainMillis;
+    private final ConcurrentHashMap<String, DestinationJournal> journals = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flusher;
+
+    public MessageJournal(Path root) throws IOException {
+        this(root, FSYNC, FSYNC_MILLIS, SEGMENT_BYTES, RETAIN_BYTES, RETAIN_MILLIS);
+    }
+
+    public MessageJournal(Path root, FsyncPolicy fsync, long fsyncMillis, int segmentBytes,
+                          long retainBytes, long retainMillis) throws IOException {
+        if (segmentBytes <= JournalSegment.HEADER_SIZE || fsyncMillis < 1) {
+            throw new IllegalArgumentException("segmentBytes must exceed a record header and fsyncMillis be positive");
+        }
+        this.root = root;
+        this.fsync = fsync;
+        this.segmentBytes = segmentBytes;
+        this.retainBytes = retainBytes;
+        this.retainMillis = retainMillis;
+        Files.createDirectories(root);
+        try (DirectoryStream<Path> directories = Files.newDirectoryStream(root, Files::isDirectory)) {
+            for (Path directory : directories) {
+                String destination = URLDecoder.decode(directory.getFileName().toString(), "UTF-8");
+                journals.put(destination, open(directory));
+            }
+        }
+        flusher = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "journal-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, fsyncMillis, fsyncMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static class Instance {
+        static MessageJournal instance = openConfigured();
+    }
+
+    /**
+     * @return the journal under -Dstomp.journal.dir, opened on first use and closed on exit;
+     * null when the property is not set or the directory cannot be used
+     */
+    public static MessageJournal configured() {
+        return Instance.instance;
+    }
+
+    private static MessageJournal openConfigured() {
+        String dir = System.getProperty("stomp.journal.dir");
+        if (dir == null || dir.isEmpty()) {
+            return null;
+        }
+        try {
+            MessageJournal journal = new MessageJournal(Paths.get(dir));
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    journal.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }));
+            return journal;
+        } catch (IOException e) {
+            System.err.println("Could not open the message journal in " + dir + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private DestinationJournal open(Path directory) throws IOException {
+        return new DestinationJournal(directory, fsync, segmentBytes, retainBytes, retainMillis);
+    }
+
+    /**
+     * @return the journal of the destination, created on first use
+     */
+    public DestinationJournal journal(String destination) throws IOException {
+        DestinationJournal journal = journals.get(destination);
+        if (journal != null) {
+            return journal;
+        }
+        try {
+            return journals.computeIfAbsent(destination, d -> {
+                try {
+                    return open(root.resolve(directoryName(d)));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * @return the destinations with a journal, including those recovered from the disk
+     */
+    public Map<String, DestinationJournal> journals() {
+        return Collections.unmodifiableMap(journals);
+    }
+
+    static String directoryName(String destination) {
+        try {
+            // '.' and '*' are left alone by URLEncoder, but "." and ".." are not directory names to use
+            return URLEncoder.encode(destination, "UTF-8").replace(".", "%2E").replace("*", "%2A");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private void flush() {
+        long now = System.currentTimeMillis();
+        for (DestinationJournal journal : journals.values()) {
+            if (fsync == FsyncPolicy.BATCHED) {
+                journal.force();
+            }
+            journal.enforceRetention(now);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (DestinationJournal journal : journals.values()) {
+            journal.close();
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package bgu.spl.net.srv.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+public class CommandMetrics extends Histogram implements CommandMetricsMXBean {
+    private final LongAdder framesReceived = new LongAdder();
+
+    public void received() {
+        if (ServerMetrics.ENABLED) {
+            framesReceived.increment();
+        }
+    }
+
+    @Override
+    public long getFramesReceived() {
+        return framesReceived.sum();
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        framesReceived.reset();
+    }
+}
@@ -0,0 +1,10 @@
+package bgu.spl.net.srv.metrics;
+
+/**
+ * One STOMP command: every received frame is counted, the processing time of a sample of them
+ * (one in stomp.metrics.sampleEvery per connection) makes up the latency distribution.
+ */
+public interface CommandMetricsMXBean extends HistogramMXBean {
+
+    long getFramesReceived();
+}
@@ -0,0 +1,89 @@
+package bgu.spl.net.srv.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free log-linear histogram of durations in nanoseconds, safe to record from any thread.
+ * Below 64ns it is exact, above that each power of two is split into 32 buckets (~3% precision).
+ * Readers get a consistent-enough view: a record racing with a read may be half counted.
+ */
+public class Histogram implements HistogramMXBean {
+    static final LogLinearBuckets BUCKETS = new LogLinearBuckets(6);
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS.count());
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts.incrementAndGet(BUCKETS.indexOf(nanos));
+        sum.add(nanos);
+        long currentMax = max.get();
+        while (nanos > currentMax && !max.compareAndSet(currentMax, nanos)) {
+            // lost to another record, retry against its value
+            currentMax = max.get();
+        }
+    }
+
+    @Override
+    public long getCount() {
+        long total = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    @Override
+    public double getMeanMicros() {
+        long n = getCount();
+        return n == 0 ? 0 : sum.sum() / (double) n / 1000;
+    }
+
+    @Override
+    public double getP50Micros() {
+        return valueAt(0.50) / 1000.0;
+    }
+
+    @Override
+    public double getP99Micros() {
+        return valueAt(0.99) / 1000.0;
+    }
+
+    @Override
+    public double getP999Micros() {
+        return valueAt(0.999) / 1000.0;
+    }
+
+    @Override
+    public double getMaxMicros() {
+        return max.get() / 1000.0;
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        sum.reset();
+        max.set(0);
+    }
+
+    /**
+     * @param quantile between 0 and 1
+     * @return the highest value of the bucket holding that quantile, in nanoseconds; 0 when empty
+     */
+    public long valueAt(double quantile) {
+        long[] snapshot = new long[counts.length()];
+        long total = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        return BUCKETS.valueAt(snapshot, total, quantile, max.get());
+    }
+}
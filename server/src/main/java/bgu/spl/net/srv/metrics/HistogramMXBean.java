@@ -0,0 +1,21 @@
+package bgu.spl.net.srv.metrics;
+
+/**
+ * A latency distribution as seen over JMX, in microseconds.
+ */
+public interface HistogramMXBean {
+
+    long getCount();
+
+    double getMeanMicros();
+
+    double getP50Micros();
+
+    double getP99Micros();
+
+    double getP999Micros();
+
+    double getMaxMicros();
+
+    void reset();
+}
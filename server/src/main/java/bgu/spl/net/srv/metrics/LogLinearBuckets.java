@@ -0,0 +1,71 @@
+package bgu.spl.net.srv.metrics;
+
+/**
+ * The bucket layout of a log-linear histogram of non-negative longs, shared by the server's
+ * {@link Histogram} and the load generator's. Values below 2^bits are exact; above that each power
+ * of two is split into 2^(bits-1) buckets, so a bucket is at most 1/2^(bits-1) of its values wide.
+ * Immutable; the histograms keep the counts, each in its own way.
+ */
+public final class LogLinearBuckets {
+    private final int subBucketBits;
+    private final int subBuckets;
+    private final int halfSubBuckets;
+    private final int count;
+
+    public LogLinearBuckets(int subBucketBits) {
+        if (subBucketBits < 1 || subBucketBits > 30) {
+            throw new IllegalArgumentException("subBucketBits must be between 1 and 30");
+        }
+        this.subBucketBits = subBucketBits;
+        this.subBuckets = 1 << subBucketBits;
+        this.halfSubBuckets = subBuckets / 2;
+        this.count = (63 - subBucketBits + 2) * halfSubBuckets;
+    }
+
+    /**
+     * @return the number of buckets, enough for every non-negative long
+     */
+    public int count() {
+        return count;
+    }
+
+    public int indexOf(long value) {
+        if (value < subBuckets) {
+            return (int) value;
+        }
+        // shift so the value lands in [subBuckets / 2, subBuckets): its top bits pick the bucket
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (subBucketBits - 1);
+        return shift * halfSubBuckets + (int) (value >>> shift);
+    }
+
+    public long highestValueOf(int index) {
+        if (index < subBuckets) {
+            return index;
+        }
+        int shift = index / halfSubBuckets - 1;
+        long lowest = (long) (index % halfSubBuckets + halfSubBuckets) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /**
+     * @param counts the count of every bucket
+     * @param total the sum of counts
+     * @param quantile between 0 and 1, e.g. 0.999
+     * @param max the largest value recorded, which no answer exceeds
+     * @return the highest value of the bucket holding that quantile, 0 when empty
+     */
+    public long valueAt(long[] counts, long total, double quantile, long max) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < count; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(highestValueOf(i), max);
+            }
+        }
+        return max;
+    }
+}
@@ -0,0 +1,249 @@
+package bgu.spl.net.srv.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * The server's metrics registry. Hot paths only bump LongAdders and record into lock-free
+ * histograms; gauges that need a walk over server state are computed when JMX reads them.
+ * Everything is registered with the platform MBeanServer under the bgu.spl.net domain.
+ * Recording can be switched off with -Dstomp.metrics=false, for comparing overhead.
+ */
+public class ServerMetrics implements ServerMetricsMXBean {
+    public static final boolean ENABLED = !"false".equals(System.getProperty("stomp.metrics"));
+    /**
+     * the protocol times one in this many frames of a connection; reading the clock costs more than the rest
+     */
+    public static final int SAMPLE_EVERY = Integer.getInteger("stomp.metrics.sampleEvery", 16);
+
+    private static final String DOMAIN = "bgu.spl.net";
+
+    private final LongAdder connectionsOpened = new LongAdder();
+    private final LongAdder connectionsClosed = new LongAdder();
+    private final LongAdder framesSent = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder writeCalls = new LongAdder();
+    private final LongAdder queuedWrites = new LongAdder();
+    private final LongAdder pendingTasks = new LongAdder();
+    private final LongAdder historiesEvicted = new LongAdder();
+    private final ConcurrentHashMap<String, LongAdder> slowConsumerEvents = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, CommandMetrics> commands = new ConcurrentHashMap<>();
+    private final Histogram sqlRoundTrip = new Histogram();
+    private volatile Supplier<Map<String, Integer>> channelSubscribers = Collections::emptyMap;
+    private volatile Supplier<Map<Integer, Integer>> writeBacklogs = Collections::emptyMap;
+    private volatile Supplier<Map<String, Long>> historyBytes = Collections::emptyMap;
+    private volatile IntSupplier historyChannels = () -> 0;
+
+    private ServerMetrics() {
+        register("server", "type=Server", this, ServerMetricsMXBean.class);
+        register("SQL", "type=Sql,name=RoundTrip", sqlRoundTrip, HistogramMXBean.class);
+    }
+
+    private static class Instance {
+        static ServerMetrics instance = new ServerMetrics();
+    }
+
+    public static ServerMetrics getInstance() {
+        return Instance.instance;
+    }
+
+    private static <M> void register(String what, String keys, M mbean, Class<M> mxbeanInterface) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.registerMBean(new StandardMBean(mbean, mxbeanInterface, true), new ObjectName(DOMAIN + ":" + keys));
+        } catch (JMException e) {
+            System.err.println("Could not register " + what + " metrics: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return the frame count and processing time of a STOMP command, registered on first use
+     */
+    public CommandMetrics command(String name) {
+        return commands.computeIfAbsent(name, n -> {
+            CommandMetrics command = new CommandMetrics();
+            register(n, "type=Command,name=" + ObjectName.quote(n), command, CommandMetricsMXBean.class);
+            return command;
+        });
+    }
+
+    public Histogram sqlRoundTrip() {
+        return sqlRoundTrip;
+    }
+
+    public void connectionOpened() {
+        if (ENABLED) {
+            connectionsOpened.increment();
+        }
+    }
+
+    public void connectionClosed() {
+        if (ENABLED) {
+            connectionsClosed.increment();
+        }
+    }
+
+    public void written(int writes, long frames, long bytes) {
+        if (ENABLED) {
+            writeCalls.add(writes);
+            framesSent.add(frames);
+            bytesWritten.add(bytes);
+        }
+    }
+
+    public void writesQueued(int frames) {
+        if (ENABLED) {
+            queuedWrites.add(frames);
+        }
+    }
+
+    /**
+     * a write queue overflow policy fired, dropping frames or disconnecting a slow consumer
+     */
+    public void slowConsumer(String policy, int times) {
+        if (ENABLED) {
+            slowConsumerEvents.computeIfAbsent(policy, p -> new LongAdder()).add(times);
+        }
+    }
+
+    /**
+     * a channel's history was dropped to keep the number of histories under its cap
+     */
+    public void historyEvicted() {
+        if (ENABLED) {
+            historiesEvicted.increment();
+        }
+    }
+
+    public void taskSubmitted() {
+        if (ENABLED) {
+            pendingTasks.increment();
+        }
+    }
+
+    public void taskCompleted() {
+        if (ENABLED) {
+            pendingTasks.decrement();
+        }
+    }
+
+    /**
+     * the serving connections registry, read on demand for the channel and backlog gauges
+     */
+    public void trackConnections(Supplier<Map<String, Integer>> channelSubscribers,
+                                 Supplier<Map<Integer, Integer>> writeBacklogs) {
+        this.channelSubscribers = channelSubscribers;
+        this.writeBacklogs = writeBacklogs;
+    }
+
+    /**
+     * the serving connections registry's channel histories, read on demand for the history gauges
+     */
+    public void trackHistory(Supplier<Map<String, Long>> historyBytes, IntSupplier historyChannels) {
+        this.historyBytes = historyBytes;
+        this.historyChannels = historyChannels;
+    }
+
+    @Override
+    public long getActiveConnections() {
+        return connectionsOpened.sum() - connectionsClosed.sum();
+    }
+
+    @Override
+    public long getConnectionsOpened() {
+        return connectionsOpened.sum();
+    }
+
+    @Override
+    public Map<String, Long> getFramesReceived() {
+        Map<String, Long> received = new TreeMap<>();
+        for (Map.Entry<String, CommandMetrics> command : commands.entrySet()) {
+            received.put(command.getKey(), command.getValue().getFramesReceived());
+        }
+        return received;
+    }
+
+    @Override
+    public long getFramesSent() {
+        return framesSent.sum();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    @Override
+    public long getWriteCalls() {
+        return writeCalls.sum();
+    }
+
+    @Override
+    public long getQueuedWrites() {
+        return queuedWrites.sum();
+    }
+
+    @Override
+    public Map<String, Long> getSlowConsumerEvents() {
+        Map<String, Long> events = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> policy : slowConsumerEvents.entrySet()) {
+            events.put(policy.getKey(), policy.getValue().sum());
+        }
+        return events;
+    }
+
+    @Override
+    public long getActorPoolPendingTasks() {
+        return pendingTasks.sum();
+    }
+
+    @Override
+    public int getChannelCount() {
+        return channelSubscribers.get().size();
+    }
+
+    @Override
+    public Map<String, Integer> getChannelSubscribers() {
+        return new TreeMap<>(channelSubscribers.get());
+    }
+
+    @Override
+    public Map<Integer, Integer> getWriteBacklogs() {
+        return new TreeMap<>(writeBacklogs.get());
+    }
+
+    @Override
+    public long getHistoryBytes() {
+        long total = 0;
+        for (long bytes : historyBytes.get().values()) {
+            total += bytes;
+        }
+        return total;
+    }
+
+    @Override
+    public Map<String, Long> getChannelHistoryBytes() {
+        return new TreeMap<>(historyBytes.get());
+    }
+
+    @Override
+    public int getHistoryChannels() {
+        return historyChannels.getAsInt();
+    }
+
+    @Override
+    public long getHistoriesEvicted() {
+        return historiesEvicted.sum();
+    }
+}
@@ -0,0 +1,69 @@
+package bgu.spl.net.srv.metrics;
+
+import java.util.Map;
+
+/**
+ * Server-wide counters and gauges, registered as bgu.spl.net:type=Server.
+ */
+public interface ServerMetricsMXBean {
+
+    long getActiveConnections();
+
+    long getConnectionsOpened();
+
+    /**
+     * @return frames received per STOMP command since start
+     */
+    Map<String, Long> getFramesReceived();
+
+    long getFramesSent();
+
+    long getBytesWritten();
+
+    long getWriteCalls();
+
+    /**
+     * @return frames queued in the reactor's write queues and not yet written
+     */
+    long getQueuedWrites();
+
+    /**
+     * @return how many times each write queue overflow policy fired: frames dropped for
+     * DROP_OLDEST and DROP_NEWEST, connections disconnected for DISCONNECT
+     */
+    Map<String, Long> getSlowConsumerEvents();
+
+    /**
+     * @return tasks submitted to the actor thread pool and not yet finished
+     */
+    long getActorPoolPendingTasks();
+
+    int getChannelCount();
+
+    Map<String, Integer> getChannelSubscribers();
+
+    /**
+     * @return pending outgoing frames of every connection that has any
+     */
+    Map<Integer, Integer> getWriteBacklogs();
+
+    /**
+     * @return bytes retained for replay in the history of all channels
+     */
+    long getHistoryBytes();
+
+    /**
+     * @return bytes retained for replay per channel, each capped by -Dstomp.history.bytes
+     */
+    Map<String, Long> getChannelHistoryBytes();
+
+    /**
+     * @return channels with a history, capped by -Dstomp.history.channels
+     */
+    int getHistoryChannels();
+
+    /**
+     * @return channel histories dropped since start to stay under -Dstomp.history.channels, longest idle first
+     */
+    long getHistoriesEvicted();
+}
@@ -0,0 +1,229 @@
+package bgu.spl.net.impl.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import bgu.spl.net.impl.data.AuditLog.AuditRecord;
+
+class AuditLogTest {
+    private static final String LOGINS = "INSERT INTO login_history (username, login_time) VALUES ";
+    private static final String FILES = "INSERT INTO file_tracking (username, filename, upload_time, game_channel) VALUES ";
+    private ServerSocket endpoint;
+    private final List<String> received = Collections.synchronizedList(new ArrayList<>());
+    private final CountDownLatch firstStatement = new CountDownLatch(1);
+    private final CountDownLatch answering = new CountDownLatch(1);
+    private SqlConnectionPool pool;
+
+    // Records every NUL terminated statement and answers once answering is counted down:
+    // "error" for a statement with a 'dup' row, as for a duplicate key, and "ok" for any other
+    @BeforeEach
+    void startEndpoint() throws IOException {
+        endpoint = new ServerSocket(0);
+        Thread acceptor = new Thread(() -> {
+            while (!endpoint.isClosed()) {
+                try {
+                    Socket client = endpoint.accept();
+                    new Thread(() -> serve(client)).start();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+        pool = new SqlConnectionPool("127.0.0.1", endpoint.getLocalPort(), 1);
+    }
+
+    private void serve(Socket client) {
+        try (Socket s = client) {
+            InputStream in = s.getInputStream();
+            OutputStream out = s.getOutputStream();
+            ByteArrayOutputStream statement = new ByteArrayOutputStream();
+            int b;
+            while ((b = in.read()) != -1) {
+                if (b != 0) {
+                    statement.write(b);
+                    continue;
+                }
+                String sql = new String(statement.toByteArray(), StandardCharsets.UTF_8);
+                received.add(sql);
+                statement.reset();
+                firstStatement.countDown();
+                answering.await();
+                String response = sql.contains("('dup'") ? "error: UNIQUE constraint failed" : "ok";
+                out.write((response + "\0").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            }
+        } catch (IOException | InterruptedException ignored) {
+        }
+    }
+
+    @AfterEach
+    void stopEndpoint() throws IOException {
+        answering.countDown();
+        pool.close();
+        endpoint.close();
+    }
+
+    @Test
+    void testConsecutiveInsertsBecomeOneMultiRowInsert() {
+        List<String> statements = AuditLog.toStatements(Arrays.asList(
+                new AuditRecord(LOGINS, "('a', 't1')"),
+                new AuditRecord(LOGINS, "('b', 't2')"),
+                new AuditRecord(LOGINS, "('c', 't3')")));
+
+        assertEquals(Arrays.asList(LOGINS + "('a', 't1'), ('b', 't2'), ('c', 't3')"), statements);
+    }
+
+    @Test
+    void testStatementsKeepTheirOrderAroundInserts() {
+        String logout = "UPDATE login_history SET logout_time='t3' WHERE username='a'";
+        List<String> statements = AuditLog.toStatements(Arrays.asList(
+                new AuditRecord(LOGINS, "('a', 't1')"),
+                new AuditRecord(FILES, "('a', 'f', 't2', '/g')"),
+                new AuditRecord(null, logout),
+                new AuditRecord(LOGINS, "('a', 't4')")));
+
+        assertEquals(Arrays.asList(
+                LOGINS + "('a', 't1')",
+                FILES + "('a', 'f', 't2', '/g')",
+                logout,
+                LOGINS + "('a', 't4')"), statements);
+    }
+
+    @Test
+    void testDropPolicyCountsRecordsAfterClose() {
+        AuditLog log = new AuditLog(new SqlConnectionPool("127.0.0.1", 1, 1), 1, 1, 1, AuditLog.OverflowPolicy.DROP);
+        log.close();
+
+        log.insert(LOGINS, "('late', 't')");
+
+        assertEquals(1, log.droppedCount());
+        assertEquals(0, log.failedCount());
+    }
+
+    @Test
+    void testWriterBatchesConsecutiveInsertsIntoOneStatement() {
+        answering.countDown();
+        AuditLog log = new AuditLog(pool, 16, 3, 60_000, AuditLog.OverflowPolicy.BLOCK);
+        log.insert(LOGINS, "('a', 't1')");
+        log.insert(LOGINS, "('b', 't2')");
+        log.insert(LOGINS, "('c', 't3')");
+        log.flush();
+
+        assertEquals(Arrays.asList(LOGINS + "('a', 't1'), ('b', 't2'), ('c', 't3')"), received);
+        log.close();
+    }
+
+    @Test
+    void testARejectedMultiRowInsertIsRetriedRowByRow() {
+        answering.countDown();
+        AuditLog log = new AuditLog(pool, 16, 3, 60_000, AuditLog.OverflowPolicy.BLOCK);
+        log.insert(LOGINS, "('a', 't1')");
+        log.insert(LOGINS, "('dup', 't2')");
+        log.insert(LOGINS, "('b', 't3')");
+        log.flush();
+
+        assertEquals(Arrays.asList(
+                LOGINS + "('a', 't1'), ('dup', 't2'), ('b', 't3')",
+                LOGINS + "('a', 't1')",
+                LOGINS + "('dup', 't2')",
+                LOGINS + "('b', 't3')"), received);
+        assertEquals(1, log.failedCount());
+        log.close();
+    }
+
+    @Test
+    void testARejectedStatementCountsAsFailed() {
+        answering.countDown();
+        AuditLog log = new AuditLog(pool, 16, 100, 60_000, AuditLog.OverflowPolicy.BLOCK);
+        log.insert(LOGINS, "('dup', 't1')");
+        log.statement("UPDATE login_history SET logout_time='t2' WHERE username='a'");
+        log.flush();
+
+        assertEquals(2, received.size());
+        assertEquals(1, log.failedCount());
+        log.close();
+    }
+
+    @Test
+    void testFlushWritesAPartialBatchWithoutWaitingOutTheInterval() {
+        answering.countDown();
+        String logout = "UPDATE login_history SET logout_time='t2' WHERE username='a'";
+        AuditLog log = new AuditLog(pool, 16, 100, 60_000, AuditLog.OverflowPolicy.BLOCK);
+        log.insert(LOGINS, "('a', 't1')");
+        log.statement(logout);
+
+        long start = System.nanoTime();
+        log.flush();
+
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(30));
+        assertEquals(Arrays.asList(LOGINS + "('a', 't1')", logout), received);
+        log.close();
+    }
+
+    @Test
+    void testDropPolicyCountsRecordsThatFindTheQueueFull() throws InterruptedException {
+        AuditLog log = new AuditLog(pool, 1, 1, 0, AuditLog.OverflowPolicy.DROP);
+        log.insert(LOGINS, "('a', 't1')");
+        // the writer now waits on the endpoint with a, b takes the one queue slot and c finds it full
+        assertTrue(firstStatement.await(5, TimeUnit.SECONDS));
+        log.insert(LOGINS, "('b', 't2')");
+        log.insert(LOGINS, "('c', 't3')");
+        assertEquals(1, log.droppedCount());
+
+        answering.countDown();
+        log.close();
+
+        assertEquals(Arrays.asList(LOGINS + "('a', 't1')", LOGINS + "('b', 't2')"), received);
+        assertEquals(0, log.failedCount());
+    }
+
+    @Test
+    void testRecordsRacingCloseAreWrittenOrCounted() throws InterruptedException {
+        answering.countDown();
+        int threads = 4;
+        int perThread = 500;
+        AuditLog log = new AuditLog(pool, 8, 16, 1, AuditLog.OverflowPolicy.BLOCK);
+        List<Thread> appenders = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread appender = new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    log.insert(LOGINS, "('u', 't')");
+                }
+            });
+            appenders.add(appender);
+            appender.start();
+        }
+        log.close();
+        for (Thread appender : appenders) {
+            appender.join();
+        }
+
+        int written = 0;
+        synchronized (received) {
+            for (String statement : received) {
+                written += statement.split("\\('u'", -1).length - 1;
+            }
+        }
+        assertEquals(0, log.failedCount());
+        assertEquals(threads * perThread, written + log.droppedCount());
+    }
+}
@@ -0,0 +1,67 @@
+package bgu.spl.net.impl.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.Test;
+
+class CredentialTableTest {
+
+    private static String hex(String text) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : text.getBytes(StandardCharsets.UTF_8)) {
+            hex.append(String.format("%02X", b));
+        }
+        return hex.toString();
+    }
+
+    private static CredentialTable read(String response) throws IOException {
+        return CredentialTable.read(new ByteArrayInputStream(response.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void testReadsHexRowsAsTheSqlServiceSendsThem() throws IOException {
+        // the separators inside values are why the query asks for hex
+        CredentialTable users = read(hex("meni") + "," + hex("films") + "|" + hex("a,b|c") + "," + hex("p|w,")
+                + "|" + hex("דני") + "," + hex("סיסמה") + "|" + hex("nopass") + ",");
+
+        assertEquals(4, users.size());
+        assertEquals("films", users.password("meni"));
+        assertEquals("p|w,", users.password("a,b|c"));
+        assertEquals("סיסמה", users.password("דני"));
+        assertEquals("", users.password("nopass"));
+        assertNull(users.password("men"));
+        assertEquals(0, read("empty").size());
+    }
+
+    @Test
+    void testErrorsAndUnexpectedResponsesFailTheRead() {
+        assertThrows(IOException.class, () -> read("error: no such table: users"));
+        assertThrows(IOException.class, () -> read("SUCCESS"));
+        assertThrows(IOException.class, () -> read(hex("meni")));
+        assertThrows(IOException.class, () -> read(""));
+    }
+
+    @Test
+    void testManyUsersKeepTheFirstPasswordOfAName() {
+        CredentialTable users = new CredentialTable();
+        for (int i = 0; i < 100_000; i++) {
+            byte[] name = ("user" + i).getBytes(StandardCharsets.UTF_8);
+            byte[] password = ("pw" + i).getBytes(StandardCharsets.UTF_8);
+            users.putIfAbsent(name, name.length, password, password.length);
+        }
+        byte[] again = "user7".getBytes(StandardCharsets.UTF_8);
+        users.putIfAbsent(again, again.length, again, again.length);
+
+        assertEquals(100_000, users.size());
+        for (int i = 0; i < 100_000; i += 997) {
+            assertEquals("pw" + i, users.password("user" + i));
+        }
+        assertEquals("pw7", users.password("user7"));
+        assertNull(users.password("user100000"));
+    }
+}
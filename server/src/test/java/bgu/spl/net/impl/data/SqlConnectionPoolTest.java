@@ -0,0 +1,148 @@
+package bgu.spl.net.impl.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class SqlConnectionPoolTest {
+    private ServerSocket endpoint;
+    private final AtomicInteger acceptedConnections = new AtomicInteger();
+    private final AtomicInteger servedStatements = new AtomicInteger();
+    private volatile int closeAfterStatements = Integer.MAX_VALUE;
+    private volatile boolean answering = true;
+
+    // Echoes every NUL terminated statement back as "ok:<statement>"
+    @BeforeEach
+    void startEndpoint() throws IOException {
+        endpoint = new ServerSocket(0);
+        Thread acceptor = new Thread(() -> {
+            while (!endpoint.isClosed()) {
+                try {
+                    Socket client = endpoint.accept();
+                    acceptedConnections.incrementAndGet();
+                    new Thread(() -> serve(client)).start();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    private void serve(Socket client) {
+        try (Socket s = client) {
+            InputStream in = s.getInputStream();
+            OutputStream out = s.getOutputStream();
+            ByteArrayOutputStream statement = new ByteArrayOutputStream();
+            int served = 0;
+            int b;
+            while ((b = in.read()) != -1) {
+                if (b != 0) {
+                    statement.write(b);
+                    continue;
+                }
+                servedStatements.incrementAndGet();
+                if (answering) {
+                    out.write(("ok:" + new String(statement.toByteArray(), StandardCharsets.UTF_8) + "\0").getBytes(StandardCharsets.UTF_8));
+                    out.flush();
+                }
+                statement.reset();
+                if (++served >= closeAfterStatements) {
+                    return;
+                }
+            }
+        } catch (IOException ignored) {
+        }
+    }
+
+    @AfterEach
+    void stopEndpoint() throws IOException {
+        endpoint.close();
+    }
+
+    @Test
+    void testPipelinedResponsesKeepStatementOrder() throws IOException {
+        try (SqlConnectionPool pool = new SqlConnectionPool("127.0.0.1", endpoint.getLocalPort(), 1)) {
+            List<String> responses = pool.executeAll(Arrays.asList("INSERT a", "INSERT b", "UPDATE c"));
+
+            assertEquals(Arrays.asList("ok:INSERT a", "ok:INSERT b", "ok:UPDATE c"), responses);
+        }
+    }
+
+    @Test
+    void testConnectionIsReused() throws IOException {
+        try (SqlConnectionPool pool = new SqlConnectionPool("127.0.0.1", endpoint.getLocalPort(), 1)) {
+            for (int i = 0; i < 10; i++) {
+                assertEquals("ok:SELECT " + i, pool.execute("SELECT " + i));
+            }
+
+            assertEquals(1, acceptedConnections.get());
+        }
+    }
+
+    @Test
+    void testReconnectsAfterPeerDropsConnection() throws IOException {
+        closeAfterStatements = 1;
+        try (SqlConnectionPool pool = new SqlConnectionPool("127.0.0.1", endpoint.getLocalPort(), 1)) {
+            assertEquals("ok:first", pool.execute("first"));
+            // written before the drop showed: the service might have run it, so it is not sent again
+            assertThrows(IOException.class, () -> pool.execute("second"));
+            assertEquals("ok:third", pool.execute("third"));
+
+            assertEquals(2, acceptedConnections.get());
+            assertEquals(2, servedStatements.get());
+        }
+    }
+
+    @Test
+    void testGivesUpOnAServiceThatDoesNotAnswer() throws IOException {
+        answering = false;
+        try (SqlConnectionPool pool = new SqlConnectionPool("127.0.0.1", endpoint.getLocalPort(), 1, 200)) {
+            assertThrows(SocketTimeoutException.class, () -> pool.executeAll(Arrays.asList("INSERT a", "INSERT b")));
+
+            answering = true;
+            assertEquals("ok:SELECT 1", pool.execute("SELECT 1"));
+            assertEquals(2, acceptedConnections.get());
+            assertEquals(3, servedStatements.get());
+        }
+    }
+
+    @Test
+    void testQueryStreamsResponseAndSkipsWhatIsLeftUnread() throws IOException {
+        try (SqlConnectionPool pool = new SqlConnectionPool("127.0.0.1", endpoint.getLocalPort(), 1)) {
+            StringBuilder big = new StringBuilder();
+            for (int i = 0; i < 5000; i++) {
+                big.append(i).append('|');
+            }
+            String streamed = pool.query("SELECT " + big, response -> {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                int b;
+                while ((b = response.read()) != -1) {
+                    bytes.write(b);
+                }
+                return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+            });
+            assertEquals("ok:SELECT " + big, streamed);
+
+            // a reader that stops early leaves the connection at the next response
+            assertEquals('o', (int) pool.query("SELECT " + big, InputStream::read));
+            assertEquals("ok:SELECT 1", pool.execute("SELECT 1"));
+            assertEquals(1, acceptedConnections.get());
+        }
+    }
+}
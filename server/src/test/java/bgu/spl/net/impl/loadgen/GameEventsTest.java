@@ -0,0 +1,37 @@
+package bgu.spl.net.impl.loadgen;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import org.junit.jupiter.api.Test;
+
+class GameEventsTest {
+
+    @Test
+    void testEventRenderedLikeTheClientReport() {
+        GameEvents game = GameEvents.parse("{\"team a\": \"Germany\", \"team b\": \"Japan\", \"events\": [{"
+                + "\"event name\": \"goal\", \"time\": 1980, \"event owner\": \"\","
+                + "\"general game updates\": {}, \"team a updates\": {\"goals\": \"1\", \"possession\": \"90%\"},"
+                + "\"team b updates\": {\"possession\": \"10%\"}, \"description\": \"GOAL! \\\"Germany\\\" scores!\"}]}");
+
+        assertEquals("Germany_Japan", game.channelName());
+        assertEquals("team a:Germany\nteam b:Japan\nevent name:goal\ntime:1980\n"
+                + "general game updates:\n"
+                + "team a updates:\n    goals:1\n    possession:90%\n"
+                + "team b updates:\n    possession:10%\n"
+                + "description:\nGOAL! \"Germany\" scores!\n", game.eventBodies().get(0));
+    }
+
+    @Test
+    void testLoadsTheClientDataFiles() throws IOException {
+        List<GameEvents> games = GameEvents.loadAll(Paths.get("..", "client", "data"));
+
+        assertFalse(games.isEmpty());
+        for (GameEvents game : games) {
+            assertFalse(game.eventBodies().isEmpty());
+        }
+    }
+}
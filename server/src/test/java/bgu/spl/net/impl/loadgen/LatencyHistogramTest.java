@@ -0,0 +1,54 @@
+package bgu.spl.net.impl.loadgen;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+class LatencyHistogramTest {
+
+    @Test
+    void testSmallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+
+        assertEquals(100, histogram.count());
+        assertEquals(50, histogram.valueAt(0.50));
+        assertEquals(99, histogram.valueAt(0.99));
+        assertEquals(100, histogram.valueAt(1.0));
+    }
+
+    @Test
+    void testLargeValuesStayWithinBucketPrecision() {
+        long previousIndexHigh = -1;
+        for (long value = 1; value > 0 && value < Long.MAX_VALUE / 3; value = value * 3 + 1) {
+            int index = LatencyHistogram.BUCKETS.indexOf(value);
+            long high = LatencyHistogram.BUCKETS.highestValueOf(index);
+            assertTrue(high >= value, "bucket of " + value + " ends at " + high);
+            assertTrue(high - value <= value / 63, "bucket of " + value + " is too wide: " + high);
+            assertTrue(high > previousIndexHigh);
+            previousIndexHigh = high;
+        }
+    }
+
+    @Test
+    void testMergedPercentiles() {
+        LatencyHistogram fast = new LatencyHistogram();
+        LatencyHistogram slow = new LatencyHistogram();
+        for (int i = 0; i < 990; i++) {
+            fast.record(200);
+        }
+        for (int i = 0; i < 10; i++) {
+            slow.record(50_000);
+        }
+
+        fast.add(slow);
+
+        assertEquals(1000, fast.count());
+        assertEquals(50_000, fast.max());
+        assertTrue(fast.valueAt(0.50) >= 200 && fast.valueAt(0.50) < 204);
+        assertTrue(fast.valueAt(0.99) < 204);
+        assertEquals(50_000, fast.valueAt(0.999));
+    }
+}
@@ -0,0 +1,101 @@
+package bgu.spl.net.impl.stomp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+class GameStateTest {
+
+    private static String report(String user, int time, String general, String teamA, String teamB) {
+        return "user:" + user + "\n"
+                + "team a:germany\n"
+                + "team b:japan\n"
+                + "event name:event at " + time + "\n"
+                + "time:" + time + "\n"
+                + "general game updates:\n" + general
+                + "team a updates:\n" + teamA
+                + "team b updates:\n" + teamB
+                + "description:\nteam a updates:\n    not:an update\n";
+    }
+
+    private static GameEvent parse(String body) {
+        // parsed in place, the way the SEND path finds it inside the MESSAGE frame
+        StringBuilder frame = new StringBuilder("MESSAGE\nmessage-id:1\n\n").append(body).append("\n\u0000");
+        int start = frame.indexOf("\n\n") + 2;
+        return GameEvent.parse(frame, start, frame.length() - 2);
+    }
+
+    @Test
+    void testParsesTheClientReportLayout() {
+        GameEvent event = parse(report("meni", 1980, "    active:true\n", "    goals:1\n    possession:51%\n", ""));
+
+        assertEquals("meni", event.user);
+        assertEquals("germany", event.teamA);
+        assertEquals("japan", event.teamB);
+        assertEquals("event at 1980", event.name);
+        assertEquals(1980, event.time);
+        assertEquals(2, event.generalUpdates.size());
+        assertEquals("goals", event.teamAUpdates.get(0));
+        assertEquals("51%", event.teamAUpdates.get(3));
+        assertEquals(0, event.teamBUpdates.size());
+        assertNull(parse("just some text\nwith: a colon\n"));
+    }
+
+    @Test
+    void testLatestGameTimeWinsWhateverTheArrivalOrder() {
+        GameState game = new GameState();
+        game.apply("meni", parse(report("meni", 2000, "    active:false\n", "    goals:2\n", "")));
+        game.apply("meni", parse(report("meni", 1000, "    active:true\n", "    goals:1\n", "    goals:0\n")));
+        game.apply("meni", parse(report("meni", 2000, "", "    goals:3\n", "")));
+
+        StringBuilder state = new StringBuilder();
+        assertEquals(3, game.appendTo(state, null));
+        assertEquals("team a:germany\nteam b:japan\n"
+                + "general game updates:\n    active:false\n"
+                + "team a updates:\n    goals:3\n"
+                + "team b updates:\n    goals:0\n", state.toString());
+    }
+
+    @Test
+    void testKeepsEachReporterApart() {
+        GameState game = new GameState();
+        game.apply("meni", parse(report("meni", 10, "", "    goals:1\n", "")));
+        game.apply("rick", parse(report("rick", 20, "", "    goals:5\n", "")));
+
+        StringBuilder meni = new StringBuilder();
+        StringBuilder nobody = new StringBuilder();
+        StringBuilder all = new StringBuilder();
+        assertEquals(1, game.appendTo(meni, "meni"));
+        assertEquals(0, game.appendTo(nobody, "morty"));
+        assertEquals(2, game.appendTo(all, null));
+        assertEquals("team a:germany\nteam b:japan\ngeneral game updates:\nteam a updates:\n    goals:1\nteam b updates:\n",
+                meni.toString());
+        assertEquals("general game updates:\nteam a updates:\nteam b updates:\n", nobody.toString());
+        assertTrue(all.toString().contains("    goals:5\n"));
+    }
+
+    @Test
+    void testForgetsTheChannelsLongestWithoutAReport() {
+        GameStates games = new GameStates(2);
+        games.apply("/a", "meni", parse(report("meni", 10, "", "    goals:1\n", "")));
+        games.apply("/b", "meni", parse(report("meni", 10, "", "    goals:1\n", "")));
+        games.apply("/a", "meni", parse(report("meni", 20, "", "    goals:2\n", "")));
+        games.apply("/c", "meni", parse(report("meni", 10, "", "    goals:1\n", "")));
+
+        assertNull(games.of("/b"));
+        StringBuilder a = new StringBuilder();
+        assertEquals(2, games.of("/a").appendTo(a, null));
+        assertTrue(a.toString().contains("    goals:2\n"));
+        assertEquals(1, games.of("/c").appendTo(new StringBuilder(), null));
+    }
+
+    @Test
+    void testSummaryIsACommand() {
+        StompFrame frame = new StompFrame();
+        frame.parse("SUMMARY\ndestination:/germany_japan\nuser:meni\n\n\u0000");
+
+        assertEquals(StompFrame.Command.SUMMARY, frame.command());
+        assertEquals("meni", frame.header("user"));
+    }
+}
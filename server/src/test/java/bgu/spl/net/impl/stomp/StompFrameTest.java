@@ -0,0 +1,71 @@
+package bgu.spl.net.impl.stomp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+class StompFrameTest {
+    private final StompFrame frame = new StompFrame();
+
+    @Test
+    void testParsesCommandHeadersAndBody() {
+        assertTrue(frame.parse("SEND\ndestination:/germany_japan\nreceipt:7\n\nuser: a\nteam a: germany\n\u0000"));
+
+        assertEquals(StompFrame.Command.SEND, frame.command());
+        assertEquals("/germany_japan", frame.header("destination"));
+        assertEquals("7", frame.header("receipt"));
+        assertNull(frame.header("id"));
+        assertEquals("user: a\nteam a: germany\n", frame.body());
+    }
+
+    @Test
+    void testSkipsLeadingWhitespaceAndTrimsHeaders() {
+        frame.parse("\n\r\nSUBSCRIBE \r\n id : 3 \r\ndestination:/a:b\r\n\r\n");
+
+        assertEquals(StompFrame.Command.SUBSCRIBE, frame.command());
+        assertEquals("3", frame.header("id"));
+        assertEquals("/a:b", frame.header("destination"));
+        assertEquals("", frame.body());
+    }
+
+    @Test
+    void testContentLengthCountsUtf8BytesAndKeepsNuls() {
+        // 2 + 1 + 2 + 1 bytes: é takes two
+        frame.parse("SEND\ndestination:/g\ncontent-length:6\n\n\u00e9\u0000\u00e9!");
+
+        assertEquals("\u00e9\u0000\u00e9!", frame.body());
+
+        frame.parse("SEND\ncontent-length:1\n\n\u00e9\u0000");
+        // the length ends inside a character, so the NUL ends the body
+        assertEquals("\u00e9", frame.body());
+    }
+
+    @Test
+    void testEmptyAndUnknownFrames() {
+        assertFalse(frame.parse(" \n\n"));
+
+        frame.parse("BEGIN\ntransaction:t\n\n");
+        assertEquals(StompFrame.Command.UNKNOWN, frame.command());
+        assertEquals("BEGIN", frame.commandName());
+    }
+
+    @Test
+    void testReuseDropsPreviousHeaders() {
+        frame.parse("CONNECT\nlogin:a\npasscode:b\naccept-version:1.2\nhost:h\nh1:1\nh2:2\nh3:3\nh4:4\nh5:5\n\n");
+        assertEquals("5", frame.header("h5"));
+
+        frame.parse("DISCONNECT\nreceipt:1\n\n");
+        assertEquals(1, frame.headerCount());
+        assertNull(frame.header("login"));
+    }
+
+    @Test
+    void testFrameWithoutBlankLineHasEmptyBody() {
+        frame.parse("DISCONNECT\nreceipt:9");
+
+        assertEquals("9", frame.header("receipt"));
+        assertEquals(0, frame.bodyLength());
+    }
+}
@@ -0,0 +1,152 @@
+package bgu.spl.net.impl.stomp;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+import bgu.spl.net.api.MessageEncoderDecoder;
+
+class StompMessageEncoderDecoderTest {
+
+    private static ByteBuffer bytes(String s) {
+        return ByteBuffer.wrap(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testDecodesEveryFrameInOneBuffer() {
+        StompMessageEncoderDecoder encdec = new StompMessageEncoderDecoder();
+        ByteBuffer buffer = bytes("CONNECT\nlogin:a\n\n\u0000SEND\ndestination:/g\n\nhi\u0000\u0000");
+
+        List<String> frames = encdec.decode(buffer);
+
+        assertEquals(Arrays.asList("CONNECT\nlogin:a\n\n", "SEND\ndestination:/g\n\nhi", ""), frames);
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    void testPartialFrameCarriesAcrossReads() {
+        StompMessageEncoderDecoder encdec = new StompMessageEncoderDecoder();
+        byte[] frame = "SEND\ndestination:/g\n\nscore: 2–1\u0000".getBytes(StandardCharsets.UTF_8);
+        List<String> frames = new ArrayList<>();
+
+        // split inside the three byte dash too
+        for (int i = 0; i < frame.length; i += 5) {
+            ByteBuffer direct = ByteBuffer.allocateDirect(5);
+            direct.put(frame, i, Math.min(5, frame.length - i)).flip();
+            frames.addAll(encdec.decode(direct));
+        }
+
+        assertEquals(Arrays.asList("SEND\ndestination:/g\n\nscore: 2–1"), frames);
+    }
+
+    @Test
+    void testFrameLargerThanDecoderArray() {
+        StompMessageEncoderDecoder encdec = new StompMessageEncoderDecoder();
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            body.append((char) ('a' + i % 26));
+        }
+
+        List<String> frames = encdec.decode(bytes("SEND\n\n" + body + "\u0000SEND\n\nx\u0000"));
+
+        assertEquals(Arrays.asList("SEND\n\n" + body, "SEND\n\nx"), frames);
+        assertTrue(encdec.decode(bytes("")).isEmpty());
+    }
+
+    @Test
+    void testMatchesPerByteDecoding() {
+        StompMessageEncoderDecoder bulk = new StompMessageEncoderDecoder();
+        StompMessageEncoderDecoder perByteDelegate = new StompMessageEncoderDecoder();
+        // only decodeNextByte is overridden, so this one runs the interface's default decode
+        MessageEncoderDecoder<String> perByte = new MessageEncoderDecoder<String>() {
+            @Override
+            public String decodeNextByte(byte nextByte) {
+                return perByteDelegate.decodeNextByte(nextByte);
+            }
+
+            @Override
+            public byte[] encode(String message) {
+                return perByteDelegate.encode(message);
+            }
+        };
+        String stream = "SUBSCRIBE\nid:1\n\n\u0000\u0000SEND\n\na\u0000UNSUBSCRIBE\nid:1\n\n\u0000DISCONN";
+
+        List<String> expected = new ArrayList<>();
+        List<String> actual = new ArrayList<>();
+        for (int chunk = 1; chunk < 8; chunk++) {
+            byte[] raw = stream.getBytes(StandardCharsets.UTF_8);
+            for (int i = 0; i < raw.length; i += chunk) {
+                int n = Math.min(chunk, raw.length - i);
+                expected.addAll(perByte.decode(ByteBuffer.wrap(raw, i, n)));
+                actual.addAll(bulk.decode(ByteBuffer.wrap(raw, i, n)));
+            }
+            // finish the trailing partial frame before the next chunk size
+            expected.addAll(perByte.decode(bytes("\u0000")));
+            actual.addAll(bulk.decode(bytes("\u0000")));
+        }
+
+        assertEquals(expected, actual);
+        assertEquals(5 * 7, actual.size());
+    }
+
+    @Test
+    void testContentLengthBodyMayHoldNuls() {
+        StompMessageEncoderDecoder encdec = new StompMessageEncoderDecoder();
+        String binary = "SEND\ndestination:/g\ncontent-length:5\n\na\u0000b\u0000c\u0000";
+        byte[] raw = (binary + "SEND\ndestination:/g\n\nplain\u0000").getBytes(StandardCharsets.UTF_8);
+        List<String> frames = new ArrayList<>();
+
+        for (int i = 0; i < raw.length; i += 3) {
+            frames.addAll(encdec.decode(ByteBuffer.wrap(raw, i, Math.min(3, raw.length - i))));
+        }
+
+        assertEquals(Arrays.asList("SEND\ndestination:/g\ncontent-length:5\n\na\u0000b\u0000c",
+                "SEND\ndestination:/g\n\nplain"), frames);
+    }
+
+    @Test
+    void testLargeContentLengthBodyAfterHeartBeats() {
+        StompMessageEncoderDecoder encdec = new StompMessageEncoderDecoder();
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 70_000; i++) {
+            body.append((char) ('a' + i % 26));
+        }
+        String frame = "SEND\r\ndestination:/g\r\ncontent-length:" + body.length() + "\r\n\r\n" + body;
+
+        List<String> frames = encdec.decode(bytes("\n\r\n" + frame + "\u0000\n"));
+
+        assertEquals(Arrays.asList("\n\r\n" + frame), frames);
+    }
+
+    @Test
+    void testWrongContentLengthFallsBackToNul() {
+        StompMessageEncoderDecoder encdec = new StompMessageEncoderDecoder();
+
+        List<String> frames = encdec.decode(bytes("SEND\ncontent-length:2\n\nlonger\u0000"
+                + "SEND\ncontent-length:x\n\nbad\u0000"));
+
+        assertEquals(Arrays.asList("SEND\ncontent-length:2\n\nlonger", "SEND\ncontent-length:x\n\nbad"), frames);
+    }
+
+    @Test
+    void testOverlongContentLengthKeepsTheNextFrame() {
+        StompMessageEncoderDecoder encdec = new StompMessageEncoderDecoder();
+        String next = "SEND\ndestination:/g\n\nthe next frame, long enough to reach the announced end\u0000";
+        byte[] raw = ("SEND\ncontent-length:20\n\nshort\u0000" + next).getBytes(StandardCharsets.UTF_8);
+        List<String> frames = new ArrayList<>();
+
+        for (int i = 0; i < raw.length; i += 7) {
+            frames.addAll(encdec.decode(ByteBuffer.wrap(raw, i, Math.min(7, raw.length - i))));
+        }
+
+        assertEquals(Arrays.asList("SEND\ncontent-length:20\n\nshort",
+                "SEND\ndestination:/g\n\nthe next frame, long enough to reach the announced end"), frames);
+    }
+}
@@ -9,6 +9,7 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import bgu.spl.net.impl.data.Database;
 import bgu.spl.net.srv.ConnectionsImpl;
 
 class StompMessagingProtocolImplIntegrationTest {
@@ -39,6 +40,8 @@ class StompMessagingProtocolImplIntegrationTest {
 
     @BeforeEach
     void setUp() {
+        // every test connects as connection 1, and the database outlives the test that logged it in
+        Database.getInstance().logout(1);
         protocol = new StompMessagingProtocolImpl();
         connections = new ConnectionsImpl<>();
         handler = new MockConnectionHandler();
@@ -105,4 +108,84 @@ class StompMessagingProtocolImplIntegrationTest {
                        "Response should be RECEIPT or ERROR, got: " + response);
         }
     }
+
+    private String lastResponse() {
+        List<String> frames = handler.getSentFrames();
+        return frames.get(frames.size() - 1);
+    }
+
+    @Test
+    void testSendNeedsALiveSubscriptionToTheDestination() {
+        protocol.process("CONNECT\naccept-version:1.2\nhost:stomp.cs.bgu.ac.il\nlogin:index-" + System.nanoTime()
+                + "\npasscode:pw\n\n\0");
+        assertTrue(lastResponse().startsWith("CONNECTED"), lastResponse());
+        protocol.process("SUBSCRIBE\ndestination:/a\nid:1\n\n\0");
+        protocol.process("SUBSCRIBE\ndestination:/a\nid:2\n\n\0");
+        protocol.process("SUBSCRIBE\ndestination:/b\nid:3\n\n\0");
+        // reusing an id moves it to the new destination
+        protocol.process("SUBSCRIBE\ndestination:/c\nid:3\n\n\0");
+
+        protocol.process("SEND\ndestination:/a\nreceipt:1\n\nhello\n\0");
+        assertTrue(lastResponse().startsWith("RECEIPT"), lastResponse());
+        protocol.process("UNSUBSCRIBE\nid:1\n\n\0");
+        // the connection still hears /a, under the id it kept there
+        handler.clear();
+        protocol.process("SEND\ndestination:/a\nreceipt:2\n\nhello\n\0");
+        assertTrue(lastResponse().startsWith("RECEIPT"), lastResponse());
+        assertTrue(handler.getSentFrames().get(0).startsWith("MESSAGE\nsubscription:2\n"), handler.getSentFrames().get(0));
+        protocol.process("SEND\ndestination:/c\nreceipt:3\n\nhello\n\0");
+        assertTrue(lastResponse().startsWith("RECEIPT"), lastResponse());
+        // moving id 3 left /b
+        assertEquals(1, connections.subscriberCount("/a"));
+        assertEquals(1, connections.subscriberCount("/c"));
+        assertEquals(0, connections.subscriberCount("/b"));
+
+        protocol.process("SEND\ndestination:/b\nreceipt:4\n\nhello\n\0");
+        assertTrue(lastResponse().startsWith("ERROR\nmessage:Not Subscribed"), lastResponse());
+    }
+
+    @Test
+    void testUnsubscribingTheLastIdLeavesTheChannel() {
+        protocol.process("CONNECT\naccept-version:1.2\nhost:stomp.cs.bgu.ac.il\nlogin:leave-last-" + System.nanoTime()
+                + "\npasscode:pw\n\n\0");
+        protocol.process("SUBSCRIBE\ndestination:/a\nid:1\n\n\0");
+        protocol.process("SUBSCRIBE\ndestination:/a\nid:2\n\n\0");
+
+        protocol.process("UNSUBSCRIBE\nid:2\n\n\0");
+        assertEquals(1, connections.subscriberCount("/a"));
+        protocol.process("UNSUBSCRIBE\nid:1\nreceipt:5\n\n\0");
+        assertTrue(lastResponse().startsWith("RECEIPT"), lastResponse());
+        assertEquals(0, connections.subscriberCount("/a"));
+    }
+
+    @Test
+    void testReportsAreCreditedToTheSender() {
+        String login = "reporter-" + System.nanoTime();
+        String channel = "/germany_japan-" + System.nanoTime();
+        protocol.process("CONNECT\naccept-version:1.2\nhost:stomp.cs.bgu.ac.il\nlogin:" + login
+                + "\npasscode:pw\n\n\0");
+        protocol.process("SUBSCRIBE\ndestination:" + channel + "\nid:1\n\n\0");
+        protocol.process("SEND\ndestination:" + channel
+                + "\n\nuser: someone else\nteam a: germany\nteam b: japan\nevent name: goal\ntime: 10\n\0");
+
+        protocol.process("SUMMARY\ndestination:" + channel + "\nuser:someone else\n\n\0");
+        assertTrue(lastResponse().contains("\nevents:0\n"), lastResponse());
+        protocol.process("SUMMARY\ndestination:" + channel + "\nuser:" + login + "\n\n\0");
+        assertTrue(lastResponse().contains("\nevents:1\n"), lastResponse());
+    }
+
+    @Test
+    void testDisconnectLeavesEveryChannel() {
+        protocol.process("CONNECT\naccept-version:1.2\nhost:stomp.cs.bgu.ac.il\nlogin:leave-" + System.nanoTime()
+                + "\npasscode:pw\n\n\0");
+        for (int id = 0; id < 100; id++) {
+            protocol.process("SUBSCRIBE\ndestination:/game-" + id + "\nid:" + id + "\n\n\0");
+        }
+        assertEquals(100, connections.subscriberCounts().size());
+
+        protocol.process("DISCONNECT\nreceipt:9\n\n\0");
+
+        assertTrue(lastResponse().startsWith("RECEIPT"), lastResponse());
+        assertTrue(connections.subscriberCounts().isEmpty());
+    }
 }
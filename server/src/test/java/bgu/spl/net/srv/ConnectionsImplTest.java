@@ -1,13 +1,24 @@
 package bgu.spl.net.srv;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import bgu.spl.net.impl.stomp.StompMessageEncoderDecoder;
+import bgu.spl.net.srv.journal.FsyncPolicy;
+import bgu.spl.net.srv.journal.MessageJournal;
+import bgu.spl.net.srv.metrics.ServerMetrics;
 
 class ConnectionsImplTest {
     private ConnectionsImpl<String> connections;
@@ -126,6 +137,44 @@ class ConnectionsImplTest {
         assertEquals(1, handler2.getReceivedMessages().size());
     }
 
+    @Test
+    void testSubscribeAfterDisconnectIsIgnored() {
+        connections.addConnection(1, handler1);
+        connections.disconnect(1);
+
+        connections.subscribe("late", 1, 70);
+
+        assertEquals(0, connections.subscriberCount("late"));
+    }
+
+    @Test
+    void testConcurrentSubscribeAndDisconnectLeaveNoSubscribers() throws InterruptedException {
+        int connectionsCount = 200;
+        for (int id = 0; id < connectionsCount; id++) {
+            connections.addConnection(id, new MockConnectionHandler());
+        }
+        Thread subscriber = new Thread(() -> {
+            for (int id = 0; id < connectionsCount; id++) {
+                for (int game = 0; game < 20; game++) {
+                    connections.subscribe("game" + game, id, game);
+                }
+            }
+        });
+        Thread disconnector = new Thread(() -> {
+            for (int id = 0; id < connectionsCount; id++) {
+                connections.disconnect(id);
+            }
+        });
+        subscriber.start();
+        disconnector.start();
+        subscriber.join();
+        disconnector.join();
+
+        for (int game = 0; game < 20; game++) {
+            assertEquals(0, connections.subscriberCount("game" + game));
+        }
+    }
+
     @Test
     void testMultipleChannelSubscriptions() {
         connections.addConnection(1, handler1);
@@ -141,6 +190,274 @@ class ConnectionsImplTest {
         assertTrue(handler1.getReceivedMessages().get(1).contains("subscription:101"));
     }
 
+    @Test
+    void testBroadcastInsertsSubscriptionAfterCommand() {
+        connections.addConnection(1, handler1);
+        connections.subscribe("games", 1, 7);
+
+        connections.send("games", "MESSAGE\ndestination:/games\n\ngoal\n");
+
+        String received = handler1.getReceivedMessages().get(0);
+        assertTrue(received.matches("MESSAGE\nsubscription:7\nmessage-id:" + java.util.regex.Pattern.quote(ConnectionsImpl.NODE_ID)
+                + "\\.\\d+\\.0\nsequence:0\ncontent-length:5\ndestination:/games\n\ngoal\n"), received);
+    }
+
+    @Test
+    void testSharedFrameBytesMatchFullEncoding() {
+        String frame = "MESSAGE\nmessage-id:3\ndestination:/g\n\nd\u00e9but\n";
+        SharedFrame shared = new SharedFrame(frame);
+
+        ByteBuffer header = shared.header(42);
+        ByteBuffer body = shared.body();
+        byte[] wire = new byte[header.remaining() + body.remaining()];
+        header.get(wire, 0, header.remaining());
+        body.get(wire, wire.length - body.remaining(), body.remaining());
+
+        byte[] expected = new StompMessageEncoderDecoder().encode(shared.toString(42));
+        assertArrayEquals(expected, wire);
+        // the shared body is untouched by a subscriber consuming its view
+        assertEquals(shared.bodySize(), shared.body().remaining());
+    }
+
+    @Test
+    void testSharedFrameSaysItsBodyLengthOnce() {
+        SharedFrame shared = new SharedFrame("MESSAGE\ndestination:/g\n\nd\u00e9but\n\u0000", "\nmessage-id:3");
+
+        String frame = shared.toString(1);
+        assertEquals("MESSAGE\nsubscription:1\nmessage-id:3\ncontent-length:7\ndestination:/g\n\nd\u00e9but\n\u0000", frame);
+        // rebuilt from its encoded form, as journals and cluster links do
+        SharedFrame rebuilt = new SharedFrame(new String(shared.encoded(), StandardCharsets.UTF_8));
+        assertEquals(frame, rebuilt.toString(1));
+    }
+
+    private static String message(long id) {
+        return "MESSAGE\ndestination:/games\n\nevent " + id + "\n\u0000";
+    }
+
+    private static long sequenceOf(String frame) {
+        int start = frame.indexOf("\nsequence:") + "\nsequence:".length();
+        return Long.parseLong(frame.substring(start, frame.indexOf('\n', start)));
+    }
+
+    private static String messageIdOf(String frame) {
+        int start = frame.indexOf("\nmessage-id:") + "\nmessage-id:".length();
+        return frame.substring(start, frame.indexOf('\n', start));
+    }
+
+    private static String bodyOf(String frame) {
+        return frame.substring(frame.indexOf("\n\n") + 2, frame.indexOf('\u0000'));
+    }
+
+    @Test
+    void testSubscribeReplaysRetainedMessagesBeforeLiveOnes() {
+        connections.addConnection(1, handler1);
+        connections.addConnection(2, handler2);
+        connections.subscribe("games", 2, 1);
+        for (int id = 0; id < 5; id++) {
+            connections.send("games", message(id));
+        }
+
+        connections.subscribe("games", 1, 7, HistoryReplay.last(2));
+        connections.send("games", message(5));
+
+        List<String> received = handler1.getReceivedMessages();
+        assertEquals(3, received.size());
+        assertEquals("event 3\n", bodyOf(received.get(0)));
+        assertEquals("event 4\n", bodyOf(received.get(1)));
+        assertEquals("event 5\n", bodyOf(received.get(2)));
+        assertTrue(received.get(0).startsWith("MESSAGE\nsubscription:7\n"));
+    }
+
+    @Test
+    void testSubscribeReplaysAfterASequenceNumber() {
+        connections.addConnection(1, handler1);
+        for (int id = 0; id < 5; id++) {
+            connections.send("games", message(id));
+        }
+
+        connections.subscribe("games", 1, 7, HistoryReplay.after(2));
+        connections.subscribe("other", 1, 8, HistoryReplay.after(2));
+
+        assertEquals(2, handler1.getReceivedMessages().size());
+        assertEquals("event 3\n", bodyOf(handler1.getReceivedMessages().get(0)));
+        assertEquals(3, sequenceOf(handler1.getReceivedMessages().get(0)));
+        assertEquals(1, connections.historyBytes().size());
+    }
+
+    @Test
+    void testEveryChannelIsNumberedOnItsOwn() {
+        connections.addConnection(1, handler1);
+        connections.subscribe("games", 1, 7);
+        connections.subscribe("news", 1, 8);
+        for (int id = 0; id < 3; id++) {
+            connections.send("games", message(id));
+            connections.send("news", message(id));
+        }
+
+        List<String> received = handler1.getReceivedMessages();
+        assertEquals(6, received.size());
+        java.util.Set<String> messageIds = new java.util.HashSet<>();
+        for (int i = 0; i < received.size(); i++) {
+            assertEquals(i / 2, sequenceOf(received.get(i)));
+            String frame = received.get(i);
+            int start = frame.indexOf("message-id:");
+            messageIds.add(frame.substring(start, frame.indexOf('\n', start)));
+        }
+        assertEquals(6, messageIds.size());
+    }
+
+    @Test
+    void testHistoryIsCappedInMessagesAndBytes() {
+        ChannelHistory byCount = new ChannelHistory(3, 1 << 20, 10);
+        ChannelHistory byBytes = new ChannelHistory(100, 3 * (64 + new SharedFrame(message(0)).bodySize()), 10);
+        for (int id = 0; id < 8; id++) {
+            byCount.append(byCount.nextSequence(), new SharedFrame(message(id)));
+            byBytes.append(byBytes.nextSequence(), new SharedFrame(message(id)));
+        }
+
+        List<String> bodies = new ArrayList<>();
+        byCount.replay(HistoryReplay.last(100), frame -> bodies.add(bodyOf(frame.toString(1) + "\u0000")));
+        assertEquals(java.util.Arrays.asList("event 5\n", "event 6\n", "event 7\n"), bodies);
+        assertEquals(18, byCount.nextSequence());
+        assertEquals(3, byBytes.size());
+        assertTrue(byBytes.bytes() <= 3 * (64 + new SharedFrame(message(0)).bodySize()));
+        // an evicted sequence replays everything retained after it
+        bodies.clear();
+        byCount.replay(HistoryReplay.after(11), frame -> bodies.add(bodyOf(frame.toString(1) + "\u0000")));
+        assertEquals(3, bodies.size());
+        bodies.clear();
+        byCount.replay(HistoryReplay.after(16), frame -> bodies.add(bodyOf(frame.toString(1) + "\u0000")));
+        assertEquals(java.util.Arrays.asList("event 7\n"), bodies);
+    }
+
+    @Test
+    void testHistoryRingGrowsUpToItsCap() {
+        ChannelHistory history = new ChannelHistory(20, 1 << 20, 0);
+        for (int id = 0; id < 30; id++) {
+            history.append(history.nextSequence(), new SharedFrame(message(id)));
+        }
+
+        List<String> bodies = new ArrayList<>();
+        history.replay(HistoryReplay.last(100), frame -> bodies.add(bodyOf(frame.toString(1) + "\u0000")));
+        assertEquals(20, bodies.size());
+        assertEquals("event 10\n", bodies.get(0));
+        assertEquals("event 29\n", bodies.get(19));
+    }
+
+    @Test
+    void testTheChannelLongestWithoutAMessageLosesItsHistory() {
+        ConnectionsImpl<String> capped = new ConnectionsImpl<>(null, null, 2);
+        long evicted = ServerMetrics.getInstance().getHistoriesEvicted();
+        capped.addConnection(2, handler2);
+        capped.subscribe("b", 2, 9);
+        capped.send("a", message(0));
+        capped.send("b", message(1));
+        capped.send("a", message(2));
+        capped.send("c", message(3));
+
+        assertEquals(2, capped.historyCount());
+        assertEquals(evicted + 1, ServerMetrics.getInstance().getHistoriesEvicted());
+        capped.addConnection(1, handler1);
+        capped.subscribe("b", 1, 7, HistoryReplay.last(10));
+        capped.subscribe("a", 1, 8, HistoryReplay.last(10));
+        assertEquals(2, handler1.getReceivedMessages().size());
+        assertEquals("event 2\n", bodyOf(handler1.getReceivedMessages().get(1)));
+        // only the frames went: a channel that comes back goes on numbering where it stopped
+        capped.send("b", message(4));
+        assertEquals(1, sequenceOf(handler1.getReceivedMessages().get(2)));
+        List<String> live = handler2.getReceivedMessages();
+        assertEquals(2, live.size());
+        assertEquals(messageIdOf(live.get(0)).replaceFirst("\\.0$", ".1"), messageIdOf(live.get(1)));
+    }
+
+    @Test
+    void testWildcardSubscriptionsReceiveMatchingChannels() {
+        connections.addConnection(1, handler1);
+        connections.addConnection(2, handler2);
+        connections.subscribe("/worldcup/groupE/Germany_Japan", 1, 3);
+        connections.subscribe("/worldcup/**", 1, 4);
+        connections.subscribe("/worldcup/*/Germany_Japan", 2, 5);
+
+        connections.send("/worldcup/groupE/Germany_Japan", "MESSAGE\n\ngoal\n");
+        connections.send("/worldcup/groupF/Belgium_Canada", "MESSAGE\n\nfoul\n");
+
+        List<String> received = handler1.getReceivedMessages();
+        assertEquals(3, received.size());
+        assertTrue(received.stream().anyMatch(m -> m.startsWith("MESSAGE\nsubscription:3\n") && m.endsWith("\n\ngoal\n")));
+        assertTrue(received.stream().anyMatch(m -> m.startsWith("MESSAGE\nsubscription:4\n") && m.endsWith("\n\ngoal\n")));
+        assertTrue(received.get(2).startsWith("MESSAGE\nsubscription:4\n") && received.get(2).endsWith("\n\nfoul\n"));
+        assertEquals(1, handler2.getReceivedMessages().size());
+        assertEquals(1, connections.subscriberCount("/worldcup/**"));
+
+        connections.disconnect(1);
+        assertEquals(0, connections.subscriberCount("/worldcup/**"));
+        assertEquals(1, connections.subscriberCounts().size());
+    }
+
+    @Test
+    void testJournaledMessagesAreReplayedAfterRestart(@TempDir Path dir) throws IOException {
+        try (MessageJournal journal = new MessageJournal(dir, FsyncPolicy.PER_MESSAGE, 1000, 1 << 16,
+                Long.MAX_VALUE, Long.MAX_VALUE)) {
+            ConnectionsImpl<String> before = new ConnectionsImpl<>(journal);
+            for (int id = 0; id < 3; id++) {
+                before.send("games", message(id));
+            }
+        }
+
+        try (MessageJournal journal = new MessageJournal(dir, FsyncPolicy.PER_MESSAGE, 1000, 1 << 16,
+                Long.MAX_VALUE, Long.MAX_VALUE)) {
+            ConnectionsImpl<String> after = new ConnectionsImpl<>(journal);
+            after.addConnection(1, handler1);
+            after.subscribe("games", 1, 7, HistoryReplay.last(2));
+
+            List<String> received = handler1.getReceivedMessages();
+            assertEquals(2, received.size());
+            assertEquals("event 1\n", bodyOf(received.get(0)));
+            assertTrue(received.get(1).startsWith("MESSAGE\nsubscription:7\nmessage-id:"));
+            assertEquals(2, sequenceOf(received.get(1)));
+            // the channel's numbering goes on where it stopped
+            after.send("games", message(3));
+            after.subscribe("games", 1, 8, HistoryReplay.after(2));
+            assertEquals(3, sequenceOf(received.get(3)));
+            assertEquals(4, journal.journal("games").nextSequence());
+        }
+    }
+
+    @Test
+    void testReplayAndLiveTrafficNeitherGapNorRepeat() throws InterruptedException {
+        final int messages = 5_000;
+        List<String> received = java.util.Collections.synchronizedList(new ArrayList<>());
+        connections.addConnection(1, new ConnectionHandler<String>() {
+            @Override
+            public void send(String msg) {
+                received.add(msg);
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        Thread sender = new Thread(() -> {
+            for (int id = 0; id < messages; id++) {
+                connections.send("games", message(id));
+            }
+        });
+        sender.start();
+        while (connections.historyBytes().isEmpty()) {
+            Thread.yield();
+        }
+
+        connections.subscribe("games", 1, 7, HistoryReplay.last(10_000));
+        sender.join();
+
+        assertFalse(received.isEmpty());
+        long first = sequenceOf(received.get(0));
+        for (int i = 0; i < received.size(); i++) {
+            assertEquals(first + i, sequenceOf(received.get(i)));
+        }
+        assertEquals(messages - 1, first + received.size() - 1);
+    }
+
     @Test
     void testBroadcastToEmptyChannel() {
         // Should not throw exception
@@ -0,0 +1,140 @@
+package bgu.spl.net.srv;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import bgu.spl.net.impl.stomp.StompMessageEncoderDecoder;
+import bgu.spl.net.impl.stomp.StompMessagingProtocolImpl;
+import bgu.spl.net.srv.OutboundQueue.OverflowPolicy;
+
+/**
+ * A core's connection on a loopback pair; the core's loop is not running, so frames stay queued until
+ * the test writes them.
+ */
+class CoreConnectionHandlerTest {
+    private Core<String> core;
+    private SocketChannel chan;
+    private Socket peer;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        core = new Core<>(0, 1, 16);
+        core.connect(Collections.singletonList(core));
+        try (ServerSocketChannel listener = ServerSocketChannel.open()) {
+            listener.bind(new InetSocketAddress("127.0.0.1", 0));
+            chan = SocketChannel.open(listener.getLocalAddress());
+            peer = listener.socket().accept();
+        }
+        chan.configureBlocking(false);
+        peer.setSoTimeout(5000);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        chan.close();
+        peer.close();
+        core.close();
+    }
+
+    private CoreConnectionHandler<String> handler(OverflowPolicy policy) {
+        return new CoreConnectionHandler<>(new StompMessageEncoderDecoder(), new StompMessagingProtocolImpl(),
+                chan, core, 0, 2, 1 << 20, policy);
+    }
+
+    private static SharedFrame message(String body) {
+        return new SharedFrame("MESSAGE\ndestination:/germany_spain\n\n" + body);
+    }
+
+    // everything the peer got until the connection closed, frames separated by |
+    private String received() throws IOException {
+        InputStream in = peer.getInputStream();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1) {
+            bytes.write(b == 0 ? '|' : b);
+        }
+        return bytes.toString("UTF-8");
+    }
+
+    @Test
+    void testDropOldestEvictsTheOldestChannelMessage() throws IOException {
+        CoreConnectionHandler<String> handler = handler(OverflowPolicy.DROP_OLDEST);
+        handler.send("RECEIPT\nreceipt-id:1\n\n");
+        handler.send(message("goal"), 1);
+        handler.send(message("foul"), 1);
+
+        handler.write();
+        handler.close();
+
+        String received = received();
+        assertTrue(received.startsWith("RECEIPT\nreceipt-id:1\n\n|MESSAGE"), received);
+        assertTrue(received.contains("foul") && !received.contains("goal"), received);
+    }
+
+    @Test
+    void testDisconnectSendsAnErrorInsteadOfTheBacklog() throws IOException {
+        CoreConnectionHandler<String> handler = handler(OverflowPolicy.DISCONNECT);
+        handler.send(message("goal"), 1);
+        handler.send(message("foul"), 1);
+        handler.send(message("offside"), 1);
+        handler.send("RECEIPT\nreceipt-id:2\n\n");
+
+        handler.write();
+
+        String received = received();
+        assertTrue(received.startsWith("ERROR\nmessage:Slow consumer\n"), received);
+        assertFalse(received.contains("MESSAGE") || received.contains("RECEIPT"), received);
+        assertFalse(chan.isOpen());
+    }
+
+    @Test
+    void testAnOwnerDropsTheIdlestHistoryButKeepsItsNumbering() throws IOException {
+        Core<String> capped = new Core<>(0, 1, 16, 2);
+        capped.connect(Collections.singletonList(capped));
+        try {
+            CoreConnectionHandler<String> handler = new CoreConnectionHandler<>(new StompMessageEncoderDecoder(),
+                    new StompMessagingProtocolImpl(), chan, capped, 0);
+            capped.register(chan, handler);
+            capped.subscribe("/b", 0, 9);
+            // one core, so every task runs right away
+            capped.send("/a", "MESSAGE\ndestination:/a\n\n0\n");
+            capped.send("/b", "MESSAGE\ndestination:/b\n\n1\n");
+            capped.send("/a", "MESSAGE\ndestination:/a\n\n2\n");
+            capped.send("/c", "MESSAGE\ndestination:/c\n\n3\n");
+            assertEquals(2, capped.historyCount());
+
+            capped.send("/b", "MESSAGE\ndestination:/b\n\n4\n");
+            handler.write();
+            handler.close();
+
+            String[] frames = received().split("\\|");
+            assertEquals(2, frames.length);
+            assertTrue(frames[0].contains("\nsequence:0\n"), frames[0]);
+            assertTrue(frames[1].contains("\nsequence:1\n"), frames[1]);
+            String channelNumber = frames[0].replaceFirst("(?s).*\nmessage-id:([^\n]*)\\.0\n.*", "$1");
+            assertTrue(frames[1].contains("\nmessage-id:" + channelNumber + ".1\n"), frames[1]);
+        } finally {
+            capped.close();
+        }
+    }
+
+    @Test
+    void testNegativeConnectionIdsStillMapToACore() {
+        assertEquals(1, Core.coreOf(-1, 2));
+        assertEquals(1, Core.coreOf(Integer.MIN_VALUE, 3));
+        assertEquals(0, Core.coreOf(4, 2));
+    }
+}
@@ -0,0 +1,158 @@
+package bgu.spl.net.srv;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import bgu.spl.net.impl.data.Database;
+import bgu.spl.net.impl.stomp.StompMessageEncoderDecoder;
+import bgu.spl.net.impl.stomp.StompMessagingProtocolImpl;
+
+/**
+ * Two cores on loopback, serving real STOMP clients: connections land on both cores in turn.
+ */
+class CoreServerTest {
+    private static final int CORES = 2;
+    private int port;
+    private Server<String> server;
+    private Thread serving;
+
+    private static class Client implements AutoCloseable {
+        private final Socket socket;
+        private final InputStream in;
+        private final OutputStream out;
+
+        Client(int port, String login) throws IOException, InterruptedException {
+            Socket connected = null;
+            for (int attempt = 0; connected == null; attempt++) {
+                try {
+                    connected = new Socket("127.0.0.1", port);
+                } catch (IOException ex) {
+                    // the server may not be listening yet
+                    if (attempt == 100) {
+                        throw ex;
+                    }
+                    Thread.sleep(20);
+                }
+            }
+            socket = connected;
+            socket.setSoTimeout(5000);
+            in = socket.getInputStream();
+            out = socket.getOutputStream();
+            write("CONNECT\naccept-version:1.2\nhost:stomp.cs.bgu.ac.il\nlogin:" + login + "\npasscode:pw\n\n");
+            String reply = read();
+            assertTrue(reply.startsWith("CONNECTED"), reply);
+        }
+
+        void write(String frame) throws IOException {
+            out.write((frame + "\u0000").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        }
+
+        String read() throws IOException {
+            ByteArrayOutputStream frame = new ByteArrayOutputStream();
+            int b;
+            // replies carry their own null on top of the encoder's, and heart-beats are bare newlines
+            while ((b = in.read()) != 0 || frame.size() == 0) {
+                if (b == -1) {
+                    throw new IOException("connection closed");
+                }
+                if (b != 0 && (b != '\n' || frame.size() > 0)) {
+                    frame.write(b);
+                }
+            }
+            return frame.toString("UTF-8");
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    @BeforeEach
+    void setUp() throws IOException {
+        try (ServerSocket free = new ServerSocket(0)) {
+            port = free.getLocalPort();
+        }
+        // connection ids start over with every server; other tests may have left these logged in
+        for (int connectionId = 0; connectionId < 2; connectionId++) {
+            Database.getInstance().logout(connectionId);
+        }
+        server = Server.threadPerCore(CORES, port, StompMessagingProtocolImpl::new, StompMessageEncoderDecoder::new);
+        serving = new Thread(server::serve);
+        serving.start();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException, InterruptedException {
+        server.close();
+        serving.join(5000);
+    }
+
+    private static String login() {
+        return "core-" + System.nanoTime();
+    }
+
+    @Test
+    void testMessagesCrossCores() throws IOException, InterruptedException {
+        try (Client first = new Client(port, login()); Client second = new Client(port, login())) {
+            // one of the two cores owns each channel; both subscribers hear both
+            for (String channel : new String[] { "/germany_spain", "/japan_mexico" }) {
+                first.write("SUBSCRIBE\ndestination:" + channel + "\nid:1" + channel.length() + "\nreceipt:1\n");
+                assertEquals("RECEIPT\nreceipt-id:1\n\n", first.read());
+                second.write("SUBSCRIBE\ndestination:" + channel + "\nid:2" + channel.length() + "\nreceipt:2\n");
+                assertEquals("RECEIPT\nreceipt-id:2\n\n", second.read());
+            }
+
+            first.write("SEND\ndestination:/germany_spain\n\ngoal\n");
+            second.write("SEND\ndestination:/japan_mexico\n\nfoul\n");
+
+            for (Client client : new Client[] { first, second }) {
+                String goal = null;
+                String foul = null;
+                for (int i = 0; i < 2; i++) {
+                    String message = client.read();
+                    assertTrue(message.startsWith("MESSAGE\n"), message);
+                    if (message.contains("destination:/germany_spain")) {
+                        goal = message;
+                    } else {
+                        foul = message;
+                    }
+                }
+                assertTrue(goal != null && goal.contains("\n\ngoal\n"), goal);
+                assertTrue(foul != null && foul.contains("\n\nfoul\n"), foul);
+                assertTrue(goal.contains("\nsequence:0\n"), goal);
+            }
+        }
+    }
+
+    @Test
+    void testPatternSubscriberHearsEveryOwner() throws IOException, InterruptedException {
+        try (Client fan = new Client(port, login()); Client reporter = new Client(port, login())) {
+            fan.write("SUBSCRIBE\ndestination:/worldcup/*\nid:7\nreceipt:7\n");
+            assertEquals("RECEIPT\nreceipt-id:7\n\n", fan.read());
+            reporter.write("SUBSCRIBE\ndestination:/worldcup/groupA\nid:1\n");
+            reporter.write("SUBSCRIBE\ndestination:/worldcup/groupB\nid:2\nreceipt:2\n");
+            assertEquals("RECEIPT\nreceipt-id:2\n\n", reporter.read());
+
+            reporter.write("SEND\ndestination:/worldcup/groupA\n\na\n");
+            reporter.write("SEND\ndestination:/worldcup/groupB\n\nb\n");
+
+            for (int i = 0; i < 2; i++) {
+                String message = fan.read();
+                assertTrue(message.startsWith("MESSAGE\nsubscription:7\n"), message);
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package bgu.spl.net.srv;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+class DestinationTrieTest {
+
+    private static List<String> route(DestinationTrie<String> trie, String destination) {
+        List<String> matched = new ArrayList<>();
+        trie.forEachMatch(destination, matched::add);
+        Collections.sort(matched);
+        return matched;
+    }
+
+    @Test
+    void testExactSingleAndMultiLevelPatterns() {
+        DestinationTrie<String> trie = new DestinationTrie<>();
+        trie.add("/worldcup/groupE/Germany_Japan", 1, "exact");
+        trie.add("/worldcup/*/Germany_Japan", 2, "any group");
+        trie.add("/worldcup/groupE/*", 3, "groupE");
+        trie.add("/worldcup/**", 4, "worldcup");
+        trie.add("**", 5, "everything");
+        trie.add("/worldcup/*", 6, "one level");
+
+        assertEquals("[any group, everything, exact, groupE, worldcup]",
+                route(trie, "/worldcup/groupE/Germany_Japan").toString());
+        assertEquals("[everything, groupE, worldcup]", route(trie, "/worldcup/groupE/Spain_Costa_Rica").toString());
+        assertEquals("[everything, one level, worldcup]", route(trie, "/worldcup/final").toString());
+        // '**' also matches no level at all
+        assertEquals("[everything, worldcup]", route(trie, "/worldcup").toString());
+        assertEquals("[everything]", route(trie, "/euro/groupA/x").toString());
+        assertEquals("[everything]", route(trie, "games").toString());
+    }
+
+    @Test
+    void testRemovePrunesEmptyBranches() {
+        DestinationTrie<String> trie = new DestinationTrie<>();
+        trie.add("/worldcup/groupE/*", 1, "a");
+        trie.add("/worldcup/groupE/*", 2, "b");
+        trie.add("/worldcup/groupE/*", 1, "a again");
+        assertEquals(2, trie.count("/worldcup/groupE/*"));
+        assertEquals("[a again, b]", route(trie, "/worldcup/groupE/x").toString());
+
+        assertTrue(trie.remove("/worldcup/groupE/*", 1));
+        assertFalse(trie.remove("/worldcup/groupE/*", 1));
+        assertFalse(trie.remove("/worldcup/groupF/*", 2));
+        assertEquals("{/worldcup/groupE/*=1}", trie.counts().toString());
+        assertTrue(trie.remove("/worldcup/groupE/*", 2));
+        assertTrue(trie.counts().isEmpty());
+        assertEquals(0, trie.count("/worldcup/groupE/*"));
+        assertTrue(route(trie, "/worldcup/groupE/x").isEmpty());
+    }
+
+    @Test
+    void testPatternSyntax() {
+        assertTrue(DestinationTrie.isPattern("/worldcup/*/x"));
+        assertTrue(DestinationTrie.isPattern("**"));
+        assertFalse(DestinationTrie.isPattern("/worldcup/group*/x"));
+        assertFalse(DestinationTrie.isPattern("/worldcup/groupE/x"));
+
+        assertTrue(DestinationTrie.isValidPattern("/worldcup/**"));
+        assertTrue(DestinationTrie.isValidPattern("**"));
+        assertTrue(DestinationTrie.isValidPattern("/worldcup/*/x"));
+        assertFalse(DestinationTrie.isValidPattern("/worldcup/**/x"));
+        assertFalse(DestinationTrie.isValidPattern("/worldcup/x**"));
+    }
+}
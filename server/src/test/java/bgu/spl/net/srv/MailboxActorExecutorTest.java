@@ -0,0 +1,186 @@
+package bgu.spl.net.srv;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class MailboxActorExecutorTest {
+    private static final int SUBMITTERS = 4;
+    private static final int ACTORS = 16;
+    private static final int TASKS_PER_ACTOR = 2_000;
+
+    private final MailboxActorExecutor executor = new MailboxActorExecutor(32);
+
+    private static class Recorder implements Actor {
+        private final ActorMailbox mailbox = new ActorMailbox();
+        private final AtomicInteger running = new AtomicInteger();
+        private final int[] lastSeen = new int[SUBMITTERS];
+        private volatile boolean overlapped = false;
+        private volatile boolean reordered = false;
+
+        @Override
+        public ActorMailbox mailbox() {
+            return mailbox;
+        }
+
+        void run(int submitter, int sequence) {
+            if (running.incrementAndGet() != 1) {
+                overlapped = true;
+            }
+            // plain field: only safe if the executor really serializes this actor's tasks
+            if (lastSeen[submitter] != sequence - 1) {
+                reordered = true;
+            }
+            lastSeen[submitter] = sequence;
+            running.decrementAndGet();
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    void testTasksOfOneActorRunAloneAndInOrder() throws InterruptedException {
+        List<Recorder> actors = new ArrayList<>();
+        for (int i = 0; i < ACTORS; i++) {
+            actors.add(new Recorder());
+        }
+        CountDownLatch done = new CountDownLatch(SUBMITTERS * ACTORS * TASKS_PER_ACTOR);
+        List<Thread> submitters = new ArrayList<>();
+        for (int s = 0; s < SUBMITTERS; s++) {
+            int submitter = s;
+            Thread thread = new Thread(() -> {
+                for (int sequence = 1; sequence <= TASKS_PER_ACTOR; sequence++) {
+                    for (Recorder actor : actors) {
+                        int n = sequence;
+                        executor.submit(actor, () -> {
+                            actor.run(submitter, n);
+                            done.countDown();
+                        });
+                    }
+                }
+            });
+            submitters.add(thread);
+            thread.start();
+        }
+        for (Thread thread : submitters) {
+            thread.join();
+        }
+
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        for (Recorder actor : actors) {
+            assertTrue(!actor.overlapped && !actor.reordered);
+            assertTrue(actor.mailbox().isEmpty());
+        }
+    }
+
+    @Test
+    void testFailingTaskDoesNotStallItsActor() throws InterruptedException {
+        Recorder actor = new Recorder();
+        CountDownLatch done = new CountDownLatch(1);
+        executor.submit(actor, () -> {
+            throw new IllegalStateException("task failure");
+        });
+        executor.submit(actor, done::countDown);
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testHotActorYieldsAfterABatch() throws InterruptedException {
+        MailboxActorExecutor single = new MailboxActorExecutor(1, 8, 0);
+        try {
+            AtomicInteger hotRan = new AtomicInteger();
+            int hotWhenColdRan = runColdBehindHot(single, 100, hotRan::incrementAndGet, hotRan);
+
+            assertEquals(8, hotWhenColdRan);
+        } finally {
+            single.shutdown();
+        }
+    }
+
+    @Test
+    void testHotActorYieldsAfterItsTimeSlice() throws InterruptedException {
+        MailboxActorExecutor single = new MailboxActorExecutor(1, 1_000, 2_000);
+        try {
+            AtomicInteger hotRan = new AtomicInteger();
+            int hotWhenColdRan = runColdBehindHot(single, 1_000, () -> {
+                hotRan.incrementAndGet();
+                sleep(1);
+            }, hotRan);
+
+            // about two 1ms tasks per 2ms slice; generous for a loaded machine
+            assertTrue(hotWhenColdRan >= 1 && hotWhenColdRan < 100, "hot tasks before the cold one: " + hotWhenColdRan);
+        } finally {
+            single.shutdown();
+        }
+    }
+
+    /**
+     * Queue a backlog on a hot actor, then one task on a cold actor, while the only worker is held up.
+     * @return how many hot tasks ran before the cold one
+     */
+    private static int runColdBehindHot(MailboxActorExecutor single, int hotTasks, Runnable hotTask,
+                                         AtomicInteger hotRan) throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch coldRan = new CountDownLatch(1);
+        AtomicInteger hotWhenColdRan = new AtomicInteger(-1);
+        single.submit(new Recorder(), () -> await(release));
+        Recorder hot = new Recorder();
+        for (int i = 0; i < hotTasks; i++) {
+            single.submit(hot, hotTask);
+        }
+        single.submit(new Recorder(), () -> {
+            hotWhenColdRan.set(hotRan.get());
+            coldRan.countDown();
+        });
+
+        release.countDown();
+        assertTrue(coldRan.await(10, TimeUnit.SECONDS));
+        return hotWhenColdRan.get();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    void testMailboxIsFifo() {
+        ActorMailbox mailbox = new ActorMailbox();
+        StringBuilder order = new StringBuilder();
+        for (int i = 0; i < 3; i++) {
+            int n = i;
+            mailbox.offer(() -> order.append(n));
+        }
+        Runnable task;
+        while ((task = mailbox.poll()) != null) {
+            task.run();
+        }
+
+        assertEquals("012", order.toString());
+        assertNull(mailbox.poll());
+        assertTrue(mailbox.isEmpty());
+    }
+}
@@ -0,0 +1,128 @@
+package bgu.spl.net.srv;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import bgu.spl.net.impl.data.Database;
+import bgu.spl.net.impl.stomp.StompMessageEncoderDecoder;
+import bgu.spl.net.impl.stomp.StompMessagingProtocolImpl;
+
+/**
+ * Two sub-reactors on loopback, serving real STOMP clients: accepted connections go to the sub-reactors
+ * in turn, so consecutive clients are read and written by different selector loops.
+ */
+class MultiReactorTest {
+    private static final int REACTORS = 2;
+    private int port;
+    private Server<String> server;
+    private Thread serving;
+
+    private static class Client implements AutoCloseable {
+        private final Socket socket;
+        private final InputStream in;
+        private final OutputStream out;
+
+        Client(int port, String login) throws IOException, InterruptedException {
+            Socket connected = null;
+            for (int attempt = 0; connected == null; attempt++) {
+                try {
+                    connected = new Socket("127.0.0.1", port);
+                } catch (IOException ex) {
+                    // the server may not be listening yet
+                    if (attempt == 100) {
+                        throw ex;
+                    }
+                    Thread.sleep(20);
+                }
+            }
+            socket = connected;
+            socket.setSoTimeout(5000);
+            in = socket.getInputStream();
+            out = socket.getOutputStream();
+            write("CONNECT\naccept-version:1.2\nhost:stomp.cs.bgu.ac.il\nlogin:" + login + "\npasscode:pw\n\n");
+            String reply = read();
+            assertTrue(reply.startsWith("CONNECTED"), reply);
+        }
+
+        void write(String frame) throws IOException {
+            out.write((frame + "\u0000").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        }
+
+        String read() throws IOException {
+            ByteArrayOutputStream frame = new ByteArrayOutputStream();
+            int b;
+            // replies carry their own null on top of the encoder's, and heart-beats are bare newlines
+            while ((b = in.read()) != 0 || frame.size() == 0) {
+                if (b == -1) {
+                    throw new IOException("connection closed");
+                }
+                if (b != 0 && (b != '\n' || frame.size() > 0)) {
+                    frame.write(b);
+                }
+            }
+            return frame.toString("UTF-8");
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    @BeforeEach
+    void setUp() throws IOException {
+        try (ServerSocket free = new ServerSocket(0)) {
+            port = free.getLocalPort();
+        }
+        // connection ids start over with every server; other tests may have left these logged in
+        for (int connectionId = 0; connectionId < REACTORS; connectionId++) {
+            Database.getInstance().logout(connectionId);
+        }
+        server = Server.multiReactor(2, REACTORS, port, StompMessagingProtocolImpl::new, StompMessageEncoderDecoder::new);
+        serving = new Thread(server::serve);
+        serving.start();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException, InterruptedException {
+        server.close();
+        serving.join(5000);
+    }
+
+    private static String login() {
+        return "reactor-" + System.nanoTime();
+    }
+
+    @Test
+    void testMessagesCrossSubReactors() throws IOException, InterruptedException {
+        // accepted one after the other, so each has a sub-reactor of its own
+        try (Client first = new Client(port, login()); Client second = new Client(port, login())) {
+            first.write("SUBSCRIBE\ndestination:/germany_spain\nid:1\nreceipt:1\n");
+            assertEquals("RECEIPT\nreceipt-id:1\n\n", first.read());
+            second.write("SUBSCRIBE\ndestination:/germany_spain\nid:2\nreceipt:2\n");
+            assertEquals("RECEIPT\nreceipt-id:2\n\n", second.read());
+
+            second.write("SEND\ndestination:/germany_spain\n\ngoal\n");
+            String goal = first.read();
+            assertTrue(goal.startsWith("MESSAGE\nsubscription:1\n") && goal.contains("\n\ngoal\n"), goal);
+            assertTrue(second.read().contains("\n\ngoal\n"));
+
+            first.write("SEND\ndestination:/germany_spain\n\nfoul\n");
+            String foul = second.read();
+            assertTrue(foul.startsWith("MESSAGE\nsubscription:2\n") && foul.contains("\n\nfoul\n"), foul);
+            assertTrue(first.read().contains("\n\nfoul\n"));
+        }
+    }
+}
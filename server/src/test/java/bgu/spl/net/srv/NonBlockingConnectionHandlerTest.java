@@ -0,0 +1,141 @@
+package bgu.spl.net.srv;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import bgu.spl.net.impl.stomp.StompMessageEncoderDecoder;
+import bgu.spl.net.impl.stomp.StompMessagingProtocolImpl;
+
+class NonBlockingConnectionHandlerTest {
+    private SocketChannel serverSide;
+    private SocketChannel clientSide;
+    private ActorThreadPool pool;
+    private SubReactor<String> subReactor;
+    private NonBlockingConnectionHandler<String> handler;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        try (ServerSocketChannel listener = ServerSocketChannel.open()) {
+            listener.bind(new InetSocketAddress("127.0.0.1", 0));
+            clientSide = SocketChannel.open(listener.getLocalAddress());
+            serverSide = listener.accept();
+        }
+        serverSide.configureBlocking(false);
+
+        // never started: interest changes just queue up on it
+        Reactor<String> reactor = new Reactor<>(1, 0, StompMessagingProtocolImpl::new, StompMessageEncoderDecoder::new);
+        subReactor = new SubReactor<>(reactor, pool = new ActorThreadPool(1));
+        handler = new NonBlockingConnectionHandler<>(new StompMessageEncoderDecoder(), new StompMessagingProtocolImpl(),
+                serverSide, subReactor, 1, new ConnectionsImpl<>());
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        subReactor.close();
+        pool.shutdown();
+        serverSide.close();
+        clientSide.close();
+    }
+
+    @Test
+    void testQueuedFramesGoOutInOneWrite() throws IOException {
+        SharedFrame message = new SharedFrame("MESSAGE\ndestination:/g\n\nbody\u0000");
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 10; i++) {
+            if (i % 2 == 0) {
+                handler.send(message, i);
+                expected.append(message.toString(i)).append('\u0000');
+            } else {
+                handler.send("RECEIPT\nreceipt-id:" + i + "\n\n\u0000");
+                expected.append("RECEIPT\nreceipt-id:").append(i).append("\n\n\u0000\u0000");
+            }
+        }
+
+        handler.continueWrite();
+
+        assertEquals(1, handler.getWriteCalls());
+        assertEquals(10, handler.getFramesWritten());
+        assertEquals(10.0, handler.getFramesPerWrite());
+        String received = readFromClient(handler.getBytesWritten());
+        assertEquals(expected.toString(), received);
+    }
+
+    @Test
+    void testPartialWritesKeepFrameOrder() throws IOException {
+        serverSide.setOption(StandardSocketOptions.SO_SNDBUF, 4096);
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            StringBuilder body = new StringBuilder();
+            for (int j = 0; j < 100; j++) {
+                body.append(i).append(',');
+            }
+            String frame = "MESSAGE\nmessage-id:" + i + "\n\n" + body + "\u0000";
+            handler.send(frame);
+            expected.append(frame).append('\u0000');
+        }
+        long expectedBytes = expected.toString().getBytes(StandardCharsets.UTF_8).length;
+
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        ByteBuffer in = ByteBuffer.allocate(1 << 16);
+        while (handler.getFramesWritten() < 200) {
+            handler.continueWrite();
+            // the socket buffer fills well before the whole queue is out, so drain and retry
+            in.clear();
+            int read = clientSide.read(in);
+            received.write(in.array(), 0, read);
+        }
+        while (received.size() < expectedBytes) {
+            in.clear();
+            received.write(in.array(), 0, clientSide.read(in));
+        }
+
+        assertTrue(handler.getWriteCalls() > 1);
+        assertEquals(expectedBytes, handler.getBytesWritten());
+        assertEquals(expected.toString(), new String(received.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testSlowConsumerGetsErrorAndIsDisconnected() throws IOException {
+        ConnectionsImpl<String> connections = new ConnectionsImpl<>();
+        NonBlockingConnectionHandler<String> slow = new NonBlockingConnectionHandler<>(new StompMessageEncoderDecoder(),
+                new StompMessagingProtocolImpl(), serverSide, subReactor, 2, connections,
+                new OutboundQueue(4, 1 << 20, OutboundQueue.OverflowPolicy.DISCONNECT));
+        connections.addConnection(2, slow);
+        connections.subscribe("/g", 2, 7);
+        SharedFrame message = new SharedFrame("MESSAGE\ndestination:/g\n\nbody\u0000");
+        for (int i = 0; i < 5; i++) {
+            slow.send(message, 7);
+        }
+
+        // the backlog was replaced by the ERROR frame and the connection no longer takes messages;
+        // it leaves the channel on the selector thread, not on the sender's
+        assertEquals(1, slow.pendingWrites());
+        slow.send(message, 7);
+        assertEquals(1, slow.pendingWrites());
+        slow.continueWrite();
+
+        assertTrue(slow.isClosed());
+        String received = readFromClient(slow.getBytesWritten());
+        assertTrue(received.startsWith("ERROR\nmessage:Slow consumer\n"), received);
+    }
+
+        private String readFromClient(long bytes) throws IOException {
+        ByteBuffer in = ByteBuffer.allocate((int) bytes);
+        while (in.hasRemaining()) {
+            clientSide.read(in);
+        }
+        return new String(in.array(), StandardCharsets.UTF_8);
+    }
+}
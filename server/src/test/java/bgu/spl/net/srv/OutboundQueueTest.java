@@ -0,0 +1,111 @@
+package bgu.spl.net.srv;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+import bgu.spl.net.srv.OutboundQueue.Offer;
+import bgu.spl.net.srv.OutboundQueue.OverflowPolicy;
+import bgu.spl.net.srv.metrics.ServerMetrics;
+
+class OutboundQueueTest {
+
+    @Test
+    void testDropOldestEvictsChannelMessagesOnly() {
+        OutboundQueue queue = new OutboundQueue(3, 1 << 20, OverflowPolicy.DROP_OLDEST);
+        long before = events("DROP_OLDEST");
+        assertEquals(Offer.QUEUED, queue.offer(frame("RECEIPT 1"), false));
+        assertEquals(Offer.QUEUED, queue.offer(frame("MESSAGE 1"), true));
+        assertEquals(Offer.QUEUED, queue.offer(frame("MESSAGE 2"), true));
+
+        assertEquals(Offer.QUEUED, queue.offer(frame("MESSAGE 3"), true));
+        assertEquals(Offer.QUEUED, queue.offer(frame("RECEIPT 2"), false));
+
+        assertEquals("RECEIPT 1|MESSAGE 3|RECEIPT 2|", drain(queue));
+        assertEquals(2, events("DROP_OLDEST") - before);
+    }
+
+    @Test
+    void testDropOldestLeavesGatheredFramesAlone() {
+        OutboundQueue queue = new OutboundQueue(2, 1 << 20, OverflowPolicy.DROP_OLDEST);
+        queue.offer(frame("MESSAGE 1"), true);
+        queue.offer(frame("MESSAGE 2"), true);
+        ByteBuffer[] gathered = new ByteBuffer[8];
+        // two frames of two buffers each
+        assertEquals(4, queue.gather(gathered, 1 << 16));
+
+        // everything queued is being written, the new frame has nowhere to go
+        assertEquals(Offer.DROPPED, queue.offer(frame("MESSAGE 3"), true));
+        assertEquals(Offer.OVERFLOW, queue.offer(frame("RECEIPT 1"), false));
+        assertEquals(2, queue.size());
+    }
+
+    @Test
+    void testDropNewestKeepsTheBacklog() {
+        OutboundQueue queue = new OutboundQueue(1 << 10, 25, OverflowPolicy.DROP_NEWEST);
+        long before = events("DROP_NEWEST");
+        assertEquals(Offer.QUEUED, queue.offer(frame("MESSAGE 1"), true));
+        assertEquals(Offer.QUEUED, queue.offer(frame("MESSAGE 2"), true));
+        assertEquals(20, queue.bytes());
+
+        assertEquals(Offer.DROPPED, queue.offer(frame("MESSAGE 3"), true));
+        assertEquals(Offer.OVERFLOW, queue.offer(frame("RECEIPT 1"), false));
+
+        assertEquals("MESSAGE 1|MESSAGE 2|", drain(queue));
+        assertEquals(1, events("DROP_NEWEST") - before);
+    }
+
+    @Test
+    void testFrameLargerThanTheLimitGoesOutAlone() {
+        OutboundQueue queue = new OutboundQueue(10, 4, OverflowPolicy.DISCONNECT);
+        assertEquals(Offer.QUEUED, queue.offer(frame("MESSAGE 1"), true));
+        assertEquals(Offer.OVERFLOW, queue.offer(frame("MESSAGE 2"), true));
+    }
+
+    @Test
+    void testSlowConsumerErrorKeepsAStartedFrame() {
+        OutboundQueue queue = new OutboundQueue(10, 1 << 20, OverflowPolicy.DISCONNECT);
+        long before = events("DISCONNECT");
+        queue.offer(frame("MESSAGE 1"), true);
+        queue.offer(frame("MESSAGE 2"), true);
+        ByteBuffer[] gathered = new ByteBuffer[8];
+        queue.gather(gathered, 1 << 16);
+        gathered[0].position(3);
+        assertEquals(0, queue.completeWrite());
+
+        queue.closeWithSlowConsumerError();
+
+        assertTrue(queue.isClosed());
+        assertEquals(Offer.DROPPED, queue.offer(frame("MESSAGE 3"), true));
+        String rest = drain(queue);
+        assertTrue(rest.startsWith("SAGE 1|ERROR\nmessage:Slow consumer\n"), rest);
+        assertEquals(1, events("DISCONNECT") - before);
+    }
+
+    private static ByteBuffer[] frame(String text) {
+        return new ByteBuffer[] { ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)),
+                ByteBuffer.wrap("|".getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer() };
+    }
+
+    private static String drain(OutboundQueue queue) {
+        StringBuilder out = new StringBuilder();
+        ByteBuffer[] gathered = new ByteBuffer[8];
+        int buffers;
+        while ((buffers = queue.gather(gathered, 1 << 16)) > 0) {
+            for (int i = 0; i < buffers; i++) {
+                while (gathered[i].hasRemaining()) {
+                    out.append((char) gathered[i].get());
+                }
+            }
+            queue.completeWrite();
+        }
+        return out.toString();
+    }
+
+    private static long events(String policy) {
+        return ServerMetrics.getInstance().getSlowConsumerEvents().getOrDefault(policy, 0L);
+    }
+}
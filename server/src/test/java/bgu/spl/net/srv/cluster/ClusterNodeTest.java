@@ -0,0 +1,189 @@
+package bgu.spl.net.srv.cluster;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import bgu.spl.net.impl.data.Database;
+import bgu.spl.net.impl.data.LoginClaims;
+import bgu.spl.net.impl.stomp.StompMessagingProtocolImpl;
+import bgu.spl.net.srv.ConnectionHandler;
+import bgu.spl.net.srv.ConnectionsImpl;
+
+/**
+ * Three nodes on loopback in one JVM, each serving its own ConnectionsImpl.
+ */
+class ClusterNodeTest {
+    private final List<InetSocketAddress> addresses = new ArrayList<>();
+    private final List<ClusterNode> nodes = new ArrayList<>();
+    private final List<ConnectionsImpl<String>> connections = new ArrayList<>();
+
+    private static class MockConnectionHandler implements ConnectionHandler<String> {
+        private final List<String> receivedMessages = java.util.Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void send(String msg) {
+            receivedMessages.add(msg);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @BeforeEach
+    void setUp() throws IOException, InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            try (ServerSocket free = new ServerSocket(0)) {
+                addresses.add(new InetSocketAddress("127.0.0.1", free.getLocalPort()));
+            }
+        }
+        for (int i = 0; i < 3; i++) {
+            ClusterNode node = new ClusterNode(addresses, i, 1000, 50, 1000);
+            nodes.add(node);
+            connections.add(new ConnectionsImpl<>(null, node));
+        }
+        // a MESSAGE for a node whose link is not up yet is not forwarded
+        await(() -> nodes.stream().allMatch(ClusterNode::isLinked));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        for (ClusterNode node : nodes) {
+            node.close();
+        }
+        Database.getInstance().useLoginClaims(LoginClaims.LOCAL);
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "timed out");
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    void testMessagesAreForwardedOnlyToInterestedNodes() throws InterruptedException {
+        MockConnectionHandler local = new MockConnectionHandler();
+        MockConnectionHandler remote = new MockConnectionHandler();
+        MockConnectionHandler other = new MockConnectionHandler();
+        connections.get(0).addConnection(1, local);
+        connections.get(1).addConnection(1, remote);
+        connections.get(2).addConnection(1, other);
+        connections.get(0).subscribe("/worldcup/groupE", 1, 3);
+        connections.get(1).subscribe("/worldcup/*", 1, 4);
+        connections.get(2).subscribe("/news", 1, 5);
+        await(() -> nodes.get(0).interestedNodes("/worldcup/groupE") == 1 && nodes.get(0).interestedNodes("/news") == 1);
+
+        connections.get(0).send("/worldcup/groupE", "MESSAGE\ndestination:/worldcup/groupE\n\ngoal\n");
+
+        await(() -> remote.receivedMessages.size() == 1);
+        assertEquals(1, local.receivedMessages.size());
+        assertTrue(remote.receivedMessages.get(0).startsWith("MESSAGE\nsubscription:4\nmessage-id:"));
+        assertTrue(remote.receivedMessages.get(0).endsWith("\n\ngoal\n"));
+        assertEquals(1, nodes.get(0).forwardedFrames());
+        // forwarded frames are not forwarded again
+        assertEquals(0, nodes.get(1).forwardedFrames());
+        assertTrue(other.receivedMessages.isEmpty());
+
+        connections.get(1).unsubscribe("/worldcup/*", 1);
+        await(() -> nodes.get(0).interestedNodes("/worldcup/groupE") == 0);
+        connections.get(0).send("/worldcup/groupE", "MESSAGE\ndestination:/worldcup/groupE\n\nfoul\n");
+        assertEquals(1, nodes.get(0).forwardedFrames());
+    }
+
+    @Test
+    void testAUserIsLoggedInOnOneNodeAtATime() throws InterruptedException {
+        // claim at a node that does not own the name, so it goes over a link
+        String username = "meni";
+        int owner = nodes.get(0).owner(username);
+        ClusterNode first = nodes.get((owner + 1) % 3);
+        ClusterNode second = nodes.get((owner + 2) % 3);
+        await(() -> first.claim(username));
+
+        assertFalse(second.claim(username));
+        assertFalse(nodes.get(owner).claim(username));
+
+        first.release(username);
+        await(() -> second.claim(username));
+        assertFalse(first.claim(username));
+    }
+
+    @Test
+    void testANodeThatLeavesLosesItsInterestAndUsers() throws IOException, InterruptedException {
+        String username = "meni";
+        int owner = nodes.get(0).owner(username);
+        ClusterNode leaving = nodes.get((owner + 1) % 3);
+        ClusterNode staying = nodes.get((owner + 2) % 3);
+        MockConnectionHandler handler = new MockConnectionHandler();
+        connections.get(leaving.self()).addConnection(1, handler);
+        connections.get(leaving.self()).subscribe("/games", 1, 1);
+        await(() -> nodes.get(owner).interestedNodes("/games") == 1);
+        await(() -> leaving.claim(username));
+
+        leaving.close();
+
+        await(() -> nodes.get(owner).interestedNodes("/games") == 0);
+        await(() -> staying.claim(username));
+    }
+
+    @Test
+    void testALinkFromAnotherAddressIsRefused() throws IOException, InterruptedException {
+        // all of 127/8 is loopback, but node 1 is at 127.0.0.1
+        try (Socket spoof = new Socket()) {
+            spoof.bind(new InetSocketAddress(InetAddress.getByName("127.0.0.2"), 0));
+            spoof.connect(addresses.get(0));
+            spoof.setSoTimeout(5000);
+            DataOutputStream out = new DataOutputStream(spoof.getOutputStream());
+            out.writeByte(1); // HELLO from node 1
+            out.writeInt(4);
+            out.writeInt(1);
+            out.flush();
+
+            assertEquals(-1, spoof.getInputStream().read());
+        }
+        // node 1's own link is untouched
+        assertTrue(nodes.get(1).isLinked());
+        MockConnectionHandler handler = new MockConnectionHandler();
+        connections.get(1).addConnection(1, handler);
+        connections.get(1).subscribe("/games", 1, 1);
+        await(() -> nodes.get(0).interestedNodes("/games") == 1);
+    }
+
+    @Test
+    void testASummaryOnlyCoversTheReportsSentToItsNode() throws InterruptedException {
+        String channel = "/germany_japan-" + System.nanoTime();
+        MockConnectionHandler fan = new MockConnectionHandler();
+        connections.get(1).addConnection(7, fan);
+        StompMessagingProtocolImpl protocol = new StompMessagingProtocolImpl();
+        protocol.start(7, connections.get(1));
+        protocol.process("CONNECT\naccept-version:1.2\nhost:stomp.cs.bgu.ac.il\nlogin:summary-" + System.nanoTime()
+                + "\npasscode:pw\n\n\0");
+        protocol.process("SUBSCRIBE\ndestination:" + channel + "\nid:1\n\n\0");
+        await(() -> nodes.get(0).interestedNodes(channel) == 1);
+
+        // the MESSAGE node 0 fans out for a report sent there
+        connections.get(0).send(channel, "MESSAGE\ndestination:" + channel
+                + "\n\nteam a: germany\nteam b: japan\nevent name: goal\n");
+        await(() -> fan.receivedMessages.size() == 2);
+        assertTrue(fan.receivedMessages.get(1).endsWith("event name: goal\n"), fan.receivedMessages.get(1));
+
+        protocol.process("SUMMARY\ndestination:" + channel + "\n\n\0");
+        String summary = fan.receivedMessages.get(fan.receivedMessages.size() - 1);
+        assertTrue(summary.startsWith("SUMMARY\ndestination:" + channel + "\nevents:0\n"), summary);
+    }
+}
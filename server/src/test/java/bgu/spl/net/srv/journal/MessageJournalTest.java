@@ -0,0 +1,178 @@
+package bgu.spl.net.srv.journal;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MessageJournalTest {
+
+    @TempDir
+    Path root;
+
+    private MessageJournal open(int segmentBytes, long retainBytes) throws IOException {
+        return new MessageJournal(root, FsyncPolicy.OS, 1000, segmentBytes, retainBytes, Long.MAX_VALUE);
+    }
+
+    private static byte[] frame(int i) {
+        return ("MESSAGE\nmessage-id:" + i + "\n\nbody " + i).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static List<String> readAll(DestinationJournal journal, long from) {
+        List<String> frames = new ArrayList<>();
+        journal.read(from, (sequence, timestamp, frame) ->
+                frames.add(sequence + ":" + new String(frame, StandardCharsets.UTF_8).substring(frame.length - 6)));
+        return frames;
+    }
+
+    @Test
+    void testAppendedFramesAreRecoveredOnReopen() throws IOException {
+        try (MessageJournal journal = open(1 << 16, Long.MAX_VALUE)) {
+            DestinationJournal games = journal.journal("/games/usa_mexico");
+            for (int i = 0; i < 3; i++) {
+                assertEquals(i, games.append(frame(i)));
+            }
+        }
+
+        try (MessageJournal journal = open(1 << 16, Long.MAX_VALUE)) {
+            assertTrue(journal.journals().containsKey("/games/usa_mexico"));
+            DestinationJournal games = journal.journal("/games/usa_mexico");
+            assertEquals(3, games.nextSequence());
+            assertEquals(3, games.append(frame(3)));
+            assertEquals("[1:body 1, 2:body 2, 3:body 3]", readAll(games, 1).toString());
+            List<Long> last = new ArrayList<>();
+            games.readLast(2, (sequence, timestamp, frame) -> last.add(sequence));
+            assertEquals("[2, 3]", last.toString());
+        }
+    }
+
+    @Test
+    void testGivenSequencesMayLeaveGapsButNeverGoBack() throws IOException {
+        try (MessageJournal journal = open(120, Long.MAX_VALUE)) {
+            DestinationJournal games = journal.journal("games");
+            games.append(5, frame(5));
+            games.append(9, frame(9));
+            games.append(10, frame(10));
+            assertThrows(IllegalArgumentException.class, () -> games.append(10, frame(10)));
+            assertEquals(11, games.nextSequence());
+        }
+        try (MessageJournal journal = open(120, Long.MAX_VALUE)) {
+            DestinationJournal games = journal.journal("games");
+            assertEquals(11, games.nextSequence());
+            assertEquals("[9:body 9, 10:ody 10]", readAll(games, 6).toString());
+            assertEquals(11, games.append(frame(11)));
+        }
+    }
+
+    @Test
+    void testSegmentsRollAndReadAcrossThem() throws IOException {
+        // room for two records of about 50 bytes per segment
+        try (MessageJournal journal = open(120, Long.MAX_VALUE)) {
+            DestinationJournal games = journal.journal("games");
+            for (int i = 0; i < 7; i++) {
+                games.append(frame(i));
+            }
+            assertEquals(4, games.segmentCount());
+            assertEquals("[4:body 4, 5:body 5, 6:body 6]", readAll(games, 4).toString());
+        }
+        try (MessageJournal journal = open(120, Long.MAX_VALUE)) {
+            DestinationJournal games = journal.journal("games");
+            assertEquals(4, games.segmentCount());
+            assertEquals(7, readAll(games, 0).size());
+            assertEquals(7, games.append(frame(7)));
+        }
+    }
+
+    @Test
+    void testCorruptTailIsTruncatedOnRecovery() throws IOException {
+        int recordSize;
+        try (MessageJournal journal = open(1 << 16, Long.MAX_VALUE)) {
+            DestinationJournal games = journal.journal("games");
+            for (int i = 0; i < 3; i++) {
+                games.append(frame(i));
+            }
+            recordSize = JournalSegment.HEADER_SIZE + frame(0).length;
+        }
+        Path segment = root.resolve("games").resolve(String.format("%020d.log", 0));
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            // a payload byte of the last record, as if the crash came before it reached the disk
+            file.seek(2L * recordSize + JournalSegment.HEADER_SIZE + 3);
+            file.write('X');
+        }
+
+        try (MessageJournal journal = open(1 << 16, Long.MAX_VALUE)) {
+            DestinationJournal games = journal.journal("games");
+            assertEquals(2, games.nextSequence());
+            assertEquals(2, games.append(frame(9)));
+            assertEquals("[0:body 0, 1:body 1, 2:body 9]", readAll(games, 0).toString());
+        }
+    }
+
+    @Test
+    void testRetentionRemovesOldestSegmentsBySizeAndAge() throws IOException {
+        try (MessageJournal journal = open(120, 250)) {
+            DestinationJournal games = journal.journal("games");
+            for (int i = 0; i < 10; i++) {
+                games.append(frame(i));
+            }
+            // segments of two ~50 byte records; each roll trims the oldest ones down to the budget
+            assertTrue(games.size() <= 250);
+            assertEquals(6, games.firstSequence());
+            assertEquals("[6:body 6, 7:body 7, 8:body 8, 9:body 9]", readAll(games, 0).toString());
+            try (Stream<Path> files = Files.list(root.resolve("games"))) {
+                assertEquals(2, files.count());
+            }
+        }
+
+        try (MessageJournal journal = new MessageJournal(root, FsyncPolicy.OS, 1000, 120, Long.MAX_VALUE, 0)) {
+            DestinationJournal games = journal.journal("games");
+            games.append(frame(10));
+            games.append(frame(11));
+            games.append(frame(12));
+            games.enforceRetention(System.currentTimeMillis() + 1);
+            // the segment being written stays whatever its age
+            assertEquals(1, games.segmentCount());
+            assertEquals(12, games.firstSequence());
+        }
+    }
+
+    @Test
+    void testASegmentFileThatCannotGoYetIsDeletedLater() throws IOException {
+        try (MessageJournal journal = open(120, 250)) {
+            DestinationJournal games = journal.journal("games");
+            games.append(frame(0));
+            games.append(frame(1));
+            // stands in for a file Windows will not delete while it is mapped
+            Path first = root.resolve("games").resolve(String.format("%020d.log", 0));
+            Files.delete(first);
+            Files.createFile(Files.createDirectory(first).resolve("busy"));
+
+            for (int i = 2; i < 10; i++) {
+                assertEquals(i, games.append(frame(i)));
+            }
+            assertEquals(6, games.firstSequence());
+            assertTrue(Files.exists(first));
+
+            Files.delete(first.resolve("busy"));
+            games.enforceRetention(System.currentTimeMillis());
+            assertFalse(Files.exists(first));
+        }
+    }
+
+    @Test
+    void testDestinationDirectoryNamesRoundTrip() {
+        assertEquals("%2Ftopic%2Fa%2Eb%2A", MessageJournal.directoryName("/topic/a.b*"));
+        assertEquals("%2E%2E", MessageJournal.directoryName(".."));
+    }
+}
@@ -0,0 +1,103 @@
+package bgu.spl.net.srv.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+import bgu.spl.net.srv.ConnectionHandler;
+import bgu.spl.net.srv.ConnectionsImpl;
+
+class ServerMetricsTest {
+
+    @Test
+    void testHistogramCountsEveryConcurrentRecord() throws InterruptedException {
+        Histogram histogram = new Histogram();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 1; i <= 10_000; i++) {
+                    histogram.record(i * 1000L);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(40_000, histogram.getCount());
+        assertEquals(10_000.0, histogram.getMaxMicros());
+        assertEquals(5000.5, histogram.getMeanMicros(), 0.001);
+        // within the ~3% bucket width
+        assertEquals(5000, histogram.getP50Micros(), 5000 * 0.04);
+        assertEquals(9990, histogram.getP999Micros(), 9990 * 0.04);
+    }
+
+    @Test
+    void testHistogramBucketsCoverEveryValue() {
+        long previousHigh = -1;
+        for (long value = 0; value >= 0 && value < Long.MAX_VALUE / 2; value = value * 2 + 1) {
+            long high = Histogram.BUCKETS.highestValueOf(Histogram.BUCKETS.indexOf(value));
+            assertTrue(high >= value);
+            assertTrue(high - value <= Math.max(0, value / 31));
+            assertTrue(high > previousHigh);
+            previousHigh = high;
+        }
+    }
+
+    @Test
+    void testCountersAndGaugesVisibleOverJmx() throws Exception {
+        ServerMetrics metrics = ServerMetrics.getInstance();
+        ConnectionsImpl<String> connections = new ConnectionsImpl<>();
+        metrics.trackConnections(connections::subscriberCounts, connections::writeBacklogs);
+        long before = metrics.getActiveConnections();
+
+        ConnectionHandler<String> handler = new ConnectionHandler<String>() {
+            @Override
+            public void send(String msg) {
+            }
+
+            @Override
+            public void close() {
+            }
+
+            @Override
+            public int pendingWrites() {
+                return 3;
+            }
+        };
+        connections.addConnection(9001, handler);
+        connections.addConnection(9002, handler);
+        connections.subscribe("/metrics-test", 9001, 1);
+        connections.subscribe("/metrics-test", 9002, 1);
+        metrics.command("SEND").received();
+        metrics.command("SEND").record(2_000);
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName serverName = new ObjectName("bgu.spl.net:type=Server");
+        assertEquals(before + 2, server.getAttribute(serverName, "ActiveConnections"));
+        assertEquals(1, server.getAttribute(serverName, "ChannelCount"));
+        TabularData subscribers = (TabularData) server.getAttribute(serverName, "ChannelSubscribers");
+        assertEquals(2, subscribers.get(new Object[] {"/metrics-test"}).get("value"));
+        TabularData backlogs = (TabularData) server.getAttribute(serverName, "WriteBacklogs");
+        assertEquals(3, backlogs.get(new Object[] {9001}).get("value"));
+        ObjectName send = new ObjectName("bgu.spl.net:type=Command,name=\"SEND\"");
+        assertTrue((Long) server.getAttribute(send, "Count") >= 1);
+        assertTrue((Long) server.getAttribute(send, "FramesReceived") >= 1);
+
+        connections.disconnect(9001);
+        assertEquals(before + 1, metrics.getActiveConnections());
+        connections.disconnect(9001);
+        assertEquals(before + 1, metrics.getActiveConnections());
+        connections.disconnect(9002);
+    }
+}